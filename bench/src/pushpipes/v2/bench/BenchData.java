@@ -0,0 +1,37 @@
+package pushpipes.v2.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+
+/**
+ * Shared benchmark input: the same {@code size} boxed integers exposed as a {@link List} and as an array,
+ * so that {@link pushpipes.v2.Producable} chains, {@link Iterator} chains and hand-written loops all see
+ * identical data.
+ *
+ * @author peter.levart@gmail.com
+ */
+@State(Scope.Benchmark)
+public class BenchData
+{
+   /**
+    * Number of distinct values used by {@code uniqueElements} and {@code groupBy} benchmarks.
+    */
+   public static final int KEYS = 64;
+
+   @Param({"1000", "100000"})
+   public int size;
+
+   public Integer[] array;
+   public List<Integer> list;
+
+   @Setup
+   public void setup()
+   {
+      Random random = new Random(42L);
+      array = new Integer[size];
+      for (int i = 0; i < size; i++)
+         array[i] = random.nextInt(size);
+      list = Arrays.asList(array);
+   }
+}
@@ -0,0 +1,157 @@
+package pushpipes.v2.bench;
+
+import java.util.*;
+import java.util.functions.*;
+
+/**
+ * Minimal hand-written {@link Iterator} decorators - the pull-model baseline that
+ * {@link pushpipes.v2.Producable} chains are measured against.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class IteratorChains
+{
+   private IteratorChains() {}
+
+   static <T> Iterator<T> filter(final Iterator<T> source, final Predicate<? super T> predicate)
+   {
+      return new ReadOnlyIterator<T>()
+      {
+         T next;
+         boolean hasNext;
+
+         @Override
+         public boolean hasNext()
+         {
+            while (!hasNext && source.hasNext())
+            {
+               T t = source.next();
+               if (predicate.test(t))
+               {
+                  next = t;
+                  hasNext = true;
+               }
+            }
+            return hasNext;
+         }
+
+         @Override
+         public T next()
+         {
+            if (!hasNext())
+               throw new NoSuchElementException();
+
+            hasNext = false;
+            return next;
+         }
+      };
+   }
+
+   static <T, U> Iterator<U> map(final Iterator<T> source, final Mapper<? super T, ? extends U> mapper)
+   {
+      return new ReadOnlyIterator<U>()
+      {
+         @Override
+         public boolean hasNext()
+         {
+            return source.hasNext();
+         }
+
+         @Override
+         public U next()
+         {
+            return mapper.map(source.next());
+         }
+      };
+   }
+
+   static <T, U> Iterator<U> flatMap(final Iterator<T> source, final Mapper<? super T, ? extends Iterable<U>> mapper)
+   {
+      return new ReadOnlyIterator<U>()
+      {
+         Iterator<U> current = Collections.emptyIterator();
+
+         @Override
+         public boolean hasNext()
+         {
+            while (!current.hasNext() && source.hasNext())
+               current = mapper.map(source.next()).iterator();
+            return current.hasNext();
+         }
+
+         @Override
+         public U next()
+         {
+            if (!hasNext())
+               throw new NoSuchElementException();
+
+            return current.next();
+         }
+      };
+   }
+
+   static <T> Iterator<T> sorted(Iterator<T> source, Comparator<? super T> comparator)
+   {
+      List<T> list = new ArrayList<>();
+      while (source.hasNext())
+         list.add(source.next());
+      Collections.sort(list, comparator);
+      return list.iterator();
+   }
+
+   static <T> Iterator<T> uniqueElements(Iterator<T> source)
+   {
+      Set<T> set = new HashSet<>();
+      while (source.hasNext())
+         set.add(source.next());
+      return set.iterator();
+   }
+
+   static <T, U> Iterator<Map.Entry<U, Collection<T>>> groupBy(Iterator<T> source, Mapper<? super T, ? extends U> mapper)
+   {
+      Map<U, Collection<T>> multiMap = new HashMap<>();
+      while (source.hasNext())
+      {
+         T t = source.next();
+         U key = mapper.map(t);
+         Collection<T> group = multiMap.get(key);
+         if (group == null)
+            multiMap.put(key, group = new ArrayList<>());
+         group.add(t);
+      }
+      return multiMap.entrySet().iterator();
+   }
+
+   static <T> Iterator<T> cumulate(final Iterator<T> source, final BinaryOperator<T> op)
+   {
+      return new ReadOnlyIterator<T>()
+      {
+         T last;
+         boolean first = true;
+
+         @Override
+         public boolean hasNext()
+         {
+            return source.hasNext();
+         }
+
+         @Override
+         public T next()
+         {
+            T t = source.next();
+            last = first ? t : op.eval(last, t);
+            first = false;
+            return last;
+         }
+      };
+   }
+
+   private static abstract class ReadOnlyIterator<T> implements Iterator<T>
+   {
+      @Override
+      public final void remove()
+      {
+         throw new UnsupportedOperationException();
+      }
+   }
+}
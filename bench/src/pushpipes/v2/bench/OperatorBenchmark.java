@@ -0,0 +1,223 @@
+package pushpipes.v2.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pushpipes.v2.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-operator cost of {@link Producable} chain stages. Each operator is measured three ways over the
+ * same {@link BenchData}:
+ * <ul>
+ * <li>{@code *_producable} - a {@link Producable} chain drained with {@code forEach}</li>
+ * <li>{@code *_iterator} - the equivalent {@link Iterator} chain from {@link IteratorChains}</li>
+ * <li>{@code *_loop} - a hand-written loop</li>
+ * </ul>
+ * Every produced element is sunk into a {@link Blackhole} so that the three variants do the same work.
+ *
+ * @author peter.levart@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperatorBenchmark
+{
+   static void drain(Iterator<?> iterator, Blackhole bh)
+   {
+      while (iterator.hasNext())
+         bh.consume(iterator.next());
+   }
+
+   //
+   // filter
+
+   @Benchmark
+   public void filter_producable(BenchData data, final Blackhole bh)
+   {
+      Producable.from(data.list)
+         .filter(i -> (i & 1) == 0)
+         .forEach(i -> bh.consume(i));
+   }
+
+   @Benchmark
+   public void filter_iterator(BenchData data, Blackhole bh)
+   {
+      drain(IteratorChains.filter(data.list.iterator(), i -> (i & 1) == 0), bh);
+   }
+
+   @Benchmark
+   public void filter_loop(BenchData data, Blackhole bh)
+   {
+      for (Integer i : data.array)
+         if ((i & 1) == 0)
+            bh.consume(i);
+   }
+
+   //
+   // map
+
+   @Benchmark
+   public void map_producable(BenchData data, final Blackhole bh)
+   {
+      Producable.from(data.list)
+         .map(i -> i * 31)
+         .forEach(i -> bh.consume(i));
+   }
+
+   @Benchmark
+   public void map_iterator(BenchData data, Blackhole bh)
+   {
+      drain(IteratorChains.map(data.list.iterator(), (Integer i) -> i * 31), bh);
+   }
+
+   @Benchmark
+   public void map_loop(BenchData data, Blackhole bh)
+   {
+      for (Integer i : data.array)
+         bh.consume(Integer.valueOf(i * 31));
+   }
+
+   //
+   // flatMap
+
+   @Benchmark
+   public void flatMap_producable(BenchData data, final Blackhole bh)
+   {
+      Producable.from(data.list)
+         .flatMap(i -> Arrays.asList(i, -i))
+         .forEach(i -> bh.consume(i));
+   }
+
+   @Benchmark
+   public void flatMap_iterator(BenchData data, Blackhole bh)
+   {
+      drain(IteratorChains.flatMap(data.list.iterator(), (Integer i) -> Arrays.asList(i, -i)), bh);
+   }
+
+   @Benchmark
+   public void flatMap_loop(BenchData data, Blackhole bh)
+   {
+      for (Integer i : data.array)
+         for (Integer j : Arrays.asList(i, -i))
+            bh.consume(j);
+   }
+
+   //
+   // sorted
+
+   @Benchmark
+   public void sorted_producable(BenchData data, final Blackhole bh)
+   {
+      Producable.from(data.list)
+         .sorted(Comparators.<Integer>naturalOrder())
+         .forEach(i -> bh.consume(i));
+   }
+
+   @Benchmark
+   public void sorted_iterator(BenchData data, Blackhole bh)
+   {
+      drain(IteratorChains.sorted(data.list.iterator(), Comparators.<Integer>naturalOrder()), bh);
+   }
+
+   @Benchmark
+   public void sorted_loop(BenchData data, Blackhole bh)
+   {
+      Integer[] copy = data.array.clone();
+      Arrays.sort(copy, Comparators.<Integer>naturalOrder());
+      for (Integer i : copy)
+         bh.consume(i);
+   }
+
+   //
+   // uniqueElements
+
+   @Benchmark
+   public void uniqueElements_producable(BenchData data, final Blackhole bh)
+   {
+      Producable.from(data.list)
+         .map(i -> i % BenchData.KEYS)
+         .uniqueElements()
+         .forEach(i -> bh.consume(i));
+   }
+
+   @Benchmark
+   public void uniqueElements_iterator(BenchData data, Blackhole bh)
+   {
+      drain(IteratorChains.uniqueElements(IteratorChains.map(data.list.iterator(), (Integer i) -> i % BenchData.KEYS)), bh);
+   }
+
+   @Benchmark
+   public void uniqueElements_loop(BenchData data, Blackhole bh)
+   {
+      Set<Integer> set = new HashSet<>();
+      for (Integer i : data.array)
+         set.add(i % BenchData.KEYS);
+      for (Integer i : set)
+         bh.consume(i);
+   }
+
+   //
+   // groupBy
+
+   @Benchmark
+   public void groupBy_producable(BenchData data, final Blackhole bh)
+   {
+      Producable.from(data.list)
+         .groupBy(i -> i % BenchData.KEYS)
+         .forEach((k, group) -> { bh.consume(k); bh.consume(group); });
+   }
+
+   @Benchmark
+   public void groupBy_iterator(BenchData data, Blackhole bh)
+   {
+      drain(IteratorChains.groupBy(data.list.iterator(), (Integer i) -> i % BenchData.KEYS), bh);
+   }
+
+   @Benchmark
+   public void groupBy_loop(BenchData data, Blackhole bh)
+   {
+      Map<Integer, Collection<Integer>> multiMap = new HashMap<>();
+      for (Integer i : data.array)
+      {
+         Integer key = i % BenchData.KEYS;
+         Collection<Integer> group = multiMap.get(key);
+         if (group == null)
+            multiMap.put(key, group = new ArrayList<>());
+         group.add(i);
+      }
+      for (Map.Entry<Integer, Collection<Integer>> entry : multiMap.entrySet())
+      {
+         bh.consume(entry.getKey());
+         bh.consume(entry.getValue());
+      }
+   }
+
+   //
+   // cumulate
+
+   @Benchmark
+   public void cumulate_producable(BenchData data, final Blackhole bh)
+   {
+      Producable.from(data.list)
+         .cumulate((i1, i2) -> i1 + i2)
+         .forEach(i -> bh.consume(i));
+   }
+
+   @Benchmark
+   public void cumulate_iterator(BenchData data, Blackhole bh)
+   {
+      drain(IteratorChains.cumulate(data.list.iterator(), (Integer i1, Integer i2) -> i1 + i2), bh);
+   }
+
+   @Benchmark
+   public void cumulate_loop(BenchData data, Blackhole bh)
+   {
+      int sum = 0;
+      for (Integer i : data.array)
+         bh.consume(Integer.valueOf(sum += i));
+   }
+}
@@ -0,0 +1,26 @@
+package pushpipes.v2.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks in this package, or only those matching the regular expression given as the first argument.
+ * Handy for running from an IDE; the {@code benchmarks.jar} built by {@code bench/pom.xml} runs JMH's own command
+ * line instead.
+ *
+ * @author peter.levart@gmail.com
+ */
+public class RunBenchmarks
+{
+   public static void main(String[] args) throws RunnerException
+   {
+      String include = args.length > 0 ? args[0] : RunBenchmarks.class.getPackage().getName() + ".*";
+
+      new Runner(
+         new OptionsBuilder()
+            .include(include)
+            .build()
+      ).run();
+   }
+}
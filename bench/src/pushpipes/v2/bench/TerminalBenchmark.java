@@ -0,0 +1,153 @@
+package pushpipes.v2.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pushpipes.v2.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-terminal cost of {@link Producable} execution, measured against an {@link Iterator} and a hand-written
+ * loop over the same {@link BenchData}. A single stateless {@code filter} stage sits in front of each terminal
+ * so that the push model's per-element hop is part of the measurement.
+ *
+ * @author peter.levart@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerminalBenchmark
+{
+   //
+   // count
+
+   @Benchmark
+   public long count_producable(BenchData data)
+   {
+      return Producable.from(data.list).filter(i -> (i & 1) == 0).count();
+   }
+
+   @Benchmark
+   public long count_iterator(BenchData data)
+   {
+      long count = 0;
+      for (Iterator<Integer> it = IteratorChains.filter(data.list.iterator(), i -> (i & 1) == 0); it.hasNext(); it.next())
+         count++;
+      return count;
+   }
+
+   @Benchmark
+   public long count_loop(BenchData data)
+   {
+      long count = 0;
+      for (Integer i : data.array)
+         if ((i & 1) == 0)
+            count++;
+      return count;
+   }
+
+   //
+   // reduce
+
+   @Benchmark
+   public Integer reduce_producable(BenchData data)
+   {
+      return Producable.from(data.list).filter(i -> (i & 1) == 0).reduce(0, (i1, i2) -> i1 + i2);
+   }
+
+   @Benchmark
+   public Integer reduce_iterator(BenchData data)
+   {
+      Integer result = 0;
+      for (Iterator<Integer> it = IteratorChains.filter(data.list.iterator(), i -> (i & 1) == 0); it.hasNext(); )
+         result = result + it.next();
+      return result;
+   }
+
+   @Benchmark
+   public Integer reduce_loop(BenchData data)
+   {
+      Integer result = 0;
+      for (Integer i : data.array)
+         if ((i & 1) == 0)
+            result = result + i;
+      return result;
+   }
+
+   //
+   // forEach
+
+   @Benchmark
+   public void forEach_producable(BenchData data, final Blackhole bh)
+   {
+      Producable.from(data.list).filter(i -> (i & 1) == 0).forEach(i -> bh.consume(i));
+   }
+
+   @Benchmark
+   public void forEach_iterator(BenchData data, Blackhole bh)
+   {
+      OperatorBenchmark.drain(IteratorChains.filter(data.list.iterator(), i -> (i & 1) == 0), bh);
+   }
+
+   @Benchmark
+   public void forEach_loop(BenchData data, Blackhole bh)
+   {
+      for (Integer i : data.array)
+         if ((i & 1) == 0)
+            bh.consume(i);
+   }
+
+   //
+   // iterator
+
+   @Benchmark
+   public void iterator_producable(BenchData data, Blackhole bh)
+   {
+      OperatorBenchmark.drain(Producable.from(data.list).filter(i -> (i & 1) == 0).iterator(), bh);
+   }
+
+   @Benchmark
+   public void iterator_iterator(BenchData data, Blackhole bh)
+   {
+      OperatorBenchmark.drain(IteratorChains.filter(data.list.iterator(), i -> (i & 1) == 0), bh);
+   }
+
+   @Benchmark
+   public void iterator_loop(BenchData data, Blackhole bh)
+   {
+      for (Integer i : data.array)
+         if ((i & 1) == 0)
+            bh.consume(i);
+   }
+
+   //
+   // into
+
+   @Benchmark
+   public List<Integer> into_producable(BenchData data)
+   {
+      return Producable.from(data.list).filter(i -> (i & 1) == 0).into(new ArrayList<Integer>());
+   }
+
+   @Benchmark
+   public List<Integer> into_iterator(BenchData data)
+   {
+      List<Integer> result = new ArrayList<>();
+      for (Iterator<Integer> it = IteratorChains.filter(data.list.iterator(), i -> (i & 1) == 0); it.hasNext(); )
+         result.add(it.next());
+      return result;
+   }
+
+   @Benchmark
+   public List<Integer> into_loop(BenchData data)
+   {
+      List<Integer> result = new ArrayList<>();
+      for (Integer i : data.array)
+         if ((i & 1) == 0)
+            result.add(i);
+      return result;
+   }
+}
@@ -0,0 +1,363 @@
+package pushpipes.v2;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The producer of an {@link Producable#async} stage. The upstream segment of the chain is pumped by a task running
+ * on an {@link Executor}, which passes the elements to this producer through a bounded {@link Channel}, while the
+ * downstream segment is driven by the thread calling {@link #produce()}.<p/>
+ * The upstream segment's tail blocks the pump while the channel is full, and it's {@link Transformer#canConsume()}
+ * answers false once downstream has stopped accepting output, which stops the upstream head. Elements are handed
+ * over in chunks of up to {@link Producable#DEFAULT_BATCH_SIZE} to amortize locking; a partial chunk is handed
+ * over as soon as the downstream thread is waiting for input, so a slow head doesn't delay elements it has already
+ * produced.<p/>
+ * The pump only holds this producer weakly: when an execution is abandoned before it's end (for example by
+ * {@link Producable#getFirst}), the pump stops once this producer has been garbage collected.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class AsyncProducer<T> implements Producer
+{
+   /**
+    * Runs each task in a new daemon thread.
+    */
+   static final Executor DAEMON_THREADS = new Executor()
+   {
+      @Override
+      public void execute(Runnable task)
+      {
+         Thread thread = new Thread(task, "pushpipes-async");
+         thread.setDaemon(true);
+         thread.start();
+      }
+   };
+
+   /**
+    * How often a pump blocked on a full channel checks whether it's consumer has been abandoned.
+    */
+   private static final long ABANDON_CHECK_MILLIS = 100L;
+
+   private final Channel channel;
+   private final Transformer<? super T> downstream;
+   private final BatchTransformer<? super T> batchDownstream;
+   private Pump pump;
+
+   private final Object[] out;
+   private int outPosition, outLength;
+   private boolean finished;
+
+   @SuppressWarnings("unchecked")
+   AsyncProducer(Producable<T> upstream, Transformer<? super T> downstream, int bufferSize, Executor executor)
+   {
+      this.downstream = downstream;
+      this.batchDownstream =
+         downstream instanceof BatchTransformer<?> ? (BatchTransformer<? super T>) downstream : null;
+      int chunkSize = Math.min(bufferSize, Producable.DEFAULT_BATCH_SIZE);
+      out = new Object[chunkSize];
+      channel = new Channel(bufferSize);
+      Enqueue<T> enqueue = new Enqueue<>(channel, chunkSize, new WeakReference<>(this));
+      pump = new Pump(channel, upstream.producer(enqueue), enqueue, executor);
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public boolean produce()
+   {
+      if (pump != null)
+      {
+         pump.start();
+         pump = null;
+      }
+
+      if (downstream.canConsume())
+      {
+         if (outPosition == outLength && !finished)
+         {
+            outPosition = 0;
+            outLength = channel.take(out);
+            if (outLength < 0)
+            {
+               outLength = 0;
+               finished = true;
+            }
+         }
+
+         if (outPosition < outLength)
+         {
+            if (batchDownstream != null)
+            {
+               batchDownstream.consume((T[]) out, outPosition, outLength - outPosition);
+               Arrays.fill(out, outPosition, outLength, null);
+               outPosition = outLength;
+            }
+            else
+            {
+               downstream.consume((T) out[outPosition]);
+               out[outPosition++] = null;
+            }
+            return true;
+         }
+      }
+
+      if (downstream.produce())
+         return true;
+
+      // downstream is done - stop pumping (when not already finished)
+      channel.cancel();
+      return false;
+   }
+
+   /**
+    * A bounded ring buffer of elements between the pump and the consumer.
+    */
+   private static final class Channel
+   {
+      private final ReentrantLock lock = new ReentrantLock();
+      private final Condition notEmpty = lock.newCondition();
+      private final Condition notFull = lock.newCondition();
+      private final Object[] ring;
+      private int head, count;
+      private boolean done;
+      private Throwable failure;
+
+      volatile boolean cancelled;
+      volatile boolean waiting;
+
+      Channel(int capacity)
+      {
+         ring = new Object[capacity];
+      }
+
+      /**
+       * Moves {@code length} elements from the chunk into the ring, waiting for space while it is full.
+       *
+       * @param consumer the consumer of the channel, checked for abandonment while waiting
+       */
+      void put(Object[] chunk, int length, WeakReference<?> consumer)
+      {
+         int i = 0;
+         lock.lock();
+         try
+         {
+            while (i < length && !cancelled)
+            {
+               while (count == ring.length && !cancelled)
+               {
+                  try
+                  {
+                     if (!notFull.await(ABANDON_CHECK_MILLIS, TimeUnit.MILLISECONDS) && consumer.get() == null)
+                        cancelled = true;
+                  }
+                  catch (InterruptedException e)
+                  {
+                     cancelled = true;
+                  }
+               }
+
+               for (; i < length && count < ring.length; i++, count++)
+               {
+                  int tail = head + count;
+                  ring[tail >= ring.length ? tail - ring.length : tail] = chunk[i];
+               }
+               notEmpty.signal();
+            }
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Takes the available elements (up to the length of {@code out}), waiting for the pump if there are none.
+       *
+       * @return the number of elements taken or -1 if the pump is done and all elements have been taken
+       */
+      int take(Object[] out)
+      {
+         lock.lock();
+         try
+         {
+            while (count == 0 && !done)
+            {
+               waiting = true;
+               try
+               {
+                  notEmpty.await();
+               }
+               catch (InterruptedException e)
+               {
+                  cancelled = true;
+                  notFull.signal();
+                  Thread.currentThread().interrupt();
+                  CancellationException ce = new CancellationException("Interrupted while waiting for upstream");
+                  ce.initCause(e);
+                  throw ce;
+               }
+               finally
+               {
+                  waiting = false;
+               }
+            }
+
+            if (count == 0)
+            {
+               if (failure instanceof RuntimeException)
+                  throw (RuntimeException) failure;
+               if (failure instanceof Error)
+                  throw (Error) failure;
+               if (failure != null)
+                  throw new IllegalStateException(failure);
+               return -1;
+            }
+
+            int n = Math.min(count, out.length);
+            for (int i = 0; i < n; i++)
+            {
+               out[i] = ring[head];
+               ring[head] = null;
+               head = head + 1 == ring.length ? 0 : head + 1;
+            }
+            count -= n;
+            notFull.signal();
+            return n;
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+
+      void cancel()
+      {
+         lock.lock();
+         try
+         {
+            cancelled = true;
+            notFull.signal();
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+
+      void finish(Throwable failure)
+      {
+         lock.lock();
+         try
+         {
+            done = true;
+            this.failure = failure;
+            notEmpty.signal();
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+   }
+
+   /**
+    * The tail of the upstream segment, collecting elements into chunks for the channel.
+    */
+   private static final class Enqueue<T> implements Transformer<T>
+   {
+      private final Channel channel;
+      private final Object[] chunk;
+      private int length;
+      private final WeakReference<?> consumer;
+
+      Enqueue(Channel channel, int chunkSize, WeakReference<?> consumer)
+      {
+         this.channel = channel;
+         chunk = new Object[chunkSize];
+         this.consumer = consumer;
+      }
+
+      @Override
+      public boolean canConsume()
+      {
+         return !channel.cancelled;
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         chunk[length++] = Flyweights.retain(t);
+         if (length == chunk.length)
+            flush();
+      }
+
+      @Override
+      public boolean produce()
+      {
+         return false;
+      }
+
+      void flush()
+      {
+         if (length > 0)
+         {
+            channel.put(chunk, length, consumer);
+            Arrays.fill(chunk, 0, length, null);
+            length = 0;
+         }
+      }
+   }
+
+   /**
+    * Drives the upstream segment until it is exhausted or the channel is cancelled.
+    */
+   private static final class Pump implements Runnable
+   {
+      private final Channel channel;
+      private final Producer upstream;
+      private final Enqueue<?> enqueue;
+      private final Executor executor;
+
+      Pump(Channel channel, Producer upstream, Enqueue<?> enqueue, Executor executor)
+      {
+         this.channel = channel;
+         this.upstream = upstream;
+         this.enqueue = enqueue;
+         this.executor = executor;
+      }
+
+      void start()
+      {
+         executor.execute(this);
+      }
+
+      @Override
+      public void run()
+      {
+         Throwable failure = null;
+         try
+         {
+            while (!channel.cancelled && upstream.produce())
+            {
+               // don't keep a partial chunk while downstream is starving
+               if (channel.waiting)
+                  enqueue.flush();
+            }
+
+            enqueue.flush();
+         }
+         catch (Throwable t)
+         {
+            failure = t;
+         }
+         finally
+         {
+            channel.finish(failure);
+         }
+      }
+   }
+}
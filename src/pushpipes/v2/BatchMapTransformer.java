@@ -0,0 +1,24 @@
+package pushpipes.v2;
+
+/**
+ * Same as {@link BatchTransformer} but for {@link MapTransformer}s. Keys and values are passed in two parallel
+ * arrays, sharing the same {@code offset}.
+ *
+ * @author peter.levart@gmail.com
+ * @see BatchTransformer
+ * @see MapTransformer
+ */
+public interface BatchMapTransformer<K, V> extends MapTransformer<K, V>
+{
+   /**
+    * Consumes {@code length} pairs {@code (keys[i], values[i])} starting at {@code i = offset}. May only be
+    * called when {@link #canConsume()} returns true and always consumes all given pairs.
+    *
+    * @param keys   the array holding the keys to consume
+    * @param values the array holding the values to consume
+    * @param offset the index of the first pair to consume
+    * @param length the number of pairs to consume
+    * @throws IllegalStateException if this transformer is in a state that doesn't allow consuming
+    */
+   void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException;
+}
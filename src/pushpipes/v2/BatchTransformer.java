@@ -0,0 +1,30 @@
+package pushpipes.v2;
+
+/**
+ * An optional extension of {@link Transformer} that can consume a whole chunk of input with a single call to
+ * {@link #consume(Object[], int, int)}, saving the per-element {@link #canConsume()} poll and {@link #produce()}
+ * bounce that the element-at-a-time protocol requires.<p/>
+ * Upstream producers check for this interface with {@code instanceof} and fall back to the per-element
+ * {@link #consume(Object)} when the downstream is a plain {@link Transformer}. A stage should only present
+ * itself as a {@link BatchTransformer} when it can accept any number of elements at once, which for
+ * stateless stages means: when it's own downstream is a {@link BatchTransformer} too.<p/>
+ * The runtime component type of the batch array is unspecified (it is typically {@code Object[]}), so
+ * implementations should stay generic in {@code T}. The array is only borrowed for the duration of the call
+ * and must neither be modified nor retained.
+ *
+ * @author peter.levart@gmail.com
+ * @see Transformer
+ */
+public interface BatchTransformer<T> extends Transformer<T>
+{
+   /**
+    * Consumes {@code length} elements of {@code batch} starting at {@code offset}. May only be called when
+    * {@link #canConsume()} returns true and always consumes all given elements.
+    *
+    * @param batch  the array holding the elements to consume
+    * @param offset the index of the first element to consume
+    * @param length the number of elements to consume
+    * @throws IllegalStateException if this transformer is in a state that doesn't allow consuming
+    */
+   void consume(T[] batch, int offset, int length) throws IllegalStateException;
+}
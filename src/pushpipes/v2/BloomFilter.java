@@ -0,0 +1,87 @@
+package pushpipes.v2;
+
+import java.util.Arrays;
+
+/**
+ * A Bloom filter remembering objects in a fixed-size bit set, sized for an expected number of distinct objects
+ * and a false positive rate. Used by {@link Producable#approxDistinct} to de-duplicate in fixed memory: an object
+ * that was added before is always reported as such, while a new object is mistaken for a seen one with about the
+ * false positive probability (once the expected number of objects have been added). Objects are hashed like in
+ * {@link HyperLogLog}, so objects with equal hash codes are indistinguishable.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class BloomFilter
+{
+   private final long[] words;
+   private final long bits;
+   private final int hashes;
+
+   /**
+    * @param expectedElements the expected number of distinct objects
+    * @param words            the size of the bit set in 64-bit words, as computed by {@link #words}
+    */
+   BloomFilter(long expectedElements, int words)
+   {
+      this.words = new long[words];
+      bits = (long) words << 6;
+      hashes = Math.max(1, (int) Math.round((double) bits / expectedElements * Math.log(2d)));
+   }
+
+   /**
+    * Validates the parameters of a filter and computes it's size without allocating it.
+    *
+    * @param expectedElements  the expected number of distinct objects
+    * @param falsePositiveRate the false positive probability, in range (0, 1)
+    * @return the size of the filter's bit set in 64-bit words
+    * @throws IllegalArgumentException if a parameter is out of range or the filter would be too large
+    */
+   static int words(long expectedElements, double falsePositiveRate)
+   {
+      if (expectedElements < 1)
+         throw new IllegalArgumentException("expectedElements: " + expectedElements);
+      if (!(falsePositiveRate > 0d && falsePositiveRate < 1d))
+         throw new IllegalArgumentException("falsePositiveRate: " + falsePositiveRate);
+
+      double ln2 = Math.log(2d);
+      long bits = (long) Math.ceil(-expectedElements * Math.log(falsePositiveRate) / (ln2 * ln2));
+      long words = Math.max(1L, (bits + 63L) >>> 6);
+      if (words > Integer.MAX_VALUE - 8)
+         throw new IllegalArgumentException("Bloom filter too large: " + bits + " bits");
+
+      return (int) words;
+   }
+
+   /**
+    * @param o the object to add
+    * @return true if the object was (definitely) not added before, false if it probably was
+    */
+   boolean add(Object o)
+   {
+      long h = HyperLogLog.hash64(o);
+      long h1 = (int) h;
+      long h2 = (int) (h >>> 32);
+      boolean added = false;
+      for (int i = 1; i <= hashes; i++)
+      {
+         long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+         int w = (int) (bit >>> 6);
+         long mask = 1L << bit;
+         if ((words[w] & mask) == 0L)
+         {
+            words[w] |= mask;
+            added = true;
+         }
+      }
+
+      return added;
+   }
+
+   /**
+    * Forgets all added objects.
+    */
+   void clear()
+   {
+      Arrays.fill(words, 0L);
+   }
+}
@@ -0,0 +1,175 @@
+package pushpipes.v2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Flyweight} view of a range of bytes in a {@link ByteBuffer} (on-heap, direct or memory-mapped) holding
+ * one binary record. Subclasses define typed accessors for the fields of the record in terms of the absolute
+ * {@code getXxx(index)} methods, for example:
+ * <pre>
+ *    class Trade extends ByteRecord&lt;Trade&gt; {
+ *       long id()       { return getLong(0); }
+ *       double price()  { return getDouble(8); }
+ *       protected Trade newInstance() { return new Trade(); }
+ *    }
+ *
+ *    double total = Producable.records(path, 16, new Trade())
+ *       .filter(t -> t.price() > 100d)
+ *       .mapDouble(t -> t.price())
+ *       .reduce(0d, (a, b) -> a + b);
+ * </pre>
+ * The indexes are relative to the start of the record and the byte order is the order of the underlying buffer.
+ * Two records are equal if they are of the same class and have equal contents.
+ *
+ * @param <R> the type of the record (the subclass)
+ * @author peter.levart@gmail.com
+ * @see Bytes
+ * @see Producable#records(ByteBuffer, int, ByteRecord)
+ * @see Producable#records(java.nio.file.Path, int, ByteRecord)
+ */
+public abstract class ByteRecord<R extends ByteRecord<R>> implements Flyweight<R>
+{
+   private ByteBuffer buffer;
+   private int offset;
+   private int length;
+
+   /**
+    * Moves this view to a new record.
+    *
+    * @param buffer the buffer containing the record
+    * @param offset the absolute index of the first byte of the record in the {@code buffer}
+    * @param length the length of the record in bytes
+    */
+   public final void moveTo(ByteBuffer buffer, int offset, int length)
+   {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.length = length;
+   }
+
+   /**
+    * @return the length of the current record in bytes
+    */
+   public final int length()
+   {
+      return length;
+   }
+
+   public final byte getByte(int index)
+   {
+      return buffer.get(offset + index);
+   }
+
+   public final short getShort(int index)
+   {
+      return buffer.getShort(offset + index);
+   }
+
+   public final char getChar(int index)
+   {
+      return buffer.getChar(offset + index);
+   }
+
+   public final int getInt(int index)
+   {
+      return buffer.getInt(offset + index);
+   }
+
+   public final long getLong(int index)
+   {
+      return buffer.getLong(offset + index);
+   }
+
+   public final float getFloat(int index)
+   {
+      return buffer.getFloat(offset + index);
+   }
+
+   public final double getDouble(int index)
+   {
+      return buffer.getDouble(offset + index);
+   }
+
+   /**
+    * Copies {@code length} bytes of the current record starting at {@code index} into {@code dst}.
+    */
+   public final void getBytes(int index, byte[] dst, int dstOffset, int length)
+   {
+      for (int i = 0; i < length; i++)
+         dst[dstOffset + i] = buffer.get(offset + index + i);
+   }
+
+   /**
+    * @return a read-only buffer of the current record's bytes (from it's position to it's limit), sharing the
+    *         content of the underlying buffer - it is only valid until this view is moved
+    */
+   public final ByteBuffer asByteBuffer()
+   {
+      ByteBuffer bytes = buffer.asReadOnlyBuffer();
+      bytes.limit(offset + length);
+      bytes.position(offset);
+      return bytes.slice().order(buffer.order());
+   }
+
+   /**
+    * @return a new instance of the subclass (used by {@link #copy()})
+    */
+   protected abstract R newInstance();
+
+   /**
+    * @return a new record of the same class backed by a private on-heap copy of the current record's bytes
+    */
+   @Override
+   public R copy()
+   {
+      byte[] bytes = new byte[length];
+      getBytes(0, bytes, 0, length);
+      R copy = newInstance();
+      copy.moveTo(ByteBuffer.wrap(bytes).order(buffer.order()), 0, length);
+      return copy;
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+         return true;
+      if (obj == null || obj.getClass() != getClass())
+         return false;
+
+      ByteRecord<?> other = (ByteRecord<?>) obj;
+      if (length != other.length)
+         return false;
+
+      for (int i = 0; i < length; i++)
+      {
+         if (getByte(i) != other.getByte(i))
+            return false;
+      }
+
+      return true;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      int h = 1;
+      for (int i = 0; i < length; i++)
+         h = 31 * h + getByte(i);
+
+      return h;
+   }
+
+   /**
+    * A record without typed accessors, produced by {@link Producable#records(java.nio.file.Path, int)} and
+    * {@link Producable#records(java.nio.file.Path, byte)}.
+    */
+   public static final class Bytes extends ByteRecord<Bytes>
+   {
+      @Override
+      protected Bytes newInstance()
+      {
+         return new Bytes();
+      }
+   }
+}
@@ -0,0 +1,143 @@
+package pushpipes.v2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles a run of fused filter/map stages (see {@link FusedProducable#compile}) into a chain of
+ * {@link StageKernel} instances, one per stage, where each instance is of a distinct copy of the
+ * {@code StageKernel} class. Copies are defined from the template's class file by a class loader per stage
+ * position and are cached by the shape of the run: the sequence of stage kinds and stage implementation classes
+ * (for lambdas, one class per lambda expression). Repeated executions of the same query therefore reuse the same
+ * copies, whose call sites have only seen that query's stages, and a new query shape costs one class definition
+ * per stage the first time it is compiled. Cached copies are never unloaded.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class ChainCompiler
+{
+   private static final byte[] TEMPLATE = template();
+
+   private static final ConcurrentHashMap<List<Object>, Constructor<?>[]> KERNELS = new ConcurrentHashMap<>();
+
+   private ChainCompiler() {}
+
+   /**
+    * @return the constructors of the kernel classes for the given stages (in stage order) or null if the
+    *         template class file is not available
+    */
+   static Constructor<?>[] kernels(Object[] stages, boolean[] filters)
+   {
+      if (TEMPLATE == null)
+         return null;
+
+      List<Object> shape = new ArrayList<>(stages.length * 2);
+      for (int i = 0; i < stages.length; i++)
+      {
+         shape.add(filters[i]);
+         shape.add(stages[i].getClass());
+      }
+
+      Constructor<?>[] kernels = KERNELS.get(shape);
+      if (kernels == null)
+      {
+         kernels = new Constructor<?>[stages.length];
+         for (int i = 0; i < kernels.length; i++)
+            kernels[i] = new KernelLoader().kernel();
+
+         Constructor<?>[] existing = KERNELS.putIfAbsent(shape, kernels);
+         if (existing != null)
+            kernels = existing;
+      }
+
+      return kernels;
+   }
+
+   /**
+    * Instantiates the kernels for the given stages, the last one passing it's output to {@code tail}.
+    *
+    * @return the kernel of the first stage
+    */
+   @SuppressWarnings("unchecked")
+   static Consumer<Object> link(Constructor<?>[] kernels, Object[] stages, boolean[] filters, Consumer<Object> tail)
+   {
+      Consumer<Object> next = tail;
+      try
+      {
+         for (int i = kernels.length - 1; i >= 0; i--)
+            next = (Consumer<Object>) kernels[i].newInstance(filters[i], stages[i], next);
+      }
+      catch (InstantiationException | IllegalAccessException | InvocationTargetException e)
+      {
+         throw new IllegalStateException("Can't instantiate compiled stage", e);
+      }
+
+      return next;
+   }
+
+   private static byte[] template()
+   {
+      try (InputStream in = StageKernel.class.getResourceAsStream("StageKernel.class"))
+      {
+         if (in == null)
+            return null;
+
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         for (int n; (n = in.read(buffer)) >= 0; )
+            out.write(buffer, 0, n);
+         return out.toByteArray();
+      }
+      catch (IOException e)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Defines a private copy of {@link StageKernel}, delegating everything else to the loader of this class.
+    */
+   private static final class KernelLoader extends ClassLoader
+   {
+      private static final String NAME = StageKernel.class.getName();
+
+      KernelLoader()
+      {
+         super(ChainCompiler.class.getClassLoader());
+      }
+
+      @Override
+      protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+      {
+         if (!NAME.equals(name))
+            return super.loadClass(name, resolve);
+
+         synchronized (getClassLoadingLock(name))
+         {
+            Class<?> c = findLoadedClass(name);
+            return c != null ? c : defineClass(name, TEMPLATE, 0, TEMPLATE.length);
+         }
+      }
+
+      Constructor<?> kernel()
+      {
+         try
+         {
+            Constructor<?> constructor =
+               loadClass(NAME).getDeclaredConstructor(boolean.class, Object.class, Consumer.class);
+            constructor.setAccessible(true);
+            return constructor;
+         }
+         catch (ClassNotFoundException | NoSuchMethodException e)
+         {
+            throw new IllegalStateException("Can't define compiled stage", e);
+         }
+      }
+   }
+}
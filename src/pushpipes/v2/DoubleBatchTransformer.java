@@ -0,0 +1,12 @@
+package pushpipes.v2;
+
+/**
+ * Same as {@link BatchTransformer} but for {@link DoubleTransformer}s.
+ *
+ * @author peter.levart@gmail.com
+ * @see BatchTransformer
+ */
+public interface DoubleBatchTransformer extends DoubleTransformer
+{
+   void consume(double[] batch, int offset, int length) throws IllegalStateException;
+}
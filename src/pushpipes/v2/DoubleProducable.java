@@ -3,12 +3,566 @@ package pushpipes.v2;
 import java.util.functions.DoubleBinaryOperator;
 
 /**
+ * Same as {@link Producable} but for unboxed {@code double} elements. Chains built from it connect to
+ * {@link DoubleTransformer}s, so numeric pipelines don't allocate per element.
+ *
  * @author peter.levart@gmail.com
+ * @see Producable
+ * @see DoubleTransformer
  */
 public abstract class DoubleProducable
 {
    public abstract Producer producer(DoubleTransformer downstream);
 
+   //
+   // factories for head producables
+
+   public static DoubleProducable from(final double... array)
+   {
+      return from(array, 0, array.length);
+   }
+
+   public static DoubleProducable from(final double[] array, final int offset, final int length)
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            if (downstream instanceof DoubleBatchTransformer)
+            {
+               final DoubleBatchTransformer batchDownstream = (DoubleBatchTransformer) downstream;
+
+               return new SplittableProducer()
+               {
+                  int end = offset + length;
+                  int i = offset;
+
+                  @Override
+                  public long size()
+                  {
+                     return length;
+                  }
+
+                  @Override
+                  public void restrict(long from, long to)
+                  {
+                     i = offset + (int) from;
+                     end = offset + (int) to;
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (i < end && batchDownstream.canConsume())
+                     {
+                        int length = Math.min(end - i, Producable.DEFAULT_BATCH_SIZE);
+                        batchDownstream.consume(array, i, length);
+                        i += length;
+                        return true;
+                     }
+
+                     return batchDownstream.produce();
+                  }
+               };
+            }
+
+            return new SplittableProducer()
+            {
+               int end = offset + length;
+               int i = offset;
+
+               @Override
+               public long size()
+               {
+                  return length;
+               }
+
+               @Override
+               public void restrict(long from, long to)
+               {
+                  i = offset + (int) from;
+                  end = offset + (int) to;
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  if (i < end && downstream.canConsume())
+                  {
+                     downstream.consume(array[i++]);
+                     return true;
+                  }
+
+                  return downstream.produce();
+               }
+            };
+         }
+      };
+   }
+
+   //
+   // function types used by chain building methods
+
+   public interface Predicate
+   {
+      boolean test(double value);
+   }
+
+   public interface Mapper
+   {
+      double map(double value);
+   }
+
+   public interface ToObjMapper<U>
+   {
+      U map(double value);
+   }
+
+   public interface FlatMapper
+   {
+      DoubleProducable map(double value);
+   }
+
+   //
+   // chain building
+
+   public DoubleProducable filter(final Predicate predicate)
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            if (downstream instanceof DoubleBatchTransformer)
+            {
+               final DoubleBatchTransformer batchDownstream = (DoubleBatchTransformer) downstream;
+
+               return DoubleProducable.this.producer(
+                  new DoubleBatchTransformer()
+                  {
+                     double[] passed;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(double value) throws IllegalStateException
+                     {
+                        if (predicate.test(value))
+                           batchDownstream.consume(value);
+                     }
+
+                     @Override
+                     public void consume(double[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (passed == null || passed.length < length)
+                           passed = new double[length];
+
+                        int n = 0;
+                        for (int i = offset, end = offset + length; i < end; i++)
+                        {
+                           double value = batch[i];
+                           if (predicate.test(value))
+                              passed[n++] = value;
+                        }
+
+                        if (n > 0)
+                           batchDownstream.consume(passed, 0, n);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
+            return DoubleProducable.this.producer(
+               new DoubleTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(double value) throws IllegalStateException
+                  {
+                     if (predicate.test(value))
+                        downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public DoubleProducable map(final Mapper mapper)
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            if (downstream instanceof DoubleBatchTransformer)
+            {
+               final DoubleBatchTransformer batchDownstream = (DoubleBatchTransformer) downstream;
+
+               return DoubleProducable.this.producer(
+                  new DoubleBatchTransformer()
+                  {
+                     double[] mapped;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(double value) throws IllegalStateException
+                     {
+                        batchDownstream.consume(mapper.map(value));
+                     }
+
+                     @Override
+                     public void consume(double[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (mapped == null || mapped.length < length)
+                           mapped = new double[length];
+
+                        for (int i = 0; i < length; i++)
+                           mapped[i] = mapper.map(batch[offset + i]);
+
+                        batchDownstream.consume(mapped, 0, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
+            return DoubleProducable.this.producer(
+               new DoubleTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(double value) throws IllegalStateException
+                  {
+                     downstream.consume(mapper.map(value));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public DoubleProducable flatMap(final FlatMapper mapper)
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            // the inner chains push straight into downstream, but must not drive it's produce()
+            final DoubleTransformer innerDownstream = new DoubleTransformer()
+            {
+               @Override
+               public boolean canConsume()
+               {
+                  return downstream.canConsume();
+               }
+
+               @Override
+               public void consume(double value) throws IllegalStateException
+               {
+                  downstream.consume(value);
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  return false;
+               }
+            };
+
+            return DoubleProducable.this.producer(
+               new DoubleTransformer()
+               {
+                  Producer inner;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.registerInner(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              inner = null;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return inner == null && downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(double value) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     inner = mapper.map(value).producer(innerDownstream);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (inner != null && downstream.canConsume())
+                     {
+                        if (!inner.produce())
+                           inner = null; // early dispose
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public DoubleProducable sorted()
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(DoubleProducable.this.producer(
+               new DoubleBatchTransformer()
+               {
+                  final OffHeapLongArray array = new OffHeapLongArray();
+                  double[] chunk;
+                  boolean sorted;
+                  final DoubleBatchTransformer batchDownstream =
+                     downstream instanceof DoubleBatchTransformer ? (DoubleBatchTransformer) downstream : null;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !sorted;
+                  }
+
+                  @Override
+                  public void consume(double value) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     array.add(sortableBits(value));
+                  }
+
+                  @Override
+                  public void consume(double[] batch, int offset, int length) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     for (int end = offset + length; offset < end; offset++)
+                        array.add(sortableBits(batch[offset]));
+                  }
+
+                  int i;
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!sorted)
+                     {
+                        array.sort();
+                        sorted = true;
+                     }
+
+                     if (i < array.size() && downstream.canConsume())
+                     {
+                        if (batchDownstream != null)
+                        {
+                           if (chunk == null)
+                              chunk = new double[Producable.DEFAULT_BATCH_SIZE];
+
+                           int length = Math.min(array.size() - i, chunk.length);
+                           for (int j = 0; j < length; j++)
+                              chunk[j] = fromSortableBits(array.get(i + j));
+                           batchDownstream.consume(chunk, 0, length);
+                           i += length;
+                        }
+                        else
+                        {
+                           downstream.consume(fromSortableBits(array.get(i++)));
+                        }
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * @return a producable that passes each distinct value downstream the first time it is encountered,
+    *         preserving encounter order
+    */
+   public DoubleProducable distinct()
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(DoubleProducable.this.producer(
+               new DoubleTransformer()
+               {
+                  final LongHashSet seen = new LongHashSet();
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(double value) throws IllegalStateException
+                  {
+                     if (seen.add(Double.doubleToLongBits(value)))
+                        downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   public DoubleProducable cumulate(final DoubleBinaryOperator op)
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(DoubleProducable.this.producer(
+               new DoubleTransformer()
+               {
+                  double last;
+                  boolean first = true;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(double value) throws IllegalStateException
+                  {
+                     if (first)
+                     {
+                        last = value;
+                        first = false;
+                     }
+                     else
+                     {
+                        last = op.eval(last, value);
+                     }
+
+                     downstream.consume(last);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   public <U> Producable<U> mapToObj(final ToObjMapper<? extends U> mapper)
+   {
+      return new Producable<U>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super U> downstream)
+         {
+            return DoubleProducable.this.producer(
+               new DoubleTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(double value) throws IllegalStateException
+                  {
+                     downstream.consume(mapper.map(value));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
    //
    // execution
 
@@ -19,4 +573,19 @@ public abstract class DoubleProducable
       while (producer.produce()) {}
       return reducer.getResult();
    }
+
+   /**
+    * Maps a double to a long so that signed comparison of the longs orders the doubles as {@link Double#compare}.
+    * The mapping is it's own inverse (see {@link #fromSortableBits}).
+    */
+   private static long sortableBits(double value)
+   {
+      long bits = Double.doubleToLongBits(value);
+      return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+   }
+
+   private static double fromSortableBits(long bits)
+   {
+      return Double.longBitsToDouble(bits ^ ((bits >> 63) & Long.MAX_VALUE));
+   }
 }
@@ -15,7 +15,7 @@ public interface DoubleTransformer extends DoubleConsumer, Producer
    //
    // Reducer
 
-   final class ReducerTail implements DoubleTransformer
+   final class ReducerTail implements DoubleBatchTransformer
    {
       private final DoubleBinaryOperator reducer;
       private double result;
@@ -38,6 +38,15 @@ public interface DoubleTransformer extends DoubleConsumer, Producer
          result = reducer.eval(result, value);
       }
 
+      @Override
+      public void consume(double[] batch, int offset, int length) throws IllegalStateException
+      {
+         double result = this.result;
+         for (int i = offset, end = offset + length; i < end; i++)
+            result = reducer.eval(result, batch[i]);
+         this.result = result;
+      }
+
       @Override
       public boolean produce()
       {
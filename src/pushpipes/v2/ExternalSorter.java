@@ -0,0 +1,268 @@
+package pushpipes.v2;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Sorts a sequence of objects keeping at most {@code maxElementsInMemory} of them on heap. Input is collected into
+ * runs of that size; each full run is sorted and spilled to a {@link SpillFile}. The sorted output is then produced
+ * by a k-way merge of the spilled runs and the last (in-memory) run. At most {@link #MAX_MERGE_FAN_IN} runs are
+ * merged at once (each open run holds a file and a read buffer): when there are more spilled runs, groups of
+ * adjacent runs are first merged into intermediate spill files, in as many passes as needed. Ties are resolved in
+ * favor of earlier runs, so the sort is stable.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class ExternalSorter<T> implements Closeable
+{
+   /**
+    * The maximum number of runs merged at once.
+    */
+   static final int MAX_MERGE_FAN_IN = 64;
+
+   private final Comparator<? super T> comparator;
+   private final Serializer<T> serializer;
+   private final int maxElementsInMemory;
+
+   private T[] buffer;
+   private int size;
+   private final List<SpillFile> spills = new ArrayList<>();
+
+   // output state
+   private boolean sorted;
+   private int i;
+   private PriorityQueue<Run> merge;
+
+   @SuppressWarnings("unchecked")
+   ExternalSorter(Comparator<? super T> comparator, Serializer<T> serializer, int maxElementsInMemory)
+   {
+      if (maxElementsInMemory < 1)
+         throw new IllegalArgumentException("maxElementsInMemory: " + maxElementsInMemory);
+
+      this.comparator = comparator;
+      this.serializer = serializer;
+      this.maxElementsInMemory = maxElementsInMemory;
+      this.buffer = (T[]) new Object[Math.min(Producable.DEFAULT_BUFFER_CAPACITY, maxElementsInMemory)];
+   }
+
+   void add(T t)
+   {
+      if (sorted)
+         throw new IllegalStateException("Can not add after already sorting");
+
+      if (size == buffer.length)
+      {
+         if (size < maxElementsInMemory)
+            buffer = Arrays.copyOf(buffer, (int) Math.min((long) size << 1, maxElementsInMemory));
+         else
+            spill();
+      }
+
+      buffer[size++] = Flyweights.retain(t);
+   }
+
+   /**
+    * Ends the input and prepares the sorted output.
+    */
+   void sort()
+   {
+      if (sorted)
+         return;
+
+      sorted = true;
+      Arrays.sort(buffer, 0, size, comparator);
+
+      // leave room for the in-memory run in the final merge
+      while (spills.size() >= MAX_MERGE_FAN_IN)
+      {
+         for (int from = 0; from < spills.size(); from++)
+         {
+            int to = Math.min(from + MAX_MERGE_FAN_IN, spills.size());
+            if (to - from > 1)
+               mergeSpills(from, to);
+         }
+      }
+
+      if (!spills.isEmpty())
+      {
+         merge = new PriorityQueue<>(spills.size() + 1);
+         int index = 0;
+         for (SpillFile spill : spills)
+            new Run(index++, spill).advance();
+         new Run(index, null).advance();
+      }
+   }
+
+   boolean hasNext()
+   {
+      return merge == null ? i < size : !merge.isEmpty();
+   }
+
+   T next()
+   {
+      if (merge == null)
+      {
+         if (i >= size)
+            throw new NoSuchElementException();
+
+         T t = buffer[i];
+         buffer[i++] = null;
+         return t;
+      }
+
+      Run run = merge.poll();
+      if (run == null)
+         throw new NoSuchElementException();
+
+      T t = run.head;
+      run.advance();
+      return t;
+   }
+
+   @Override
+   public void close()
+   {
+      buffer = null;
+      size = i = 0;
+      merge = null;
+      PipeIOException exception = null;
+      for (SpillFile spill : spills)
+      {
+         try
+         {
+            spill.close();
+         }
+         catch (PipeIOException e)
+         {
+            exception = e;
+         }
+      }
+      spills.clear();
+
+      if (exception != null)
+         throw exception;
+   }
+
+   private void spill()
+   {
+      Arrays.sort(buffer, 0, size, comparator);
+      SpillFile spill = new SpillFile("pushpipes-sort");
+      spills.add(spill);
+      try
+      {
+         for (int j = 0; j < size; j++)
+         {
+            serializer.write(buffer[j], spill.out());
+            spill.written();
+            buffer[j] = null;
+         }
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't write sorted run", e);
+      }
+      spill.finishWriting();
+      size = 0;
+   }
+
+   /**
+    * Merges the adjacent spilled runs {@code [from, to)} into a single spilled run that replaces them.
+    */
+   private void mergeSpills(int from, int to)
+   {
+      SpillFile merged = new SpillFile("pushpipes-sort");
+      boolean done = false;
+      try
+      {
+         merge = new PriorityQueue<>(to - from);
+         for (int index = from; index < to; index++)
+            new Run(index, spills.get(index)).advance();
+
+         DataOutputStream out = merged.out();
+         for (Run run; (run = merge.poll()) != null; )
+         {
+            serializer.write(run.head, out);
+            merged.written();
+            run.advance();
+         }
+         merged.finishWriting();
+         done = true;
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't write merged run", e);
+      }
+      finally
+      {
+         merge = null;
+         if (!done)
+            merged.close();
+      }
+
+      // the merged runs have been closed when exhausted
+      List<SpillFile> group = spills.subList(from, to);
+      group.clear();
+      spills.add(from, merged);
+   }
+
+   /**
+    * A sorted run being merged - either a spilled one or the in-memory one ({@code spill == null}).
+    */
+   private final class Run implements Comparable<Run>
+   {
+      final int index;
+      final SpillFile spill;
+      long remaining;
+      T head;
+
+      Run(int index, SpillFile spill)
+      {
+         this.index = index;
+         this.spill = spill;
+         this.remaining = spill == null ? size - i : spill.count();
+      }
+
+      /**
+       * Reads the next head of this run and re-enqueues it or closes it if exhausted.
+       */
+      void advance()
+      {
+         if (remaining == 0)
+         {
+            head = null;
+            if (spill != null)
+               spill.close();
+            return;
+         }
+
+         remaining--;
+         if (spill == null)
+         {
+            head = buffer[i];
+            buffer[i++] = null;
+         }
+         else
+         {
+            try
+            {
+               head = serializer.read(spill.in());
+            }
+            catch (IOException e)
+            {
+               throw new PipeIOException("Can't read sorted run", e);
+            }
+         }
+
+         merge.add(this);
+      }
+
+      @Override
+      public int compareTo(Run other)
+      {
+         int c = comparator.compare(head, other.head);
+         return c != 0 ? c : Integer.compare(index, other.index);
+      }
+   }
+}
@@ -0,0 +1,518 @@
+package pushpipes.v2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adapters between {@link Producable}s and reactive streams with demand-based back-pressure. The
+ * {@link Publisher}, {@link Subscriber} and {@link Subscription} interfaces mirror the Reactive Streams API method
+ * for method (they are declared here since this platform doesn't provide them), so adapting them to a reactive
+ * library takes one trivial delegating class per interface.<p/>
+ * The {@link Transformer#canConsume()}/{@link Producer#produce()} handshake is a one-element demand protocol; the
+ * adapters translate it to and from {@code request(n)} demand in bulk: {@link #toPublisher} lets the chain push
+ * whole batches as long as there is outstanding demand, and {@link #fromPublisher} requests elements in batches
+ * and replenishes demand only after a good part of a batch has been consumed.
+ *
+ * @author peter.levart@gmail.com
+ */
+public final class Flows
+{
+   private Flows() {}
+
+   /**
+    * A provider of a potentially unbounded number of elements, published according to the demand received from
+    * it's subscribers.
+    */
+   public interface Publisher<T>
+   {
+      void subscribe(Subscriber<? super T> subscriber);
+   }
+
+   /**
+    * A receiver of elements. It's methods are called sequentially (never concurrently).
+    */
+   public interface Subscriber<T>
+   {
+      void onSubscribe(Subscription subscription);
+
+      void onNext(T item);
+
+      void onError(Throwable throwable);
+
+      void onComplete();
+   }
+
+   /**
+    * The link between a publisher and a subscriber, through which the subscriber signals demand or cancels.
+    */
+   public interface Subscription
+   {
+      void request(long n);
+
+      void cancel();
+   }
+
+   //
+   // Producable -> Publisher
+
+   /**
+    * Exposes the producable as a publisher. Each subscription executes the producable's chain anew, in the
+    * threads calling {@link Subscription#request}: the chain produces while there is outstanding demand and is
+    * suspended (by answering false to {@link Transformer#canConsume()}) when demand is exhausted. Elements are
+    * passed to the subscriber as {@link Flyweight#copy() copies}. When the subscription is cancelled, the chain is
+    * driven to it's end without accepting any more output, so that heads and stages release their resources
+    * (stateful stages still consume the rest of their input before they notice, as they do before a
+    * {@link Producable#limit}). A failure to build the chain (such as a missing file of a head) is signalled with
+    * {@link Subscriber#onError} too.
+    *
+    * @param producable the producable to publish
+    * @return a publisher of the producable's elements
+    */
+   public static <T> Publisher<T> toPublisher(final Producable<T> producable)
+   {
+      return new Publisher<T>()
+      {
+         @Override
+         public void subscribe(Subscriber<? super T> subscriber)
+         {
+            if (subscriber == null)
+               throw new NullPointerException("subscriber");
+
+            ProducableSubscription<T> subscription = new ProducableSubscription<>(subscriber);
+            subscriber.onSubscribe(subscription);
+            try
+            {
+               subscription.producer = producable.producer(subscription);
+            }
+            catch (Throwable t)
+            {
+               subscription.failToStart(t);
+               return;
+            }
+            subscription.drain();
+         }
+      };
+   }
+
+   /**
+    * Executes a chain on behalf of a subscriber. It is the chain's tail, accepting input only while there is
+    * demand; elements of a batch that exceed the demand are kept and passed on when more is requested.
+    */
+   private static final class ProducableSubscription<T> implements Subscription, BatchTransformer<T>
+   {
+      private final Subscriber<? super T> subscriber;
+      private final AtomicLong demand = new AtomicLong();
+      private final AtomicInteger work = new AtomicInteger();
+      private volatile boolean cancelled;
+      // the error to be signalled after tearing down the chain (an invalid request or a failure to build it)
+      private volatile Throwable error;
+      volatile Producer producer;
+
+      // accessed only by the thread holding the work
+      private boolean terminated, chainEnded;
+
+      // the elements of the last batch that exceeded the demand
+      private Object[] overflow = new Object[0];
+      private int overflowPosition, overflowLength;
+
+      ProducableSubscription(Subscriber<? super T> subscriber)
+      {
+         this.subscriber = subscriber;
+      }
+
+      @Override
+      public void request(long n)
+      {
+         if (n <= 0L)
+         {
+            // signalled by the draining thread, so that signals to the subscriber stay serial
+            if (error == null)
+               error = new IllegalArgumentException("non-positive request: " + n);
+            cancelled = true;
+            drain();
+            return;
+         }
+
+         for (long d; ; )
+         {
+            d = demand.get();
+            if (demand.compareAndSet(d, d + n < 0L ? Long.MAX_VALUE : d + n))
+               break;
+         }
+
+         drain();
+      }
+
+      @Override
+      public void cancel()
+      {
+         cancelled = true;
+         drain();
+      }
+
+      /**
+       * Signals the failure to build the chain to the subscriber, unless it has already cancelled.
+       */
+      void failToStart(Throwable failure)
+      {
+         if (error == null && !cancelled)
+            error = failure;
+         cancelled = true;
+         producer = new Producer()
+         {
+            @Override
+            public boolean produce()
+            {
+               return false;
+            }
+         };
+         drain();
+      }
+
+      /**
+       * Runs the chain while there is demand, and tears it down after cancellation. Only one thread runs it at a
+       * time; requests and cancellations arriving meanwhile (including re-entrant ones from {@code onNext}) are
+       * picked up by that thread, which is also the only one signalling the subscriber.
+       */
+      void drain()
+      {
+         if (producer == null || work.getAndIncrement() != 0)
+            return;
+
+         do
+         {
+            try
+            {
+               while (!cancelled && !chainEnded && demand.get() > 0L)
+               {
+                  if (overflowPosition < overflowLength)
+                  {
+                     emitOverflow();
+                  }
+                  else if (!producer.produce())
+                  {
+                     chainEnded = true;
+                     if (!cancelled)
+                     {
+                        terminated = true;
+                        subscriber.onComplete();
+                     }
+                  }
+               }
+            }
+            catch (Throwable t)
+            {
+               chainEnded = true;
+               if (!terminated)
+               {
+                  terminated = true;
+                  subscriber.onError(t);
+               }
+            }
+
+            if (cancelled && !terminated)
+            {
+               terminated = true;
+               tearDown();
+               Throwable error = this.error;
+               if (error != null)
+                  subscriber.onError(error);
+            }
+         }
+         while (work.decrementAndGet() != 0);
+      }
+
+      /**
+       * Drives the chain to it's end while {@link #canConsume()} answers false, so that heads and stages release
+       * their resources.
+       */
+      private void tearDown()
+      {
+         Arrays.fill(overflow, overflowPosition, overflowLength, null);
+         overflowPosition = overflowLength = 0;
+
+         if (!chainEnded)
+         {
+            chainEnded = true;
+            try
+            {
+               while (producer.produce()) {}
+            }
+            catch (Throwable ignore)
+            {
+               // the subscriber is not interested in failures after cancelling
+            }
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      private void emitOverflow()
+      {
+         while (overflowPosition < overflowLength && demand.get() > 0L && !cancelled)
+         {
+            T t = (T) overflow[overflowPosition];
+            overflow[overflowPosition++] = null;
+            emit(t);
+         }
+      }
+
+      private void emit(T t)
+      {
+         demand.decrementAndGet();
+         subscriber.onNext(t);
+      }
+
+      @Override
+      public boolean canConsume()
+      {
+         return !cancelled && overflowPosition == overflowLength && demand.get() > 0L;
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         emit(Flyweights.retain(t));
+      }
+
+      @Override
+      public void consume(T[] batch, int offset, int length) throws IllegalStateException
+      {
+         int end = offset + length;
+         for (; offset < end && demand.get() > 0L && !cancelled; offset++)
+            emit(Flyweights.retain(batch[offset]));
+
+         if (offset < end)
+         {
+            if (overflow.length < end - offset)
+               overflow = new Object[end - offset];
+            for (overflowLength = 0; offset < end; offset++)
+               overflow[overflowLength++] = Flyweights.retain(batch[offset]);
+            overflowPosition = 0;
+         }
+      }
+
+      @Override
+      public boolean produce()
+      {
+         return false;
+      }
+   }
+
+   //
+   // Publisher -> Producable
+
+   /**
+    * Turns a publisher into the head of a chain. The publisher is subscribed to when the chain starts producing;
+    * elements are requested {@code batchSize} at a time and demand is replenished whenever three quarters of a
+    * batch have been pushed downstream, so a publisher emitting from another thread is rarely starved. The chain
+    * blocks while waiting for elements, and cancels the subscription when downstream stops accepting output. An
+    * error signalled by the publisher is rethrown from the chain (wrapped in a {@link PipeIOException} or
+    * {@link IllegalStateException} when it is a checked exception).
+    *
+    * @param publisher the publisher of elements
+    * @param batchSize the number of elements requested at a time (and buffered at most)
+    * @return a producable of the published elements
+    */
+   public static <T> Producable<T> fromPublisher(final Publisher<? extends T> publisher, final int batchSize)
+   {
+      if (batchSize < 1)
+         throw new IllegalArgumentException("batchSize: " + batchSize);
+
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(Transformer<? super T> downstream)
+         {
+            return new PublisherProducer<>(publisher, downstream, batchSize);
+         }
+      };
+   }
+
+   /**
+    * The head producer subscribing to a publisher. Signals are passed from the publisher's threads to the
+    * producing thread through a queue that can hold a whole batch plus the terminal signal.
+    */
+   private static final class PublisherProducer<T> implements Producer, Subscriber<T>
+   {
+      private static final Object COMPLETE = new Object();
+
+      private final Publisher<? extends T> publisher;
+      private final Transformer<? super T> downstream;
+      private final BatchTransformer<? super T> batchDownstream;
+      private final int batchSize;
+      private final int replenish;
+      private final BlockingQueue<Object> queue;
+
+      private volatile Subscription subscription;
+      private boolean subscribed, terminated;
+      private int consumed;
+      private Object[] batch;
+
+      @SuppressWarnings("unchecked")
+      PublisherProducer(Publisher<? extends T> publisher, Transformer<? super T> downstream, int batchSize)
+      {
+         this.publisher = publisher;
+         this.downstream = downstream;
+         this.batchDownstream =
+            downstream instanceof BatchTransformer<?> ? (BatchTransformer<? super T>) downstream : null;
+         this.batchSize = batchSize;
+         replenish = Math.max(1, batchSize - (batchSize >> 2));
+         queue = new ArrayBlockingQueue<>(batchSize + 1);
+      }
+
+      //
+      // Producer
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public boolean produce()
+      {
+         if (!subscribed)
+         {
+            subscribed = true;
+            publisher.subscribe(this);
+         }
+
+         if (!terminated && downstream.canConsume())
+         {
+            Object signal = take();
+            if (signal == COMPLETE)
+            {
+               terminated = true;
+            }
+            else if (signal instanceof Failure)
+            {
+               terminated = true;
+               ((Failure) signal).rethrow();
+            }
+            else if (batchDownstream != null)
+            {
+               if (batch == null)
+                  batch = new Object[Math.min(batchSize, Producable.DEFAULT_BATCH_SIZE)];
+
+               int length = 0;
+               batch[length++] = signal;
+               while (length < batch.length && (signal = queue.peek()) != null &&
+                      signal != COMPLETE && !(signal instanceof Failure))
+                  batch[length++] = queue.poll();
+
+               batchDownstream.consume((T[]) batch, 0, length);
+               Arrays.fill(batch, 0, length, null);
+               consumed(length);
+               return true;
+            }
+            else
+            {
+               downstream.consume((T) signal);
+               consumed(1);
+               return true;
+            }
+         }
+
+         if (downstream.produce())
+            return true;
+
+         if (!terminated)
+         {
+            terminated = true;
+            Subscription subscription = this.subscription;
+            if (subscription != null)
+               subscription.cancel();
+         }
+         return false;
+      }
+
+      private Object take()
+      {
+         try
+         {
+            return queue.take();
+         }
+         catch (InterruptedException e)
+         {
+            terminated = true;
+            Subscription subscription = this.subscription;
+            if (subscription != null)
+               subscription.cancel();
+            Thread.currentThread().interrupt();
+            CancellationException ce = new CancellationException("Interrupted while waiting for publisher");
+            ce.initCause(e);
+            throw ce;
+         }
+      }
+
+      private void consumed(int count)
+      {
+         consumed += count;
+         if (consumed >= replenish)
+         {
+            int n = consumed;
+            consumed = 0;
+            subscription.request(n);
+         }
+      }
+
+      //
+      // Subscriber
+
+      @Override
+      public void onSubscribe(Subscription subscription)
+      {
+         if (this.subscription != null)
+         {
+            subscription.cancel();
+            return;
+         }
+
+         this.subscription = subscription;
+         subscription.request(batchSize);
+      }
+
+      @Override
+      public void onNext(T item)
+      {
+         if (item == null)
+            throw new NullPointerException("item");
+         if (!queue.offer(item))
+            throw new IllegalStateException("Publisher emitted more elements than requested");
+      }
+
+      @Override
+      public void onError(Throwable throwable)
+      {
+         queue.offer(new Failure(throwable));
+      }
+
+      @Override
+      public void onComplete()
+      {
+         queue.offer(COMPLETE);
+      }
+   }
+
+   private static final class Failure
+   {
+      private final Throwable throwable;
+
+      Failure(Throwable throwable)
+      {
+         this.throwable = throwable;
+      }
+
+      void rethrow()
+      {
+         if (throwable instanceof RuntimeException)
+            throw (RuntimeException) throwable;
+         if (throwable instanceof Error)
+            throw (Error) throwable;
+         if (throwable instanceof IOException)
+            throw new PipeIOException("Publisher failed", (IOException) throwable);
+         throw new IllegalStateException(throwable);
+      }
+   }
+}
@@ -0,0 +1,20 @@
+package pushpipes.v2;
+
+/**
+ * A mutable view that a head {@link Producer} moves along it's source and pushes downstream as the same instance for
+ * every element (see {@link ByteRecord}). Stages that only look at an element while it is being consumed
+ * ({@code filter}, {@code map}, {@code forEach}, {@code count}, ...) can use the view directly, so chains of such
+ * stages run without allocating. Stages that keep elements beyond the call to {@code consume} (sorting, grouping,
+ * de-duplication, collecting and reducing results, ...) {@link #copy()} flyweight elements before keeping them.<p/>
+ * Flyweight elements are only pushed one at a time - never in batches (see {@link BatchTransformer}).
+ *
+ * @param <F> the type of the flyweight
+ * @author peter.levart@gmail.com
+ */
+public interface Flyweight<F>
+{
+   /**
+    * @return an independent copy of the current state of this view, that doesn't change when the view is moved
+    */
+   F copy();
+}
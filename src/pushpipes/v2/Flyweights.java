@@ -0,0 +1,22 @@
+package pushpipes.v2;
+
+/**
+ * Helpers for stages that retain elements (see {@link Flyweight}).
+ *
+ * @author peter.levart@gmail.com
+ */
+final class Flyweights
+{
+   private Flyweights()
+   {
+   }
+
+   /**
+    * @return a {@link Flyweight#copy() copy} of given object if it is a {@link Flyweight} or the object itself
+    */
+   @SuppressWarnings("unchecked")
+   static <T> T retain(T t)
+   {
+      return t instanceof Flyweight<?> ? (T) ((Flyweight<?>) t).copy() : t;
+   }
+}
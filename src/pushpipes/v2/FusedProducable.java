@@ -0,0 +1,390 @@
+package pushpipes.v2;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.functions.Mapper;
+import java.util.functions.Predicate;
+
+/**
+ * A run of adjacent {@link #filter} and {@link #map} stages (optionally terminated by {@link #mapped}) over a
+ * {@code source} producable, fused into a single {@link Transformer}. Instead of a transformer per stage, each
+ * forwarding {@code canConsume()}, {@code consume()} and {@code produce()} to the next one, the fused transformer
+ * applies all predicates and mappers in one loop and forwards to the downstream of the run directly, so a chain
+ * of n such stages costs one hop per element instead of n.<p/>
+ * Adding a filter or map stage to a fused producable returns a new fused producable with the stage appended (the
+ * stage arrays are copied, so chains built from a common prefix don't interfere). Batches are passed through in
+ * one call when the downstream of the run is batch-capable.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class FusedProducable<S, T> extends Producable<T>
+{
+   /**
+    * The marker returned by {@link #apply} for elements rejected by one of the filters.
+    */
+   private static final Object REJECTED = new Object();
+
+   private final Producable<S> source;
+   // each stage is either a Predicate (when filters[i]) or a Mapper
+   private final Object[] stages;
+   private final boolean[] filters;
+
+   private FusedProducable(Producable<S> source, Object[] stages, boolean[] filters)
+   {
+      this.source = source;
+      this.stages = stages;
+      this.filters = filters;
+   }
+
+   static <T> Producable<T> filter(Producable<T> source, Predicate<? super T> predicate)
+   {
+      return new FusedProducable<T, T>(source, new Object[]{predicate}, new boolean[]{true});
+   }
+
+   static <T, U> Producable<U> map(Producable<T> source, Mapper<? super T, ? extends U> mapper)
+   {
+      return new FusedProducable<T, U>(source, new Object[]{mapper}, new boolean[]{false});
+   }
+
+   private <U> FusedProducable<S, U> append(Object stage, boolean filter)
+   {
+      int n = stages.length;
+      Object[] stages = Arrays.copyOf(this.stages, n + 1);
+      boolean[] filters = Arrays.copyOf(this.filters, n + 1);
+      stages[n] = stage;
+      filters[n] = filter;
+      return new FusedProducable<>(source, stages, filters);
+   }
+
+   @Override
+   public Producable<T> filter(Predicate<? super T> predicate)
+   {
+      return append(predicate, true);
+   }
+
+   @Override
+   public <U> Producable<U> map(Mapper<? super T, ? extends U> mapper)
+   {
+      return append(mapper, false);
+   }
+
+   @Override
+   public <U> MapProducable<T, U> mapped(final Mapper<? super T, ? extends U> mapper)
+   {
+      return new MapProducable<T, U>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(MapTransformer<? super T, ? super U> downstream)
+         {
+            if (downstream instanceof BatchMapTransformer<?, ?>)
+               return source.producer(
+                  new BatchMapStages<>(stages, filters, (BatchMapTransformer<? super T, ? super U>) downstream, mapper));
+
+            return source.producer(new MapStages<>(stages, filters, downstream, mapper));
+         }
+      };
+   }
+
+   /**
+    * Compiles the run of stages with the {@link ChainCompiler}, so that each stage of the returned producable runs
+    * in it's own copy of the stage code, cached by the run's shape. Returns this producable when code can't be
+    * defined in this environment.
+    */
+   @Override
+   public Producable<T> compile()
+   {
+      final Constructor<?>[] kernels = ChainCompiler.kernels(stages, filters);
+      if (kernels == null)
+         return this;
+
+      return new Producable<T>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super T> batchDownstream = (BatchTransformer<? super T>) downstream;
+               final Buffer<T> passed = new Buffer<>();
+               final Consumer<Object> first = ChainCompiler.link(kernels, stages, filters, passed);
+               // single elements (possibly flyweights) are passed on as they are, never buffered
+               final Consumer<Object> single =
+                  ChainCompiler.link(kernels, stages, filters, (Consumer<Object>) batchDownstream);
+
+               return source.producer(
+                  new BatchTransformer<S>()
+                  {
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(S s) throws IllegalStateException
+                     {
+                        single.consume(s);
+                     }
+
+                     @Override
+                     public void consume(S[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        for (int i = offset, end = offset + length; i < end; i++)
+                           first.consume(batch[i]);
+                        passed.flushTo(batchDownstream);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
+            final Consumer<Object> first = ChainCompiler.link(kernels, stages, filters, (Consumer<Object>) downstream);
+
+            return source.producer(
+               new Transformer<S>()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(S s) throws IllegalStateException
+                  {
+                     first.consume(s);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public Producer producer(Transformer<? super T> downstream)
+   {
+      if (downstream instanceof BatchTransformer<?>)
+         return source.producer(new BatchStages<S, T>(stages, filters, (BatchTransformer<? super T>) downstream));
+
+      return source.producer(new Stages<S, T>(stages, filters, downstream));
+   }
+
+   /**
+    * Applies the stages to an element.
+    *
+    * @return the mapped element or {@link #REJECTED} if one of the filters rejected it
+    */
+   @SuppressWarnings("unchecked")
+   static Object apply(Object[] stages, boolean[] filters, Object t)
+   {
+      for (int i = 0; i < stages.length; i++)
+      {
+         if (filters[i])
+         {
+            if (!((Predicate<Object>) stages[i]).test(t))
+               return REJECTED;
+         }
+         else
+         {
+            t = ((Mapper<Object, Object>) stages[i]).map(t);
+         }
+      }
+
+      return t;
+   }
+
+   //
+   // fused transformers
+
+   private static class Stages<S, T> implements Transformer<S>
+   {
+      final Object[] stages;
+      final boolean[] filters;
+      private final Transformer<? super T> downstream;
+
+      Stages(Object[] stages, boolean[] filters, Transformer<? super T> downstream)
+      {
+         this.stages = stages;
+         this.filters = filters;
+         this.downstream = downstream;
+      }
+
+      @Override
+      public boolean canConsume()
+      {
+         return downstream.canConsume();
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public void consume(S s) throws IllegalStateException
+      {
+         Object t = apply(stages, filters, s);
+         if (t != REJECTED)
+            downstream.consume((T) t);
+      }
+
+      @Override
+      public boolean produce()
+      {
+         return downstream.produce();
+      }
+   }
+
+   private static final class BatchStages<S, T> extends Stages<S, T> implements BatchTransformer<S>
+   {
+      private final BatchTransformer<? super T> batchDownstream;
+      private T[] passed;
+
+      BatchStages(Object[] stages, boolean[] filters, BatchTransformer<? super T> downstream)
+      {
+         super(stages, filters, downstream);
+         batchDownstream = downstream;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public void consume(S[] batch, int offset, int length) throws IllegalStateException
+      {
+         if (passed == null || passed.length < length)
+            passed = (T[]) new Object[length];
+
+         int n = 0;
+         for (int i = offset, end = offset + length; i < end; i++)
+         {
+            Object t = apply(stages, filters, batch[i]);
+            if (t != REJECTED)
+               passed[n++] = (T) t;
+         }
+
+         if (n > 0)
+         {
+            batchDownstream.consume(passed, 0, n);
+            Arrays.fill(passed, 0, n, null);
+         }
+      }
+   }
+
+   private static class MapStages<S, T, U> implements Transformer<S>
+   {
+      final Object[] stages;
+      final boolean[] filters;
+      private final MapTransformer<? super T, ? super U> downstream;
+      final Mapper<? super T, ? extends U> mapper;
+
+      MapStages(Object[] stages, boolean[] filters, MapTransformer<? super T, ? super U> downstream,
+                Mapper<? super T, ? extends U> mapper)
+      {
+         this.stages = stages;
+         this.filters = filters;
+         this.downstream = downstream;
+         this.mapper = mapper;
+      }
+
+      @Override
+      public boolean canConsume()
+      {
+         return downstream.canConsume();
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public void consume(S s) throws IllegalStateException
+      {
+         Object t = apply(stages, filters, s);
+         if (t != REJECTED)
+            downstream.consume((T) t, mapper.map((T) t));
+      }
+
+      @Override
+      public boolean produce()
+      {
+         return downstream.produce();
+      }
+   }
+
+   /**
+    * Collects the output of compiled stages so that it can be passed downstream as a batch.
+    */
+   private static final class Buffer<T> implements Consumer<Object>
+   {
+      private Object[] elements = new Object[DEFAULT_BATCH_SIZE];
+      private int size;
+
+      @Override
+      public void consume(Object t)
+      {
+         if (size == elements.length)
+            elements = Arrays.copyOf(elements, size * 2);
+         elements[size++] = t;
+      }
+
+      @SuppressWarnings("unchecked")
+      void flushTo(BatchTransformer<? super T> downstream)
+      {
+         if (size > 0)
+         {
+            downstream.consume((T[]) elements, 0, size);
+            Arrays.fill(elements, 0, size, null);
+            size = 0;
+         }
+      }
+   }
+
+   private static final class BatchMapStages<S, T, U> extends MapStages<S, T, U> implements BatchTransformer<S>
+   {
+      private final BatchMapTransformer<? super T, ? super U> batchDownstream;
+      private T[] keys;
+      private U[] values;
+
+      BatchMapStages(Object[] stages, boolean[] filters, BatchMapTransformer<? super T, ? super U> downstream,
+                     Mapper<? super T, ? extends U> mapper)
+      {
+         super(stages, filters, downstream, mapper);
+         batchDownstream = downstream;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public void consume(S[] batch, int offset, int length) throws IllegalStateException
+      {
+         if (keys == null || keys.length < length)
+         {
+            keys = (T[]) new Object[length];
+            values = (U[]) new Object[length];
+         }
+
+         int n = 0;
+         for (int i = offset, end = offset + length; i < end; i++)
+         {
+            Object t = apply(stages, filters, batch[i]);
+            if (t != REJECTED)
+            {
+               keys[n] = (T) t;
+               values[n++] = mapper.map((T) t);
+            }
+         }
+
+         if (n > 0)
+         {
+            batchDownstream.consume(keys, values, 0, n);
+            Arrays.fill(keys, 0, n, null);
+            Arrays.fill(values, 0, n, null);
+         }
+      }
+   }
+}
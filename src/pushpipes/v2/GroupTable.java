@@ -0,0 +1,128 @@
+package pushpipes.v2;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Groups elements by key for the {@code groupBy} stages. Instead of a map with a list per key, distinct keys are
+ * kept in an {@link ObjHashTable} together with a per-key element count, and elements are appended to a single
+ * array tagged with the index of their key. When the groups are {@link #seal sealed}, the elements are
+ * rearranged (stably) so that each group occupies a contiguous range of one array, and each group is presented
+ * as a {@link List} view of that range.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class GroupTable<K, T>
+{
+   private final ObjHashTable<K> keys;
+   private int[] counts;
+   private Object[] elements;
+   private int[] groups;
+   private int size;
+   private int[] starts;
+   private Object[] grouped;
+   private List<T> groupedList;
+   private boolean sealed;
+
+   GroupTable(int expectedKeys)
+   {
+      keys = new ObjHashTable<>(expectedKeys);
+      counts = new int[Math.max(expectedKeys, 8)];
+      elements = new Object[Producable.DEFAULT_BUFFER_CAPACITY];
+      groups = new int[elements.length];
+   }
+
+   /**
+    * Adds an element to the group of the given key. The key is {@link Flyweights#retain retained} when it is
+    * new, the element is added as is.
+    */
+   void add(K key, T element)
+   {
+      if (sealed)
+         throw new IllegalStateException("Can't add to sealed groups");
+
+      int k = keys.find(key);
+      if (k < 0)
+      {
+         k = keys.insert(k, Flyweights.retain(key));
+         if (k == counts.length)
+            counts = Arrays.copyOf(counts, counts.length * 2);
+      }
+
+      if (size == elements.length)
+      {
+         elements = Arrays.copyOf(elements, size * 2);
+         groups = Arrays.copyOf(groups, elements.length);
+      }
+
+      counts[k]++;
+      elements[size] = element;
+      groups[size++] = k;
+   }
+
+   /**
+    * Rearranges the elements into contiguous groups. No more elements can be added afterwards.
+    */
+   @SuppressWarnings("unchecked")
+   void seal()
+   {
+      if (sealed)
+         return;
+
+      sealed = true;
+      int n = keys.size();
+      if (starts == null || starts.length < n + 1)
+         starts = new int[Math.max(n + 1, counts.length + 1)];
+      for (int k = 0; k < n; k++)
+         starts[k + 1] = starts[k] + counts[k];
+
+      // counts become per-group fill positions
+      int[] positions = counts;
+      System.arraycopy(starts, 0, positions, 0, n);
+      if (grouped == null || grouped.length < size)
+      {
+         grouped = new Object[elements.length];
+         groupedList = (List<T>) Arrays.asList(grouped);
+      }
+      for (int i = 0; i < size; i++)
+      {
+         grouped[positions[groups[i]]++] = elements[i];
+         elements[i] = null;
+      }
+   }
+
+   /**
+    * Removes all keys and elements, keeping the allocated arrays for reuse.
+    */
+   void clear()
+   {
+      Arrays.fill(counts, 0, keys.size(), 0);
+      Arrays.fill(elements, 0, size, null);
+      if (grouped != null)
+         Arrays.fill(grouped, 0, size, null);
+      keys.clear();
+      size = 0;
+      sealed = false;
+   }
+
+   /**
+    * @return the number of distinct keys; their indexes are 0 .. size-1 in encounter order
+    */
+   int size()
+   {
+      return keys.size();
+   }
+
+   K key(int index)
+   {
+      return keys.key(index);
+   }
+
+   /**
+    * @return the elements of the group with the given key index in encounter order (the table must be sealed)
+    */
+   List<T> group(int index)
+   {
+      return groupedList.subList(starts[index], starts[index + 1]);
+   }
+}
@@ -0,0 +1,374 @@
+package pushpipes.v2;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free hand-off of elements from a chain executed by one thread to a chain executed by another thread,
+ * through a single-producer/single-consumer ring buffer. The {@link #inlet()} is the tail of the upstream chain and
+ * the {@link #outlet()} is the head of the downstream chain:
+ * <pre>
+ *    Handoff&lt;T&gt; handoff = new Handoff&lt;&gt;(1024);
+ *    executor.execute(handoff.pump(upstream));
+ *    handoff.outlet().filter(...).forEach(...);  // in this thread
+ * </pre>
+ * An upstream chain can also be driven into the inlet directly; an exception it throws must then be reported with
+ * {@link #fail}, or the outlet waits for further elements forever.<p/>
+ * The inlet's {@link Transformer#canConsume()} answers whether there is a free slot in the ring, so an upstream head
+ * finding the ring full calls the inlet's {@link Transformer#produce()}, which waits for space. The outlet's
+ * producer passes all the elements available in the ring downstream at once (in place, when downstream is a
+ * {@link BatchTransformer}) and waits only when the ring is empty. The read and write positions are published with
+ * ordered writes only, each on it's own cache line, and each side re-reads the other side's position only when
+ * it's cached copy doesn't allow progress, so elements are handed over without locks or per-element fences.<p/>
+ * Waiting sides spin briefly, then yield and then park for short periods. Unlike {@link Producable#async}, which
+ * uses a blocking channel and manages the upstream thread itself, a hand-off is meant for pipelines with both
+ * halves running on dedicated cores. It can be used for a single execution: both halves must be driven to their
+ * end, or the downstream chain must stop accepting output (which stops the upstream chain too).
+ *
+ * @author peter.levart@gmail.com
+ */
+public final class Handoff<T>
+{
+   // spinning only delays the other side when it has to share the core with the spinning thread
+   private static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+   private static final int YIELD_TRIES = 100;
+   private static final long PARK_NANOS = 1000L;
+
+   private final Object[] ring;
+   private final int mask;
+
+   // the sequence of the next slot to be written by the inlet and read by the outlet respectively
+   private final Sequence tail = new Sequence();
+   private final Sequence head = new Sequence();
+
+   private volatile boolean closed;
+   private volatile boolean cancelled;
+   private volatile Throwable failure;
+
+   private final Inlet inlet = new Inlet();
+   private boolean outletTaken;
+
+   /**
+    * @param capacity the minimum number of elements the ring can hold (rounded up to a power of two)
+    */
+   public Handoff(int capacity)
+   {
+      if (capacity < 1 || capacity > 1 << 30)
+         throw new IllegalArgumentException("capacity: " + capacity);
+
+      ring = new Object[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+      mask = ring.length - 1;
+   }
+
+   /**
+    * @return the tail transformer of the upstream chain, to be driven by a single thread
+    */
+   public Transformer<T> inlet()
+   {
+      return inlet;
+   }
+
+   /**
+    * @return the head of the downstream chain; it's producer can be obtained once and driven by a single thread
+    */
+   public Producable<T> outlet()
+   {
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(Transformer<? super T> downstream)
+         {
+            synchronized (Handoff.this)
+            {
+               if (outletTaken)
+                  throw new IllegalStateException("Handoff outlet already connected");
+               outletTaken = true;
+            }
+
+            return new Outlet(downstream);
+         }
+      };
+   }
+
+   /**
+    * Returns a task that executes the upstream chain into the {@link #inlet()}. An exception thrown by the upstream
+    * chain ends the hand-off and is rethrown from the outlet's producer once the elements handed over before it
+    * have been passed downstream.
+    *
+    * @param upstream the upstream chain
+    * @return a task executing the upstream chain
+    */
+   public Runnable pump(final Producable<? extends T> upstream)
+   {
+      return new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               Producer producer = upstream.producer(inlet);
+               while (producer.produce()) {}
+            }
+            catch (Throwable t)
+            {
+               fail(t);
+            }
+         }
+      };
+   }
+
+   /**
+    * Ends the hand-off with the failure of the upstream chain driven into the {@link #inlet()}. The failure is
+    * rethrown from the outlet's producer once the elements handed over before it have been passed downstream.
+    * Does nothing when the hand-off has already ended.
+    *
+    * @param failure the exception thrown by the upstream chain
+    */
+   public void fail(Throwable failure)
+   {
+      if (failure == null)
+         throw new NullPointerException("failure");
+
+      if (!closed)
+      {
+         // the failure is published before closing
+         this.failure = failure;
+         closed = true;
+      }
+   }
+
+   /**
+    * Backs off while waiting for the other side.
+    *
+    * @param inlet true when called by the inlet, false when called by the outlet
+    * @throws CancellationException if the waiting thread is interrupted (after ending the hand-off with it when
+    *                               called by the inlet, or after cancelling it when called by the outlet)
+    */
+   private void pause(int tries, boolean inlet)
+   {
+      if (tries < SPIN_TRIES)
+         return;
+
+      if (tries < SPIN_TRIES + YIELD_TRIES)
+         Thread.yield();
+      else
+         LockSupport.parkNanos(PARK_NANOS);
+
+      if (Thread.currentThread().isInterrupted())
+      {
+         CancellationException ce =
+            new CancellationException("Interrupted while waiting for the other side of the hand-off");
+         if (inlet)
+         {
+            fail(ce);
+         }
+         else
+         {
+            cancelled = true;
+            closed = true;
+         }
+         throw ce;
+      }
+   }
+
+   /**
+    * The upstream half: it writes elements into the ring and publishes the tail sequence.
+    */
+   private final class Inlet implements BatchTransformer<T>
+   {
+      private long next;
+      // the sequence up to which slots are known to be free
+      private long limit;
+      private boolean full;
+
+      @Override
+      public boolean canConsume()
+      {
+         if (cancelled)
+            return false;
+         if (next < limit)
+            return true;
+
+         limit = head.get() + ring.length;
+         if (next < limit)
+            return true;
+
+         full = true;
+         return false;
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         ring[(int) next & mask] = Flyweights.retain(t);
+         tail.lazySet(++next);
+      }
+
+      @Override
+      public void consume(T[] batch, int offset, int length) throws IllegalStateException
+      {
+         for (int end = offset + length; offset < end; )
+         {
+            if (next == limit && !awaitSpace())
+               return;
+
+            int n = (int) Math.min(end - offset, limit - next);
+            for (int i = 0; i < n; i++)
+               ring[(int) (next + i) & mask] = Flyweights.retain(batch[offset + i]);
+            next += n;
+            offset += n;
+            tail.lazySet(next);
+         }
+      }
+
+      /**
+       * Called by upstream either when the ring is full (then it waits for space) or when upstream is done.
+       */
+      @Override
+      public boolean produce()
+      {
+         if (full)
+         {
+            full = false;
+            return awaitSpace();
+         }
+
+         closed = true;
+         return false;
+      }
+
+      private boolean awaitSpace()
+      {
+         for (int tries = 0; !cancelled; tries++)
+         {
+            limit = head.get() + ring.length;
+            if (next < limit)
+               return true;
+            pause(tries, true);
+         }
+
+         return false;
+      }
+   }
+
+   /**
+    * The downstream half: it passes the available elements downstream and publishes the head sequence.
+    */
+   private final class Outlet implements Producer
+   {
+      private final Transformer<? super T> downstream;
+      private final BatchTransformer<? super T> batchDownstream;
+      private long next;
+      // the sequence up to which slots are known to be written
+      private long available;
+      private boolean finished;
+
+      @SuppressWarnings("unchecked")
+      Outlet(Transformer<? super T> downstream)
+      {
+         this.downstream = downstream;
+         this.batchDownstream =
+            downstream instanceof BatchTransformer<?> ? (BatchTransformer<? super T>) downstream : null;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public boolean produce()
+      {
+         if (!finished && downstream.canConsume() && (next < available || awaitElements()))
+         {
+            int from = (int) next & mask;
+            if (batchDownstream != null)
+            {
+               // the available slots up to the end of the ring are passed in place
+               int n = (int) Math.min(available - next, ring.length - from);
+               batchDownstream.consume((T[]) ring, from, n);
+               Arrays.fill(ring, from, from + n, null);
+               next += n;
+            }
+            else
+            {
+               T t = (T) ring[from];
+               ring[from] = null;
+               next++;
+               head.lazySet(next);
+               downstream.consume(t);
+               return true;
+            }
+            head.lazySet(next);
+            return true;
+         }
+
+         if (downstream.produce())
+            return true;
+
+         // downstream is done - stop the inlet (when not already closed)
+         cancelled = true;
+         return false;
+      }
+
+      private boolean awaitElements()
+      {
+         for (int tries = 0; ; tries++)
+         {
+            available = tail.get();
+            if (next < available)
+               return true;
+
+            if (closed)
+            {
+               // the tail is published before closing
+               available = tail.get();
+               if (next < available)
+                  return true;
+
+               finished = true;
+               Throwable failure = Handoff.this.failure;
+               if (failure instanceof RuntimeException)
+                  throw (RuntimeException) failure;
+               if (failure instanceof Error)
+                  throw (Error) failure;
+               if (failure != null)
+                  throw new IllegalStateException(failure);
+               return false;
+            }
+
+            pause(tries, false);
+         }
+      }
+   }
+
+   //
+   // a sequence padded to occupy a cache line of it's own
+
+   private static class SequenceLhsPadding
+   {
+      long p1, p2, p3, p4, p5, p6, p7;
+   }
+
+   private static class SequenceValue extends SequenceLhsPadding
+   {
+      volatile long value;
+   }
+
+   private static final class Sequence extends SequenceValue
+   {
+      private static final AtomicLongFieldUpdater<SequenceValue> VALUE =
+         AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+      long p9, p10, p11, p12, p13, p14, p15;
+
+      long get()
+      {
+         return value;
+      }
+
+      void lazySet(long value)
+      {
+         VALUE.lazySet(this, value);
+      }
+   }
+}
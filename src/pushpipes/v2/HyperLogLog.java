@@ -0,0 +1,102 @@
+package pushpipes.v2;
+
+/**
+ * A HyperLogLog sketch estimating the number of distinct objects offered to it in fixed memory of
+ * {@code 2^precision} bytes, with a relative standard error of about {@code 1.04 / sqrt(2^precision)}. Objects
+ * are hashed by spreading their {@link Object#hashCode} to 64 bits, so objects with equal hash codes count as one
+ * and the estimate is only as good as the hash codes are for cardinalities approaching {@code 2^32}.<p/>
+ * Sketches of the same precision are mergeable: the merged sketch estimates the number of distinct objects offered
+ * to either of them, which lets each split of a {@link ParallelProducable} keep it's own sketch.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class HyperLogLog implements Consumer<Object>
+{
+   static final int MIN_PRECISION = 4;
+   static final int MAX_PRECISION = 18;
+
+   private final int precision;
+   private final byte[] registers;
+
+   HyperLogLog(int precision)
+   {
+      if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+         throw new IllegalArgumentException("precision: " + precision);
+
+      this.precision = precision;
+      registers = new byte[1 << precision];
+   }
+
+   @Override
+   public void consume(Object o)
+   {
+      long h = hash64(o);
+      int index = (int) (h >>> (64 - precision));
+      // the rank is limited to 64 - precision + 1 by the sentinel bit
+      byte rank = (byte) (Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1);
+      if (rank > registers[index])
+         registers[index] = rank;
+   }
+
+   /**
+    * Merges the other sketch into this one.
+    */
+   void merge(HyperLogLog other)
+   {
+      if (other.precision != precision)
+         throw new IllegalArgumentException("Can't merge sketches of different precision");
+
+      for (int i = 0; i < registers.length; i++)
+         if (other.registers[i] > registers[i])
+            registers[i] = other.registers[i];
+   }
+
+   long estimate()
+   {
+      int m = registers.length;
+      double sum = 0d;
+      int zeros = 0;
+      for (byte r : registers)
+      {
+         sum += 1d / (1L << r);
+         if (r == 0)
+            zeros++;
+      }
+
+      double estimate = alpha(m) * m * m / sum;
+      // small range correction (linear counting)
+      if (estimate <= 2.5d * m && zeros > 0)
+         estimate = m * Math.log((double) m / zeros);
+
+      return Math.round(estimate);
+   }
+
+   private static double alpha(int m)
+   {
+      switch (m)
+      {
+         case 16:
+            return 0.673d;
+         case 32:
+            return 0.697d;
+         case 64:
+            return 0.709d;
+         default:
+            return 0.7213d / (1d + 1.079d / m);
+      }
+   }
+
+   /**
+    * Spreads the hash code of the object to 64 bits (the MurmurHash3 finalizer, which is a bijection).
+    */
+   static long hash64(Object o)
+   {
+      long h = o == null ? 0L : o.hashCode();
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }
+}
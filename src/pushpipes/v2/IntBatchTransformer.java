@@ -0,0 +1,12 @@
+package pushpipes.v2;
+
+/**
+ * Same as {@link BatchTransformer} but for {@link IntTransformer}s.
+ *
+ * @author peter.levart@gmail.com
+ * @see BatchTransformer
+ */
+public interface IntBatchTransformer extends IntTransformer
+{
+   void consume(int[] batch, int offset, int length) throws IllegalStateException;
+}
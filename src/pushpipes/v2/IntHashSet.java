@@ -0,0 +1,109 @@
+package pushpipes.v2;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash set of {@code int} values with linear probing, used by the primitive
+ * {@code distinct} stages so that de-duplicating does not box. Zero is used as the empty-slot marker and is
+ * tracked separately.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class IntHashSet
+{
+   private static final int MIN_CAPACITY = 16;
+
+   private int[] table;
+   private int mask;
+   private int size;
+   private boolean hasZero;
+
+   IntHashSet()
+   {
+      this(MIN_CAPACITY);
+   }
+
+   IntHashSet(int expectedSize)
+   {
+      int capacity = MIN_CAPACITY;
+      while (capacity < expectedSize * 2)
+         capacity <<= 1;
+      table = new int[capacity];
+      mask = capacity - 1;
+   }
+
+   /**
+    * @param value the value to add
+    * @return true if the value was not present in the set before
+    */
+   boolean add(int value)
+   {
+      if (value == 0)
+      {
+         if (hasZero)
+            return false;
+         hasZero = true;
+         return true;
+      }
+
+      int[] table = this.table;
+      int i = hash(value) & mask;
+      for (int v; (v = table[i]) != 0; i = (i + 1) & mask)
+         if (v == value)
+            return false;
+
+      table[i] = value;
+      if (++size * 2 > table.length)
+         rehash();
+      return true;
+   }
+
+   boolean contains(int value)
+   {
+      if (value == 0)
+         return hasZero;
+
+      int[] table = this.table;
+      int i = hash(value) & mask;
+      for (int v; (v = table[i]) != 0; i = (i + 1) & mask)
+         if (v == value)
+            return true;
+
+      return false;
+   }
+
+   int size()
+   {
+      return hasZero ? size + 1 : size;
+   }
+
+   void clear()
+   {
+      Arrays.fill(table, 0);
+      size = 0;
+      hasZero = false;
+   }
+
+   private void rehash()
+   {
+      int[] oldTable = table;
+      table = new int[oldTable.length << 1];
+      mask = table.length - 1;
+      for (int value : oldTable)
+      {
+         if (value != 0)
+         {
+            int i = hash(value) & mask;
+            while (table[i] != 0)
+               i = (i + 1) & mask;
+            table[i] = value;
+         }
+      }
+   }
+
+   private static int hash(int value)
+   {
+      int h = value * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+}
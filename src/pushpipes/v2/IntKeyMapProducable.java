@@ -0,0 +1,458 @@
+package pushpipes.v2;
+
+import java.util.*;
+import java.util.functions.Factory;
+import java.util.functions.Mapper;
+
+/**
+ * Same as {@link MapProducable}, but with {@code int} keys that are never boxed while the pairs flow through the
+ * chain. Obtained from {@link Producable#keyedByInt} or {@link Producable#groupByInt}. Grouping is backed by an
+ * open-addressing primitive hash map and sorting sorts the keys with a primitive sort, so keys are only boxed
+ * when the pairs leave the chain as a {@link Map} ({@link #into}, {@link #intoMulti}) - and then only once per
+ * distinct key - or explicitly with {@link #boxed()}.
+ *
+ * @param <V> the type of values
+ * @author peter.levart@gmail.com
+ */
+public abstract class IntKeyMapProducable<V>
+{
+   public interface BiPredicate<V>
+   {
+      boolean test(int k, V v);
+   }
+
+   /**
+    * Constructs a chain of {@link Producer} -> {@link Transformer}s -> ... -> {@link IntMapTransformer}
+    * and returns the head {@link Producer}.
+    *
+    * @param downstream the tail of the chain
+    * @return the head {@link Producer} of the chain
+    */
+   public abstract Producer producer(IntMapTransformer<? super V> downstream);
+
+   public Producer producer(final IntMapConsumer<? super V> consumer)
+   {
+      if (consumer instanceof IntMapTransformer<?>)
+         return producer((IntMapTransformer<? super V>) consumer);
+
+      return producer(
+         new IntMapTransformer.Tail<V>()
+         {
+            @Override
+            public void consume(int k, V v) throws IllegalStateException
+            {
+               consumer.consume(k, v);
+            }
+         }
+      );
+   }
+
+   //
+   // chain building
+
+   public IntKeyMapProducable<V> filter(final BiPredicate<? super V> predicate)
+   {
+      return new IntKeyMapProducable<V>()
+      {
+         @Override
+         public Producer producer(final IntMapTransformer<? super V> downstream)
+         {
+            return IntKeyMapProducable.this.producer(
+               new IntMapTransformer<V>()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int k, V v) throws IllegalStateException
+                  {
+                     if (predicate.test(k, v))
+                        downstream.consume(k, v);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public <W> IntKeyMapProducable<W> mapValues(final Mapper<? super V, ? extends W> mapper)
+   {
+      return new IntKeyMapProducable<W>()
+      {
+         @Override
+         public Producer producer(final IntMapTransformer<? super W> downstream)
+         {
+            return IntKeyMapProducable.this.producer(
+               new IntMapTransformer<V>()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int k, V v) throws IllegalStateException
+                  {
+                     downstream.consume(k, mapper.map(v));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   /**
+    * @return a producable of (key, group of values) pairs, one for each distinct key
+    */
+   public IntKeyMapProducable<Iterable<V>> groupBy()
+   {
+      return new IntKeyMapProducable<Iterable<V>>()
+      {
+         @Override
+         public Producer producer(final IntMapTransformer<? super Iterable<V>> downstream)
+         {
+            return SplittableProducer.Barrier.of(IntKeyMapProducable.this.producer(
+               new IntMapTransformer<V>()
+               {
+                  final IntObjHashMap<List<V>> groups = new IntObjHashMap<>();
+                  boolean producing;
+                  int slot;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !producing;
+                  }
+
+                  @Override
+                  public void consume(int k, V v) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     List<V> group = groups.get(k);
+                     if (group == null)
+                        groups.put(k, group = new ArrayList<>());
+
+                     group.add(Flyweights.retain(v));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!producing)
+                     {
+                        producing = true;
+                        slot = groups.nextSlot(0);
+                     }
+
+                     if (slot >= 0 && downstream.canConsume())
+                     {
+                        downstream.consume(groups.keyAt(slot), groups.valueAt(slot));
+                        slot = groups.nextSlot(slot + 1);
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * @return a producable of the pairs sorted by ascending keys (pairs with equal keys keep their encounter order)
+    */
+   public IntKeyMapProducable<V> sorted()
+   {
+      return new IntKeyMapProducable<V>()
+      {
+         @Override
+         public Producer producer(final IntMapTransformer<? super V> downstream)
+         {
+            return SplittableProducer.Barrier.of(IntKeyMapProducable.this.producer(
+               new IntMapTransformer<V>()
+               {
+                  int[] keys = new int[Producable.DEFAULT_BUFFER_CAPACITY];
+                  @SuppressWarnings("unchecked")
+                  V[] values = (V[]) new Object[Producable.DEFAULT_BUFFER_CAPACITY];
+                  int size;
+                  int[] order;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return order == null;
+                  }
+
+                  @Override
+                  public void consume(int k, V v) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     if (size >= keys.length)
+                     {
+                        keys = Arrays.copyOf(keys, keys.length << 1);
+                        values = Arrays.copyOf(values, values.length << 1);
+                     }
+
+                     keys[size] = k;
+                     values[size++] = Flyweights.retain(v);
+                  }
+
+                  int i;
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (order == null)
+                        order = sortedOrder(keys, size);
+
+                     if (i < size && downstream.canConsume())
+                     {
+                        int index = order[i++];
+                        downstream.consume(keys[index], values[index]);
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   public IntProducable keys()
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            return IntKeyMapProducable.this.producer(
+               new IntMapTransformer<V>()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int k, V v) throws IllegalStateException
+                  {
+                     downstream.consume(k);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public Producable<V> values()
+   {
+      return new Producable<V>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super V> downstream)
+         {
+            return IntKeyMapProducable.this.producer(
+               new IntMapTransformer<V>()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int k, V v) throws IllegalStateException
+                  {
+                     downstream.consume(v);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   /**
+    * @return a map producable of the same pairs with boxed keys
+    */
+   public MapProducable<Integer, V> boxed()
+   {
+      return new MapProducable<Integer, V>()
+      {
+         @Override
+         public Producer producer(final MapTransformer<? super Integer, ? super V> downstream)
+         {
+            return IntKeyMapProducable.this.producer(
+               new IntMapTransformer<V>()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int k, V v) throws IllegalStateException
+                  {
+                     downstream.consume(k, v);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   //
+   // execution
+
+   private void produceAll(IntMapTransformer<? super V> transformer)
+   {
+      Producer producer = producer(transformer);
+      while (producer.produce()) {}
+   }
+
+   public void forEach(final IntMapConsumer<? super V> consumer)
+   {
+      Producer producer = producer(consumer);
+      while (producer.produce()) {}
+   }
+
+   public long count()
+   {
+      final long[] count = new long[1];
+      produceAll(
+         new IntMapTransformer.Tail<V>()
+         {
+            @Override
+            public void consume(int k, V v) throws IllegalStateException
+            {
+               count[0]++;
+            }
+         }
+      );
+      return count[0];
+   }
+
+   public <A extends Map<? super Integer, ? super V>> A into(final A destination)
+   {
+      produceAll(
+         new IntMapTransformer.Tail<V>()
+         {
+            @Override
+            public void consume(int k, V v) throws IllegalStateException
+            {
+               destination.put(k, Flyweights.retain(v));
+            }
+         }
+      );
+
+      return destination;
+   }
+
+   /**
+    * Adds the values into per-key groups of the {@code destination} map, creating missing groups with the
+    * {@code factory}. The groups are looked up in a primitive hash map first, so each distinct key is boxed once.
+    */
+   public <A extends Map<? super Integer, C>, C extends Collection<? super V>> A intoMulti(final A destination,
+                                                                                      final Factory<C> factory)
+   {
+      produceAll(
+         new IntMapTransformer.Tail<V>()
+         {
+            final IntObjHashMap<C> groups = new IntObjHashMap<>();
+
+            @Override
+            public void consume(int k, V v) throws IllegalStateException
+            {
+               C group = groups.get(k);
+               if (group == null)
+               {
+                  Integer key = k;
+                  group = destination.get(key);
+                  if (group == null)
+                     destination.put(key, group = factory.make());
+                  groups.put(k, group);
+               }
+
+               group.add(Flyweights.retain(v));
+            }
+         }
+      );
+
+      return destination;
+   }
+
+   /**
+    * Stable merge sort of the indexes {@code [0, size)} by the keys at those indexes.
+    *
+    * @return the indexes of the keys in sorted order
+    */
+   private static int[] sortedOrder(int[] keys, int size)
+   {
+      int[] order = new int[size];
+      for (int i = 0; i < size; i++)
+         order[i] = i;
+
+      int[] src = order, dst = new int[size];
+      for (int width = 1; width < size; width <<= 1)
+      {
+         for (int from = 0; from < size; from += width << 1)
+         {
+            int mid = Math.min(from + width, size), to = Math.min(from + (width << 1), size);
+            int i = from, j = mid, k = from;
+            while (i < mid && j < to)
+               dst[k++] = keys[src[j]] < keys[src[i]] ? src[j++] : src[i++];
+            while (i < mid)
+               dst[k++] = src[i++];
+            while (j < to)
+               dst[k++] = src[j++];
+         }
+         int[] tmp = src;
+         src = dst;
+         dst = tmp;
+      }
+
+      return src;
+   }
+}
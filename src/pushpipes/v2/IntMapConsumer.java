@@ -0,0 +1,18 @@
+package pushpipes.v2;
+
+/**
+ * Same as {@link MapConsumer}, but with {@code int} keys.
+ *
+ * @author peter.levart@gmail.com
+ * @see IntKeyMapProducable
+ */
+public interface IntMapConsumer<V>
+{
+   /**
+    * Consumes a pair (key, value).
+    *
+    * @param k the key to consume
+    * @param v the value to consume
+    */
+   void consume(int k, V v);
+}
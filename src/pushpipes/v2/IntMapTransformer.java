@@ -0,0 +1,42 @@
+package pushpipes.v2;
+
+/**
+ * Same as {@link MapTransformer}, but with {@code int} keys.
+ *
+ * @author peter.levart@gmail.com
+ * @see IntKeyMapProducable
+ */
+public interface IntMapTransformer<V> extends IntMapConsumer<V>, Producer
+{
+   /**
+    * @return true if this transformer is in a state that allows consuming input so that the
+    *         next call to {@link #consume} will not throw {@link IllegalStateException}.
+    */
+   boolean canConsume();
+
+   /**
+    * @param k the key to consume
+    * @param v the value to consume
+    * @throws IllegalStateException if this transformer is in a state that doesn't allow consuming
+    */
+   @Override
+   void consume(int k, V v) throws IllegalStateException;
+
+   //
+   // some tail implementations
+
+   abstract class Tail<V> implements IntMapTransformer<V>
+   {
+      @Override
+      public final boolean canConsume()
+      {
+         return true;
+      }
+
+      @Override
+      public final boolean produce()
+      {
+         return false;
+      }
+   }
+}
@@ -3,12 +3,737 @@ package pushpipes.v2;
 import java.util.functions.IntBinaryOperator;
 
 /**
+ * Same as {@link Producable} but for unboxed {@code int} elements. Chains built from it connect to
+ * {@link IntTransformer}s, so numeric pipelines don't allocate per element.
+ *
  * @author peter.levart@gmail.com
+ * @see Producable
+ * @see IntTransformer
  */
 public abstract class IntProducable
 {
    public abstract Producer producer(IntTransformer downstream);
 
+   //
+   // factories for head producables
+
+   public static IntProducable from(final int... array)
+   {
+      return from(array, 0, array.length);
+   }
+
+   public static IntProducable from(final int[] array, final int offset, final int length)
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            if (downstream instanceof IntBatchTransformer)
+            {
+               final IntBatchTransformer batchDownstream = (IntBatchTransformer) downstream;
+
+               return new SplittableProducer()
+               {
+                  int end = offset + length;
+                  int i = offset;
+
+                  @Override
+                  public long size()
+                  {
+                     return length;
+                  }
+
+                  @Override
+                  public void restrict(long from, long to)
+                  {
+                     i = offset + (int) from;
+                     end = offset + (int) to;
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (i < end && batchDownstream.canConsume())
+                     {
+                        int length = Math.min(end - i, Producable.DEFAULT_BATCH_SIZE);
+                        batchDownstream.consume(array, i, length);
+                        i += length;
+                        return true;
+                     }
+
+                     return batchDownstream.produce();
+                  }
+               };
+            }
+
+            return new SplittableProducer()
+            {
+               int end = offset + length;
+               int i = offset;
+
+               @Override
+               public long size()
+               {
+                  return length;
+               }
+
+               @Override
+               public void restrict(long from, long to)
+               {
+                  i = offset + (int) from;
+                  end = offset + (int) to;
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  if (i < end && downstream.canConsume())
+                  {
+                     downstream.consume(array[i++]);
+                     return true;
+                  }
+
+                  return downstream.produce();
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * @param start the first value (inclusive)
+    * @param end   the last value (exclusive)
+    * @return a producable of ascending values from {@code start} to {@code end - 1}
+    */
+   public static IntProducable range(int start, int end)
+   {
+      return start < end ? rangeClosed(start, end - 1) : from(new int[0]);
+   }
+
+   /**
+    * @param start the first value (inclusive)
+    * @param end   the last value (inclusive)
+    * @return a producable of ascending values from {@code start} to {@code end}
+    */
+   public static IntProducable rangeClosed(final int start, final int end)
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            if (downstream instanceof IntBatchTransformer)
+            {
+               final IntBatchTransformer batchDownstream = (IntBatchTransformer) downstream;
+
+               return new SplittableProducer()
+               {
+                  final int[] batch = new int[Producable.DEFAULT_BATCH_SIZE];
+                  int next = start;
+                  int last = end;
+                  boolean exhausted = start > end;
+
+                  @Override
+                  public long size()
+                  {
+                     return start > end ? 0 : (long) end - start + 1;
+                  }
+
+                  @Override
+                  public void restrict(long from, long to)
+                  {
+                     next = (int) (start + from);
+                     last = (int) (start + to - 1);
+                     exhausted = from >= to;
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!exhausted && batchDownstream.canConsume())
+                     {
+                        int length = 0;
+                        do
+                        {
+                           batch[length++] = next;
+                           exhausted = next == last;
+                           next++;
+                        }
+                        while (!exhausted && length < batch.length);
+
+                        batchDownstream.consume(batch, 0, length);
+                        return true;
+                     }
+
+                     return batchDownstream.produce();
+                  }
+               };
+            }
+
+            return new SplittableProducer()
+            {
+               int next = start;
+               int last = end;
+               boolean exhausted = start > end;
+
+               @Override
+               public long size()
+               {
+                  return start > end ? 0 : (long) end - start + 1;
+               }
+
+               @Override
+               public void restrict(long from, long to)
+               {
+                  next = (int) (start + from);
+                  last = (int) (start + to - 1);
+                  exhausted = from >= to;
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  if (!exhausted && downstream.canConsume())
+                  {
+                     exhausted = next == last;
+                     downstream.consume(next++);
+                     return true;
+                  }
+
+                  return downstream.produce();
+               }
+            };
+         }
+      };
+   }
+
+   //
+   // function types used by chain building methods
+
+   public interface Predicate
+   {
+      boolean test(int value);
+   }
+
+   public interface Mapper
+   {
+      int map(int value);
+   }
+
+   public interface ToObjMapper<U>
+   {
+      U map(int value);
+   }
+
+   public interface FlatMapper
+   {
+      IntProducable map(int value);
+   }
+
+   //
+   // chain building
+
+   public IntProducable filter(final Predicate predicate)
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            if (downstream instanceof IntBatchTransformer)
+            {
+               final IntBatchTransformer batchDownstream = (IntBatchTransformer) downstream;
+
+               return IntProducable.this.producer(
+                  new IntBatchTransformer()
+                  {
+                     int[] passed;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(int value) throws IllegalStateException
+                     {
+                        if (predicate.test(value))
+                           batchDownstream.consume(value);
+                     }
+
+                     @Override
+                     public void consume(int[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (passed == null || passed.length < length)
+                           passed = new int[length];
+
+                        int n = 0;
+                        for (int i = offset, end = offset + length; i < end; i++)
+                        {
+                           int value = batch[i];
+                           if (predicate.test(value))
+                              passed[n++] = value;
+                        }
+
+                        if (n > 0)
+                           batchDownstream.consume(passed, 0, n);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
+            return IntProducable.this.producer(
+               new IntTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     if (predicate.test(value))
+                        downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public IntProducable map(final Mapper mapper)
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            if (downstream instanceof IntBatchTransformer)
+            {
+               final IntBatchTransformer batchDownstream = (IntBatchTransformer) downstream;
+
+               return IntProducable.this.producer(
+                  new IntBatchTransformer()
+                  {
+                     int[] mapped;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(int value) throws IllegalStateException
+                     {
+                        batchDownstream.consume(mapper.map(value));
+                     }
+
+                     @Override
+                     public void consume(int[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (mapped == null || mapped.length < length)
+                           mapped = new int[length];
+
+                        for (int i = 0; i < length; i++)
+                           mapped[i] = mapper.map(batch[offset + i]);
+
+                        batchDownstream.consume(mapped, 0, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
+            return IntProducable.this.producer(
+               new IntTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     downstream.consume(mapper.map(value));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public IntProducable flatMap(final FlatMapper mapper)
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            // the inner chains push straight into downstream, but must not drive it's produce()
+            final IntTransformer innerDownstream = new IntTransformer()
+            {
+               @Override
+               public boolean canConsume()
+               {
+                  return downstream.canConsume();
+               }
+
+               @Override
+               public void consume(int value) throws IllegalStateException
+               {
+                  downstream.consume(value);
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  return false;
+               }
+            };
+
+            return IntProducable.this.producer(
+               new IntTransformer()
+               {
+                  Producer inner;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.registerInner(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              inner = null;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return inner == null && downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     inner = mapper.map(value).producer(innerDownstream);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (inner != null && downstream.canConsume())
+                     {
+                        if (!inner.produce())
+                           inner = null; // early dispose
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public IntProducable sorted()
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(IntProducable.this.producer(
+               new IntBatchTransformer()
+               {
+                  final OffHeapIntArray array = new OffHeapIntArray();
+                  int[] chunk;
+                  boolean sorted;
+                  final IntBatchTransformer batchDownstream =
+                     downstream instanceof IntBatchTransformer ? (IntBatchTransformer) downstream : null;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !sorted;
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     array.add(value);
+                  }
+
+                  @Override
+                  public void consume(int[] batch, int offset, int length) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     array.add(batch, offset, length);
+                  }
+
+                  int i;
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!sorted)
+                     {
+                        array.sort();
+                        sorted = true;
+                     }
+
+                     if (i < array.size() && downstream.canConsume())
+                     {
+                        if (batchDownstream != null)
+                        {
+                           if (chunk == null)
+                              chunk = new int[Producable.DEFAULT_BATCH_SIZE];
+
+                           int length = Math.min(array.size() - i, chunk.length);
+                           array.get(i, chunk, 0, length);
+                           batchDownstream.consume(chunk, 0, length);
+                           i += length;
+                        }
+                        else
+                        {
+                           downstream.consume(array.get(i++));
+                        }
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * @return a producable that passes each distinct value downstream the first time it is encountered,
+    *         preserving encounter order
+    */
+   public IntProducable distinct()
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(IntProducable.this.producer(
+               new IntTransformer()
+               {
+                  final IntHashSet seen = new IntHashSet();
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     if (seen.add(value))
+                        downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   public IntProducable cumulate(final IntBinaryOperator op)
+   {
+      return new IntProducable()
+      {
+         @Override
+         public Producer producer(final IntTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(IntProducable.this.producer(
+               new IntTransformer()
+               {
+                  int last;
+                  boolean first = true;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     if (first)
+                     {
+                        last = value;
+                        first = false;
+                     }
+                     else
+                     {
+                        last = op.eval(last, value);
+                     }
+
+                     downstream.consume(last);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   public <U> Producable<U> mapToObj(final ToObjMapper<? extends U> mapper)
+   {
+      return new Producable<U>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super U> downstream)
+         {
+            return IntProducable.this.producer(
+               new IntTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     downstream.consume(mapper.map(value));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public LongProducable asLongs()
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            return IntProducable.this.producer(
+               new IntTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public DoubleProducable asDoubles()
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            return IntProducable.this.producer(
+               new IntTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(int value) throws IllegalStateException
+                  {
+                     downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
    //
    // execution
 
@@ -15,7 +15,7 @@ public interface IntTransformer extends IntConsumer, Producer
    //
    // Reducer
 
-   final class ReducerTail implements IntTransformer
+   final class ReducerTail implements IntBatchTransformer
    {
       private final IntBinaryOperator reducer;
       private int result;
@@ -38,6 +38,15 @@ public interface IntTransformer extends IntConsumer, Producer
          result = reducer.eval(result, value);
       }
 
+      @Override
+      public void consume(int[] batch, int offset, int length) throws IllegalStateException
+      {
+         int result = this.result;
+         for (int i = offset, end = offset + length; i < end; i++)
+            result = reducer.eval(result, batch[i]);
+         this.result = result;
+      }
+
       @Override
       public boolean produce()
       {
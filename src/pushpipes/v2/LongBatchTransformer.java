@@ -0,0 +1,12 @@
+package pushpipes.v2;
+
+/**
+ * Same as {@link BatchTransformer} but for {@link LongTransformer}s.
+ *
+ * @author peter.levart@gmail.com
+ * @see BatchTransformer
+ */
+public interface LongBatchTransformer extends LongTransformer
+{
+   void consume(long[] batch, int offset, int length) throws IllegalStateException;
+}
@@ -0,0 +1,109 @@
+package pushpipes.v2;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash set of {@code long} values with linear probing, used by the primitive
+ * {@code distinct} stages so that de-duplicating does not box. Zero is used as the empty-slot marker and is
+ * tracked separately.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class LongHashSet
+{
+   private static final int MIN_CAPACITY = 16;
+
+   private long[] table;
+   private int mask;
+   private int size;
+   private boolean hasZero;
+
+   LongHashSet()
+   {
+      this(MIN_CAPACITY);
+   }
+
+   LongHashSet(int expectedSize)
+   {
+      int capacity = MIN_CAPACITY;
+      while (capacity < expectedSize * 2)
+         capacity <<= 1;
+      table = new long[capacity];
+      mask = capacity - 1;
+   }
+
+   /**
+    * @param value the value to add
+    * @return true if the value was not present in the set before
+    */
+   boolean add(long value)
+   {
+      if (value == 0)
+      {
+         if (hasZero)
+            return false;
+         hasZero = true;
+         return true;
+      }
+
+      long[] table = this.table;
+      int i = hash(value) & mask;
+      for (long v; (v = table[i]) != 0; i = (i + 1) & mask)
+         if (v == value)
+            return false;
+
+      table[i] = value;
+      if (++size * 2 > table.length)
+         rehash();
+      return true;
+   }
+
+   boolean contains(long value)
+   {
+      if (value == 0)
+         return hasZero;
+
+      long[] table = this.table;
+      int i = hash(value) & mask;
+      for (long v; (v = table[i]) != 0; i = (i + 1) & mask)
+         if (v == value)
+            return true;
+
+      return false;
+   }
+
+   int size()
+   {
+      return hasZero ? size + 1 : size;
+   }
+
+   void clear()
+   {
+      Arrays.fill(table, (long) 0);
+      size = 0;
+      hasZero = false;
+   }
+
+   private void rehash()
+   {
+      long[] oldTable = table;
+      table = new long[oldTable.length << 1];
+      mask = table.length - 1;
+      for (long value : oldTable)
+      {
+         if (value != 0)
+         {
+            int i = hash(value) & mask;
+            while (table[i] != 0)
+               i = (i + 1) & mask;
+            table[i] = value;
+         }
+      }
+   }
+
+   private static int hash(long value)
+   {
+      long h = value * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+   }
+}
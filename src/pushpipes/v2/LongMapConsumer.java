@@ -0,0 +1,18 @@
+package pushpipes.v2;
+
+/**
+ * Same as {@link MapConsumer}, but with {@code long} keys.
+ *
+ * @author peter.levart@gmail.com
+ * @see LongKeyMapProducable
+ */
+public interface LongMapConsumer<V>
+{
+   /**
+    * Consumes a pair (key, value).
+    *
+    * @param k the key to consume
+    * @param v the value to consume
+    */
+   void consume(long k, V v);
+}
@@ -0,0 +1,145 @@
+package pushpipes.v2;
+
+/**
+ * A minimal open-addressing hash map from {@code long} keys to objects with linear probing, used by the grouping
+ * stages of {@link LongKeyMapProducable} so that looking up a group does not box the key. Zero is used as the
+ * empty-slot marker and the mapping for key zero is kept in an extra slot past the end of the table.<p/>
+ * Entries are iterated by slot: {@link #nextSlot} finds occupied slots and {@link #keyAt}/{@link #valueAt}
+ * access them.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class LongObjHashMap<V>
+{
+   private static final int MIN_CAPACITY = 16;
+
+   private long[] keys;
+   private Object[] values;
+   private int mask;
+   private int size;
+   private boolean hasZero;
+
+   LongObjHashMap()
+   {
+      this(MIN_CAPACITY);
+   }
+
+   LongObjHashMap(int expectedSize)
+   {
+      int capacity = MIN_CAPACITY;
+      while (capacity < expectedSize * 2)
+         capacity <<= 1;
+      keys = new long[capacity];
+      values = new Object[capacity + 1];
+      mask = capacity - 1;
+   }
+
+   /**
+    * @return the value mapped to the key or null if there is no mapping
+    */
+   @SuppressWarnings("unchecked")
+   V get(long key)
+   {
+      if (key == 0)
+         return (V) values[keys.length];
+
+      long[] keys = this.keys;
+      int i = hash(key) & mask;
+      for (long k; (k = keys[i]) != 0; i = (i + 1) & mask)
+         if (k == key)
+            return (V) values[i];
+
+      return null;
+   }
+
+   /**
+    * Maps the key to a (non-null) value.
+    */
+   void put(long key, V value)
+   {
+      if (key == 0)
+      {
+         if (!hasZero)
+         {
+            hasZero = true;
+            size++;
+         }
+         values[keys.length] = value;
+         return;
+      }
+
+      long[] keys = this.keys;
+      int i = hash(key) & mask;
+      for (long k; (k = keys[i]) != 0; i = (i + 1) & mask)
+      {
+         if (k == key)
+         {
+            values[i] = value;
+            return;
+         }
+      }
+
+      keys[i] = key;
+      values[i] = value;
+      if (++size * 2 > keys.length)
+         rehash();
+   }
+
+   int size()
+   {
+      return size;
+   }
+
+   /**
+    * @param slot the slot to start searching from (0 for the first)
+    * @return the first occupied slot at or after the given slot or -1 if there is none
+    */
+   int nextSlot(int slot)
+   {
+      for (; slot < keys.length; slot++)
+         if (keys[slot] != 0)
+            return slot;
+
+      return slot == keys.length && hasZero ? slot : -1;
+   }
+
+   long keyAt(int slot)
+   {
+      return slot == keys.length ? 0 : keys[slot];
+   }
+
+   @SuppressWarnings("unchecked")
+   V valueAt(int slot)
+   {
+      return (V) values[slot];
+   }
+
+   private void rehash()
+   {
+      long[] oldKeys = keys;
+      Object[] oldValues = values;
+      int capacity = oldKeys.length << 1;
+      keys = new long[capacity];
+      values = new Object[capacity + 1];
+      mask = capacity - 1;
+      values[capacity] = oldValues[oldKeys.length];
+      for (int j = 0; j < oldKeys.length; j++)
+      {
+         long key = oldKeys[j];
+         if (key != 0)
+         {
+            int i = hash(key) & mask;
+            while (keys[i] != 0)
+               i = (i + 1) & mask;
+            keys[i] = key;
+            values[i] = oldValues[j];
+         }
+      }
+   }
+
+   private static int hash(long key)
+   {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+   }
+}
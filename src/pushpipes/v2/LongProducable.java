@@ -3,12 +3,706 @@ package pushpipes.v2;
 import java.util.functions.LongBinaryOperator;
 
 /**
+ * Same as {@link Producable} but for unboxed {@code long} elements. Chains built from it connect to
+ * {@link LongTransformer}s, so numeric pipelines don't allocate per element.
+ *
  * @author peter.levart@gmail.com
+ * @see Producable
+ * @see LongTransformer
  */
 public abstract class LongProducable
 {
    public abstract Producer producer(LongTransformer downstream);
 
+   //
+   // factories for head producables
+
+   public static LongProducable from(final long... array)
+   {
+      return from(array, 0, array.length);
+   }
+
+   public static LongProducable from(final long[] array, final int offset, final int length)
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            if (downstream instanceof LongBatchTransformer)
+            {
+               final LongBatchTransformer batchDownstream = (LongBatchTransformer) downstream;
+
+               return new SplittableProducer()
+               {
+                  int end = offset + length;
+                  int i = offset;
+
+                  @Override
+                  public long size()
+                  {
+                     return length;
+                  }
+
+                  @Override
+                  public void restrict(long from, long to)
+                  {
+                     i = offset + (int) from;
+                     end = offset + (int) to;
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (i < end && batchDownstream.canConsume())
+                     {
+                        int length = Math.min(end - i, Producable.DEFAULT_BATCH_SIZE);
+                        batchDownstream.consume(array, i, length);
+                        i += length;
+                        return true;
+                     }
+
+                     return batchDownstream.produce();
+                  }
+               };
+            }
+
+            return new SplittableProducer()
+            {
+               int end = offset + length;
+               int i = offset;
+
+               @Override
+               public long size()
+               {
+                  return length;
+               }
+
+               @Override
+               public void restrict(long from, long to)
+               {
+                  i = offset + (int) from;
+                  end = offset + (int) to;
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  if (i < end && downstream.canConsume())
+                  {
+                     downstream.consume(array[i++]);
+                     return true;
+                  }
+
+                  return downstream.produce();
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * @param start the first value (inclusive)
+    * @param end   the last value (exclusive)
+    * @return a producable of ascending values from {@code start} to {@code end - 1}
+    */
+   public static LongProducable range(long start, long end)
+   {
+      return start < end ? rangeClosed(start, end - 1) : from(new long[0]);
+   }
+
+   /**
+    * @param start the first value (inclusive)
+    * @param end   the last value (inclusive)
+    * @return a producable of ascending values from {@code start} to {@code end}
+    */
+   public static LongProducable rangeClosed(final long start, final long end)
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            if (downstream instanceof LongBatchTransformer)
+            {
+               final LongBatchTransformer batchDownstream = (LongBatchTransformer) downstream;
+
+               return new SplittableProducer()
+               {
+                  final long[] batch = new long[Producable.DEFAULT_BATCH_SIZE];
+                  long next = start;
+                  long last = end;
+                  boolean exhausted = start > end;
+
+                  @Override
+                  public long size()
+                  {
+                     long size = end - start + 1;
+                     return start > end ? 0 : size > 0 ? size : -1; // -1 on overflow
+                  }
+
+                  @Override
+                  public void restrict(long from, long to)
+                  {
+                     next = start + from;
+                     last = start + to - 1;
+                     exhausted = from >= to;
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!exhausted && batchDownstream.canConsume())
+                     {
+                        int length = 0;
+                        do
+                        {
+                           batch[length++] = next;
+                           exhausted = next == last;
+                           next++;
+                        }
+                        while (!exhausted && length < batch.length);
+
+                        batchDownstream.consume(batch, 0, length);
+                        return true;
+                     }
+
+                     return batchDownstream.produce();
+                  }
+               };
+            }
+
+            return new SplittableProducer()
+            {
+               long next = start;
+               long last = end;
+               boolean exhausted = start > end;
+
+               @Override
+               public long size()
+               {
+                  long size = end - start + 1;
+                  return start > end ? 0 : size > 0 ? size : -1; // -1 on overflow
+               }
+
+               @Override
+               public void restrict(long from, long to)
+               {
+                  next = start + from;
+                  last = start + to - 1;
+                  exhausted = from >= to;
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  if (!exhausted && downstream.canConsume())
+                  {
+                     exhausted = next == last;
+                     downstream.consume(next++);
+                     return true;
+                  }
+
+                  return downstream.produce();
+               }
+            };
+         }
+      };
+   }
+
+   //
+   // function types used by chain building methods
+
+   public interface Predicate
+   {
+      boolean test(long value);
+   }
+
+   public interface Mapper
+   {
+      long map(long value);
+   }
+
+   public interface ToObjMapper<U>
+   {
+      U map(long value);
+   }
+
+   public interface FlatMapper
+   {
+      LongProducable map(long value);
+   }
+
+   //
+   // chain building
+
+   public LongProducable filter(final Predicate predicate)
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            if (downstream instanceof LongBatchTransformer)
+            {
+               final LongBatchTransformer batchDownstream = (LongBatchTransformer) downstream;
+
+               return LongProducable.this.producer(
+                  new LongBatchTransformer()
+                  {
+                     long[] passed;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(long value) throws IllegalStateException
+                     {
+                        if (predicate.test(value))
+                           batchDownstream.consume(value);
+                     }
+
+                     @Override
+                     public void consume(long[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (passed == null || passed.length < length)
+                           passed = new long[length];
+
+                        int n = 0;
+                        for (int i = offset, end = offset + length; i < end; i++)
+                        {
+                           long value = batch[i];
+                           if (predicate.test(value))
+                              passed[n++] = value;
+                        }
+
+                        if (n > 0)
+                           batchDownstream.consume(passed, 0, n);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
+            return LongProducable.this.producer(
+               new LongTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(long value) throws IllegalStateException
+                  {
+                     if (predicate.test(value))
+                        downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public LongProducable map(final Mapper mapper)
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            if (downstream instanceof LongBatchTransformer)
+            {
+               final LongBatchTransformer batchDownstream = (LongBatchTransformer) downstream;
+
+               return LongProducable.this.producer(
+                  new LongBatchTransformer()
+                  {
+                     long[] mapped;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(long value) throws IllegalStateException
+                     {
+                        batchDownstream.consume(mapper.map(value));
+                     }
+
+                     @Override
+                     public void consume(long[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (mapped == null || mapped.length < length)
+                           mapped = new long[length];
+
+                        for (int i = 0; i < length; i++)
+                           mapped[i] = mapper.map(batch[offset + i]);
+
+                        batchDownstream.consume(mapped, 0, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
+            return LongProducable.this.producer(
+               new LongTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(long value) throws IllegalStateException
+                  {
+                     downstream.consume(mapper.map(value));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public LongProducable flatMap(final FlatMapper mapper)
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            // the inner chains push straight into downstream, but must not drive it's produce()
+            final LongTransformer innerDownstream = new LongTransformer()
+            {
+               @Override
+               public boolean canConsume()
+               {
+                  return downstream.canConsume();
+               }
+
+               @Override
+               public void consume(long value) throws IllegalStateException
+               {
+                  downstream.consume(value);
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  return false;
+               }
+            };
+
+            return LongProducable.this.producer(
+               new LongTransformer()
+               {
+                  Producer inner;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.registerInner(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              inner = null;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return inner == null && downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(long value) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     inner = mapper.map(value).producer(innerDownstream);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (inner != null && downstream.canConsume())
+                     {
+                        if (!inner.produce())
+                           inner = null; // early dispose
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public LongProducable sorted()
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(LongProducable.this.producer(
+               new LongBatchTransformer()
+               {
+                  final OffHeapLongArray array = new OffHeapLongArray();
+                  long[] chunk;
+                  boolean sorted;
+                  final LongBatchTransformer batchDownstream =
+                     downstream instanceof LongBatchTransformer ? (LongBatchTransformer) downstream : null;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !sorted;
+                  }
+
+                  @Override
+                  public void consume(long value) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     array.add(value);
+                  }
+
+                  @Override
+                  public void consume(long[] batch, int offset, int length) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     array.add(batch, offset, length);
+                  }
+
+                  int i;
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!sorted)
+                     {
+                        array.sort();
+                        sorted = true;
+                     }
+
+                     if (i < array.size() && downstream.canConsume())
+                     {
+                        if (batchDownstream != null)
+                        {
+                           if (chunk == null)
+                              chunk = new long[Producable.DEFAULT_BATCH_SIZE];
+
+                           int length = Math.min(array.size() - i, chunk.length);
+                           array.get(i, chunk, 0, length);
+                           batchDownstream.consume(chunk, 0, length);
+                           i += length;
+                        }
+                        else
+                        {
+                           downstream.consume(array.get(i++));
+                        }
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * @return a producable that passes each distinct value downstream the first time it is encountered,
+    *         preserving encounter order
+    */
+   public LongProducable distinct()
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(LongProducable.this.producer(
+               new LongTransformer()
+               {
+                  final LongHashSet seen = new LongHashSet();
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(long value) throws IllegalStateException
+                  {
+                     if (seen.add(value))
+                        downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   public LongProducable cumulate(final LongBinaryOperator op)
+   {
+      return new LongProducable()
+      {
+         @Override
+         public Producer producer(final LongTransformer downstream)
+         {
+            return SplittableProducer.Barrier.of(LongProducable.this.producer(
+               new LongTransformer()
+               {
+                  long last;
+                  boolean first = true;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(long value) throws IllegalStateException
+                  {
+                     if (first)
+                     {
+                        last = value;
+                        first = false;
+                     }
+                     else
+                     {
+                        last = op.eval(last, value);
+                     }
+
+                     downstream.consume(last);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   public <U> Producable<U> mapToObj(final ToObjMapper<? extends U> mapper)
+   {
+      return new Producable<U>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super U> downstream)
+         {
+            return LongProducable.this.producer(
+               new LongTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(long value) throws IllegalStateException
+                  {
+                     downstream.consume(mapper.map(value));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   public DoubleProducable asDoubles()
+   {
+      return new DoubleProducable()
+      {
+         @Override
+         public Producer producer(final DoubleTransformer downstream)
+         {
+            return LongProducable.this.producer(
+               new LongTransformer()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(long value) throws IllegalStateException
+                  {
+                     downstream.consume(value);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
    //
    // execution
 
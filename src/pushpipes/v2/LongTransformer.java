@@ -15,7 +15,7 @@ public interface LongTransformer extends LongConsumer, Producer
    //
    // Reducer
 
-   final class ReducerTail implements LongTransformer
+   final class ReducerTail implements LongBatchTransformer
    {
       private final LongBinaryOperator reducer;
       private long result;
@@ -38,6 +38,15 @@ public interface LongTransformer extends LongConsumer, Producer
          result = reducer.eval(result, value);
       }
 
+      @Override
+      public void consume(long[] batch, int offset, int length) throws IllegalStateException
+      {
+         long result = this.result;
+         for (int i = offset, end = offset + length; i < end; i++)
+            result = reducer.eval(result, batch[i]);
+         this.result = result;
+      }
+
       @Override
       public boolean produce()
       {
@@ -51,8 +51,71 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
       return new MapProducable<K, V>()
       {
          @Override
+         @SuppressWarnings("unchecked")
          public Producer producer(final MapTransformer<? super K, ? super V> downstream)
          {
+            if (downstream instanceof BatchMapTransformer<?, ?>)
+            {
+               final BatchMapTransformer<? super K, ? super V> batchDownstream =
+                  (BatchMapTransformer<? super K, ? super V>) downstream;
+
+               return MapProducable.this.producer(
+                  new BatchMapTransformer<K, V>()
+                  {
+                     K[] passedKeys;
+                     V[] passedValues;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(K k, V v) throws IllegalStateException
+                     {
+                        if (biPredicate.eval(k, v))
+                           batchDownstream.consume(k, v);
+                     }
+
+                     @Override
+                     public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+                     {
+                        if (passedKeys == null || passedKeys.length < length)
+                        {
+                           passedKeys = (K[]) new Object[length];
+                           passedValues = (V[]) new Object[length];
+                        }
+
+                        int n = 0;
+                        for (int i = offset, end = offset + length; i < end; i++)
+                        {
+                           K k = keys[i];
+                           V v = values[i];
+                           if (biPredicate.eval(k, v))
+                           {
+                              passedKeys[n] = k;
+                              passedValues[n++] = v;
+                           }
+                        }
+
+                        if (n > 0)
+                        {
+                           batchDownstream.consume(passedKeys, passedValues, 0, n);
+                           Arrays.fill(passedKeys, 0, n, null);
+                           Arrays.fill(passedValues, 0, n, null);
+                        }
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
             return MapProducable.this.producer(
                new MapTransformer<K, V>()
                {
@@ -116,8 +179,62 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
       return new MapProducable<K, W>()
       {
          @Override
+         @SuppressWarnings("unchecked")
          public Producer producer(final MapTransformer<? super K, ? super W> downstream)
          {
+            if (downstream instanceof BatchMapTransformer<?, ?>)
+            {
+               final BatchMapTransformer<? super K, ? super W> batchDownstream =
+                  (BatchMapTransformer<? super K, ? super W>) downstream;
+
+               return MapProducable.this.producer(
+                  new BatchMapTransformer<K, V>()
+                  {
+                     K[] mappedKeys;
+                     W[] mappedValues;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(K k, V v) throws IllegalStateException
+                     {
+                        batchDownstream.consume(k, biMapper.map(k, v));
+                     }
+
+                     @Override
+                     public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+                     {
+                        if (mappedKeys == null || mappedKeys.length < length)
+                        {
+                           mappedKeys = (K[]) new Object[length];
+                           mappedValues = (W[]) new Object[length];
+                        }
+
+                        for (int i = 0; i < length; i++)
+                        {
+                           K k = keys[offset + i];
+                           mappedKeys[i] = k;
+                           mappedValues[i] = biMapper.map(k, values[offset + i]);
+                        }
+
+                        batchDownstream.consume(mappedKeys, mappedValues, 0, length);
+                        Arrays.fill(mappedKeys, 0, length, null);
+                        Arrays.fill(mappedValues, 0, length, null);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
             return MapProducable.this.producer(
                new MapTransformer<K, V>()
                {
@@ -165,8 +282,44 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
       return new MapProducable<V, K>()
       {
          @Override
+         @SuppressWarnings("unchecked")
          public Producer producer(final MapTransformer<? super V, ? super K> downstream)
          {
+            if (downstream instanceof BatchMapTransformer<?, ?>)
+            {
+               final BatchMapTransformer<? super V, ? super K> batchDownstream =
+                  (BatchMapTransformer<? super V, ? super K>) downstream;
+
+               return MapProducable.this.producer(
+                  new BatchMapTransformer<K, V>()
+                  {
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(K k, V v) throws IllegalStateException
+                     {
+                        batchDownstream.consume(v, k);
+                     }
+
+                     @Override
+                     public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+                     {
+                        batchDownstream.consume(values, keys, offset, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
             return MapProducable.this.producer(
                new MapTransformer<K, V>()
                {
@@ -199,20 +352,30 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
       return new MapProducable<K, V>()
       {
          @Override
+         @SuppressWarnings("unchecked")
          public Producer producer(final MapTransformer<? super K, ? super V> downstream)
          {
-            return MapProducable.this.producer(
-               new MapTransformer<K, V>()
+            final BatchMapTransformer<? super K, ? super V> batchDownstream;
+            if (downstream instanceof BatchMapTransformer<?, ?>)
+               batchDownstream = (BatchMapTransformer<? super K, ? super V>) downstream;
+            else
+               batchDownstream = null;
+
+            // structure of arrays: keys and values in parallel arrays, sorted through an index permutation
+            return SplittableProducer.Barrier.of(MapProducable.this.producer(
+               new BatchMapTransformer<K, V>()
                {
-                  @SuppressWarnings("unchecked")
-                  BiValue<K, V>[] array = (BiValue<K, V>[]) new Object[Producable.DEFAULT_BUFFER_CAPACITY];
+                  K[] keys = (K[]) new Object[Producable.DEFAULT_BUFFER_CAPACITY];
+                  V[] values = (V[]) new Object[Producable.DEFAULT_BUFFER_CAPACITY];
                   int size;
-                  boolean sorted;
+                  int[] order;
+                  K[] keyChunk;
+                  V[] valueChunk;
 
                   @Override
                   public boolean canConsume()
                   {
-                     return !sorted;
+                     return order == null;
                   }
 
                   @Override
@@ -221,10 +384,33 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
                      if (!canConsume())
                         throw new IllegalStateException("Can not consume after already sorting and producing output");
 
-                     if (size >= array.length)
-                        array = Arrays.copyOf(array, array.length << 1);
+                     ensureCapacity(size + 1);
+                     keys[size] = Flyweights.retain(k);
+                     values[size++] = Flyweights.retain(v);
+                  }
 
-                     array[size++] = new BiVal<>(k, v);
+                  @Override
+                  public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     ensureCapacity(size + length);
+                     for (int end = offset + length; offset < end; offset++)
+                     {
+                        this.keys[size] = Flyweights.retain(keys[offset]);
+                        this.values[size++] = Flyweights.retain(values[offset]);
+                     }
+                  }
+
+                  void ensureCapacity(int capacity)
+                  {
+                     if (capacity > keys.length)
+                     {
+                        int newCapacity = Math.max(keys.length << 1, capacity);
+                        keys = Arrays.copyOf(keys, newCapacity);
+                        values = Arrays.copyOf(values, newCapacity);
+                     }
                   }
 
                   int i;
@@ -232,30 +418,304 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
                   @Override
                   public boolean produce()
                   {
-                     if (!sorted)
+                     if (order == null)
+                        order = sortedOrder(keys, size, comparator);
+
+                     if (i < size && downstream.canConsume())
                      {
-                        Arrays.sort(array, 0, size, new Comparator<BiValue<K, V>>()
+                        if (batchDownstream != null)
                         {
-                           @Override
-                           public int compare(BiValue<K, V> bv1, BiValue<K, V> bv2)
+                           if (keyChunk == null)
                            {
-                              return comparator.compare(bv1.getKey(), bv2.getKey());
+                              keyChunk = (K[]) new Object[Producable.DEFAULT_BATCH_SIZE];
+                              valueChunk = (V[]) new Object[Producable.DEFAULT_BATCH_SIZE];
                            }
-                        });
 
+                           int length = Math.min(size - i, keyChunk.length);
+                           for (int j = 0; j < length; j++)
+                           {
+                              int index = order[i++];
+                              keyChunk[j] = keys[index];
+                              valueChunk[j] = values[index];
+                           }
+
+                           batchDownstream.consume(keyChunk, valueChunk, 0, length);
+                           Arrays.fill(keyChunk, 0, length, null);
+                           Arrays.fill(valueChunk, 0, length, null);
+                        }
+                        else
+                        {
+                           int index = order[i++];
+                           downstream.consume(keys[index], values[index]);
+                        }
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+
+         @Override
+         public MapProducable<K, V> limit(long n)
+         {
+            // only the first n pairs of the sorted output are needed
+            return n <= Integer.MAX_VALUE ? MapProducable.this.topK((int) n, comparator) : super.limit(n);
+         }
+      };
+   }
+
+   /**
+    * Returns a map producable that produces the {@code n} (key, value) pairs with the smallest keys according to
+    * the given {@code comparator}, in sorted order. Retains at most {@code n} pairs at any time (a bounded heap)
+    * instead of buffering the whole input. Pairs with equal keys keep their encounter order.
+    *
+    * @param n          the maximum number of pairs to produce
+    * @param comparator the comparator for keys
+    * @return a map producable of at most {@code n} pairs with the smallest keys in sorted order
+    */
+   public MapProducable<K, V> topK(final int n, final Comparator<? super K> comparator)
+   {
+      if (n < 0)
+         throw new IllegalArgumentException("n: " + n);
+
+      return new MapProducable<K, V>()
+      {
+         @Override
+         public Producer producer(final MapTransformer<? super K, ? super V> downstream)
+         {
+            return SplittableProducer.Barrier.of(MapProducable.this.producer(
+               new MapTransformer<K, V>()
+               {
+                  final TopK<K, V> heap = new TopK<>(n, comparator, true);
+                  boolean sorted;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !sorted;
+                  }
+
+                  @Override
+                  public void consume(K k, V v) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     heap.offer(k, v);
+                  }
+
+                  int i;
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!sorted)
+                     {
+                        heap.sort();
                         sorted = true;
                      }
 
-                     if (i < size && downstream.canConsume())
+                     if (i < heap.size() && downstream.canConsume())
                      {
-                        downstream.consume(array[i].getKey(), array[i++].getValue());
+                        downstream.consume(heap.key(i), heap.value(i++));
                         return true;
                      }
 
                      return downstream.produce();
                   }
                }
-            );
+            ));
+         }
+      };
+   }
+
+   /**
+    * Returns a map producable that produces at most the first {@code n} (key, value) pairs of this map producable.
+    * As soon as {@code n} pairs have passed, this stage stops accepting input, which makes the head of the chain
+    * stop pulling from it's source.
+    *
+    * @param n the maximum number of pairs to produce
+    * @return a map producable of at most {@code n} first pairs
+    */
+   public MapProducable<K, V> limit(final long n)
+   {
+      if (n < 0)
+         throw new IllegalArgumentException("n: " + n);
+
+      return new MapProducable<K, V>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final MapTransformer<? super K, ? super V> downstream)
+         {
+            if (downstream instanceof BatchMapTransformer<?, ?>)
+            {
+               final BatchMapTransformer<? super K, ? super V> batchDownstream =
+                  (BatchMapTransformer<? super K, ? super V>) downstream;
+
+               return SplittableProducer.Barrier.of(MapProducable.this.producer(
+                  new BatchMapTransformer<K, V>()
+                  {
+                     long count;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return count < n && batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(K k, V v) throws IllegalStateException
+                     {
+                        if (count < n)
+                        {
+                           count++;
+                           batchDownstream.consume(k, v);
+                        }
+                     }
+
+                     @Override
+                     public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+                     {
+                        int passed = (int) Math.min(length, n - count);
+                        if (passed > 0)
+                        {
+                           count += passed;
+                           batchDownstream.consume(keys, values, offset, passed);
+                        }
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               ));
+            }
+
+            return SplittableProducer.Barrier.of(MapProducable.this.producer(
+               new MapTransformer<K, V>()
+               {
+                  long count;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return count < n && downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(K k, V v) throws IllegalStateException
+                  {
+                     if (count < n)
+                     {
+                        count++;
+                        downstream.consume(k, v);
+                     }
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Returns a map producable that produces the (key, value) pairs of this map producable except the first
+    * {@code n} ones.
+    *
+    * @param n the number of pairs to skip
+    * @return a map producable of the pairs after the first {@code n} ones
+    */
+   public MapProducable<K, V> skip(final long n)
+   {
+      if (n < 0)
+         throw new IllegalArgumentException("n: " + n);
+
+      return new MapProducable<K, V>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final MapTransformer<? super K, ? super V> downstream)
+         {
+            if (downstream instanceof BatchMapTransformer<?, ?>)
+            {
+               final BatchMapTransformer<? super K, ? super V> batchDownstream =
+                  (BatchMapTransformer<? super K, ? super V>) downstream;
+
+               return SplittableProducer.Barrier.of(MapProducable.this.producer(
+                  new BatchMapTransformer<K, V>()
+                  {
+                     long skipped;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(K k, V v) throws IllegalStateException
+                     {
+                        if (skipped < n)
+                           skipped++;
+                        else
+                           batchDownstream.consume(k, v);
+                     }
+
+                     @Override
+                     public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+                     {
+                        int skip = (int) Math.min(length, n - skipped);
+                        skipped += skip;
+                        if (skip < length)
+                           batchDownstream.consume(keys, values, offset + skip, length - skip);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               ));
+            }
+
+            return SplittableProducer.Barrier.of(MapProducable.this.producer(
+               new MapTransformer<K, V>()
+               {
+                  long skipped;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(K k, V v) throws IllegalStateException
+                  {
+                     if (skipped < n)
+                        skipped++;
+                     else
+                        downstream.consume(k, v);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
          }
       };
    }
@@ -274,7 +734,7 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
             @Override
             public Producer producer(final MapTransformer<? super K, ? super V> downstream)
             {
-               return MapProducable.this.producer(
+               return SplittableProducer.Barrier.of(MapProducable.this.producer(
                   new MapTransformer<K, V>()
                   {
                      Iterator<? extends BiValue<K, V>> otherIterator = other.asIterable().iterator();
@@ -304,7 +764,7 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
                         return downstream.produce();
                      }
                   }
-               );
+               ));
             }
          };
       }
@@ -317,7 +777,7 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
          @Override
          public Producer producer(final MapTransformer<? super K, ? super V> downstream)
          {
-            return MapProducable.this.producer(
+            return SplittableProducer.Barrier.of(MapProducable.this.producer(
                new MapTransformer<K, V>()
                {
                   final Producer otherProducer = other.producer(downstream);
@@ -340,7 +800,7 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
                      return downstream.produce() || otherProducer.produce();
                   }
                }
-            );
+            ));
          }
       };
    }
@@ -351,8 +811,43 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
       return new Producable<K>()
       {
          @Override
+         @SuppressWarnings("unchecked")
          public Producer producer(final Transformer<? super K> downstream)
          {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super K> batchDownstream = (BatchTransformer<? super K>) downstream;
+
+               return MapProducable.this.producer(
+                  new BatchMapTransformer<K, V>()
+                  {
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(K k, V v) throws IllegalStateException
+                     {
+                        batchDownstream.consume(k);
+                     }
+
+                     @Override
+                     public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+                     {
+                        batchDownstream.consume(keys, offset, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
             return MapProducable.this.producer(
                new MapTransformer<K, V>()
                {
@@ -385,8 +880,43 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
       return new Producable<V>()
       {
          @Override
+         @SuppressWarnings("unchecked")
          public Producer producer(final Transformer<? super V> downstream)
          {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super V> batchDownstream = (BatchTransformer<? super V>) downstream;
+
+               return MapProducable.this.producer(
+                  new BatchMapTransformer<K, V>()
+                  {
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(K k, V v) throws IllegalStateException
+                     {
+                        batchDownstream.consume(v);
+                     }
+
+                     @Override
+                     public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+                     {
+                        batchDownstream.consume(values, offset, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
             return MapProducable.this.producer(
                new MapTransformer<K, V>()
                {
@@ -413,6 +943,10 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
       };
    }
 
+   /**
+    * The pairs are pushed downstream as a reused {@link BiValue} view (a {@link Flyweight}), so chains that don't
+    * retain them don't allocate per pair. Stages that retain elements (and iterators) get copies.
+    */
    @Override
    public Producable<BiValue<K, V>> asIterable()
    {
@@ -424,6 +958,8 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
             return MapProducable.this.producer(
                new MapTransformer<K, V>()
                {
+                  final BiValueView<K, V> view = new BiValueView<>();
+
                   @Override
                   public boolean canConsume()
                   {
@@ -433,7 +969,9 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
                   @Override
                   public void consume(K k, V v) throws IllegalStateException
                   {
-                     downstream.consume(new BiVal<>(k, v));
+                     view.key = k;
+                     view.value = v;
+                     downstream.consume(view);
                   }
 
                   @Override
@@ -499,7 +1037,7 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
             @Override
             public void consume(K k, V v) throws IllegalStateException
             {
-               destination.put(k, v);
+               destination.put(Flyweights.retain(k), Flyweights.retain(v));
             }
          }
       );
@@ -518,8 +1056,8 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
             {
                C group = destination.get(k);
                if (group == null)
-                  destination.put(k, group = factory.make());
-               group.add(v);
+                  destination.put(Flyweights.retain(k), group = factory.make());
+               group.add(Flyweights.retain(v));
             }
          }
       );
@@ -567,10 +1105,23 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
                   K key;
                   Iterator<W> iterator;
 
+                  {
+                     if (Prepared.preparing())
+                        Prepared.registerInner(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              key = null;
+                              iterator = null;
+                           }
+                        });
+                  }
+
                   @Override
                   public boolean canConsume()
                   {
-                     return iterator == null;
+                     return iterator == null && downstream.canConsume();
                   }
 
                   @Override
@@ -611,4 +1162,82 @@ public abstract class MapProducable<K, V> implements MapStream<K, V>
          }
       };
    }
+
+   /**
+    * Stable merge sort of the indexes {@code [0, size)} by the keys at those indexes. Only the two index arrays
+    * are allocated - the keys are not moved.
+    *
+    * @return the indexes of the keys in sorted order
+    */
+   private static <K> int[] sortedOrder(K[] keys, int size, Comparator<? super K> comparator)
+   {
+      int[] order = new int[size];
+      for (int i = 0; i < size; i++)
+         order[i] = i;
+
+      // insertion sort short runs
+      final int run = 32;
+      for (int from = 0; from < size; from += run)
+      {
+         int to = Math.min(from + run, size);
+         for (int i = from + 1; i < to; i++)
+         {
+            int index = order[i];
+            K key = keys[index];
+            int j = i - 1;
+            for (; j >= from && comparator.compare(keys[order[j]], key) > 0; j--)
+               order[j + 1] = order[j];
+            order[j + 1] = index;
+         }
+      }
+
+      // merge runs bottom-up, taking from the left run on ties
+      int[] src = order, dst = new int[size];
+      for (int width = run; width < size; width <<= 1)
+      {
+         for (int from = 0; from < size; from += width << 1)
+         {
+            int mid = Math.min(from + width, size), to = Math.min(from + (width << 1), size);
+            int i = from, j = mid, k = from;
+            while (i < mid && j < to)
+               dst[k++] = comparator.compare(keys[src[j]], keys[src[i]]) < 0 ? src[j++] : src[i++];
+            while (i < mid)
+               dst[k++] = src[i++];
+            while (j < to)
+               dst[k++] = src[j++];
+         }
+         int[] tmp = src;
+         src = dst;
+         dst = tmp;
+      }
+
+      return src;
+   }
+
+   /**
+    * A mutable {@link BiValue} used by {@link #asIterable()}.
+    */
+   private static final class BiValueView<K, V> implements BiValue<K, V>, Flyweight<BiValue<K, V>>
+   {
+      K key;
+      V value;
+
+      @Override
+      public K getKey()
+      {
+         return key;
+      }
+
+      @Override
+      public V getValue()
+      {
+         return value;
+      }
+
+      @Override
+      public BiValue<K, V> copy()
+      {
+         return new BiVal<>(key, value);
+      }
+   }
 }
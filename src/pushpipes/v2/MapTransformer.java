@@ -47,7 +47,7 @@ public interface MapTransformer<K, V> extends MapConsumer<K, V>, Producer
       }
    }
 
-   final class MapConsumerTail<K, V> extends Tail<K, V>
+   final class MapConsumerTail<K, V> extends Tail<K, V> implements BatchMapTransformer<K, V>
    {
       private final MapConsumer<K, V> mapConsumer;
 
@@ -61,9 +61,16 @@ public interface MapTransformer<K, V> extends MapConsumer<K, V>, Producer
       {
          mapConsumer.consume(k, v);
       }
+
+      @Override
+      public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+      {
+         for (int i = offset, end = offset + length; i < end; i++)
+            mapConsumer.consume(keys[i], values[i]);
+      }
    }
 
-   final class ResultCounterTail extends Tail<Object, Object>
+   final class ResultCounterTail extends Tail<Object, Object> implements BatchMapTransformer<Object, Object>
    {
       private long count;
 
@@ -73,6 +80,12 @@ public interface MapTransformer<K, V> extends MapConsumer<K, V>, Producer
          count++;
       }
 
+      @Override
+      public void consume(Object[] keys, Object[] values, int offset, int length) throws IllegalStateException
+      {
+         count += length;
+      }
+
       public long getResultCount(Producer producer)
       {
          while (producer.produce()) {}
@@ -80,7 +93,7 @@ public interface MapTransformer<K, V> extends MapConsumer<K, V>, Producer
       }
    }
 
-   final class BiBlockTail<K, V> extends Tail<K, V>
+   final class BiBlockTail<K, V> extends Tail<K, V> implements BatchMapTransformer<K, V>
    {
       private final BiBlock<? super K, ? super V> biBlock;
 
@@ -94,6 +107,13 @@ public interface MapTransformer<K, V> extends MapConsumer<K, V>, Producer
       {
          biBlock.apply(k, v);
       }
+
+      @Override
+      public void consume(K[] keys, V[] values, int offset, int length) throws IllegalStateException
+      {
+         for (int i = offset, end = offset + length; i < end; i++)
+            biBlock.apply(keys[i], values[i]);
+      }
    }
 
    final class SingleResultTail<K, V> extends Tail<K, V>
@@ -120,8 +140,8 @@ public interface MapTransformer<K, V> extends MapConsumer<K, V>, Producer
          if (hasResult)
             throw new IllegalStateException("Multiple results");
 
-         resultKey = k;
-         resultValue = v;
+         resultKey = Flyweights.retain(k);
+         resultValue = Flyweights.retain(v);
          hasResult = true;
       }
 
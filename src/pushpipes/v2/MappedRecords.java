@@ -0,0 +1,162 @@
+package pushpipes.v2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file as a sequence of records (fixed-length or delimiter-terminated) by memory-mapping it in windows of
+ * at most {@link #WINDOW_SIZE} bytes. Each record is exposed through the same reusable {@link ByteBuffer} view of the
+ * current window, with it's position and limit set to the record's bounds, so reading a record neither copies nor
+ * allocates. A window is re-mapped at the start of a record that crosses it's end and grown when a single record
+ * doesn't fit into it (up to {@link Integer#MAX_VALUE} bytes, the maximum size of a mapping).
+ *
+ * @author peter.levart@gmail.com
+ */
+final class MappedRecords implements Closeable
+{
+   static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+   private final Path path;
+   private final FileChannel channel;
+   private final long fileSize;
+   private final int recordLength;
+   private final byte delimiter;
+   private int windowSize;
+
+   private long windowStart;
+   private MappedByteBuffer window;
+   private ByteBuffer record;
+   private int next; // position of the next record in the window
+
+   /**
+    * @param path         the file to read
+    * @param recordLength the length of fixed-length records or -1 for {@code delimiter}-terminated records
+    * @param delimiter    the byte terminating a record (not included in the record)
+    * @param windowSize   the initial size of the mapped window
+    */
+   MappedRecords(Path path, int recordLength, byte delimiter, int windowSize)
+   {
+      if (recordLength == 0 || recordLength < -1)
+         throw new IllegalArgumentException("recordLength: " + recordLength);
+
+      this.path = path;
+      this.recordLength = recordLength;
+      this.delimiter = delimiter;
+      this.windowSize = Math.max(windowSize, recordLength);
+
+      try
+      {
+         channel = FileChannel.open(path, StandardOpenOption.READ);
+         fileSize = channel.size();
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't open file: " + path, e);
+      }
+   }
+
+   /**
+    * @return a view of the next record (between it's position and limit), valid until the next call, or null
+    *         if there are no more records
+    */
+   ByteBuffer next()
+   {
+      if (window == null)
+      {
+         if (fileSize == 0)
+            return null;
+         map(0);
+      }
+
+      while (true)
+      {
+         int end = recordEnd();
+         if (end >= 0)
+         {
+            record.limit(record.capacity()).position(next);
+            record.limit(end);
+            next = recordLength > 0 ? end : end + 1;
+            return record;
+         }
+
+         long recordStart = windowStart + next;
+         if (recordStart >= fileSize)
+            return null;
+
+         if (windowStart + window.capacity() >= fileSize)
+         {
+            // last record, shorter than recordLength or not terminated by delimiter
+            record.limit(record.capacity()).position(next);
+            next = record.capacity();
+            return record;
+         }
+
+         if (next == 0) // a single record doesn't fit the window
+         {
+            if (windowSize == Integer.MAX_VALUE)
+               throw new PipeIOException(
+                  "Can't read file: " + path,
+                  new IOException("The record at " + recordStart + " is longer than " + Integer.MAX_VALUE + " bytes")
+               );
+            windowSize = (int) Math.min((long) windowSize << 1, Integer.MAX_VALUE);
+         }
+
+         map(recordStart);
+      }
+   }
+
+   @Override
+   public void close()
+   {
+      window = null;
+      record = null;
+      try
+      {
+         channel.close();
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't close file: " + path, e);
+      }
+   }
+
+   /**
+    * @return the end (exclusive, in window coordinates) of the record starting at {@link #next} or -1 if it's
+    *         not completely inside the window
+    */
+   private int recordEnd()
+   {
+      int limit = window.capacity();
+
+      if (recordLength > 0)
+         return limit - next >= recordLength ? next + recordLength : -1;
+
+      for (int i = next; i < limit; i++)
+      {
+         if (window.get(i) == delimiter)
+            return i;
+      }
+
+      return -1;
+   }
+
+   private void map(long start)
+   {
+      try
+      {
+         windowStart = start;
+         window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+         record = window.duplicate();
+         next = 0;
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't map file: " + path, e);
+      }
+   }
+}
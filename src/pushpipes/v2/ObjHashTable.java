@@ -0,0 +1,167 @@
+package pushpipes.v2;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash table of object keys with linear probing, used by the {@code uniqueElements} and
+ * {@code groupBy} stages instead of {@link java.util.HashSet}/{@link java.util.HashMap}, so that no entry object
+ * is allocated per key. Keys are kept densely in insertion order in parallel key and hash-code arrays and the
+ * probed table only holds {@code int} indexes into them, so probing touches a single {@code int[]} and
+ * comparing cached hash codes avoids most {@code equals} calls. Null keys are supported.<p/>
+ * Lookup and insertion are split so that callers can copy a key (see {@link Flyweights#retain}) only when it is
+ * actually inserted:
+ * <pre>
+ * int i = table.find(key);
+ * if (i < 0)
+ *    i = table.insert(i, Flyweights.retain(key));
+ * </pre>
+ *
+ * @author peter.levart@gmail.com
+ */
+final class ObjHashTable<K>
+{
+   private static final int MIN_CAPACITY = 16;
+
+   private int[] table; // index + 1 of the key in the keys/hashes arrays or 0 for an empty slot
+   private int mask;
+   private Object[] keys;
+   private int[] hashes;
+   private int size;
+
+   ObjHashTable()
+   {
+      this(MIN_CAPACITY / 2);
+   }
+
+   /**
+    * @param expectedSize the number of distinct keys expected to be inserted, used to pre-size the table
+    */
+   ObjHashTable(int expectedSize)
+   {
+      if (expectedSize < 0)
+         throw new IllegalArgumentException("expectedSize: " + expectedSize);
+
+      int capacity = MIN_CAPACITY;
+      while (capacity < expectedSize * 2L && capacity < (1 << 30))
+         capacity <<= 1;
+      table = new int[capacity];
+      mask = capacity - 1;
+      keys = new Object[Math.max(expectedSize, MIN_CAPACITY / 2)];
+      hashes = new int[keys.length];
+   }
+
+   /**
+    * @return the index of the key if present or a negative value that can be passed to {@link #insert} otherwise
+    */
+   int find(Object key)
+   {
+      int h = hash(key);
+      int[] table = this.table;
+      int i = h & mask;
+      for (int e; (e = table[i]) != 0; i = (i + 1) & mask)
+      {
+         if (hashes[--e] == h)
+         {
+            Object k = keys[e];
+            if (k == key || (key != null && key.equals(k)))
+               return e;
+         }
+      }
+
+      return ~i;
+   }
+
+   /**
+    * Inserts a key that is not present in the table.
+    *
+    * @param notFound the (negative) result of the {@link #find} call that did not find the key, with no
+    *                 insertions between
+    * @param key      the key (equal to the one passed to {@link #find})
+    * @return the index of the inserted key
+    */
+   int insert(int notFound, K key)
+   {
+      if (size == keys.length)
+      {
+         keys = Arrays.copyOf(keys, keys.length * 2);
+         hashes = Arrays.copyOf(hashes, keys.length);
+      }
+
+      int index = size++;
+      keys[index] = key;
+      hashes[index] = hash(key);
+      table[~notFound] = index + 1;
+      if (size * 2 > table.length)
+         rehash();
+
+      return index;
+   }
+
+   /**
+    * @return true if the key was not present in the table before and was inserted
+    */
+   boolean add(K key)
+   {
+      int i = find(key);
+      if (i >= 0)
+         return false;
+
+      insert(i, key);
+      return true;
+   }
+
+   /**
+    * @return the number of keys in the table; their indexes are 0 .. size-1 in insertion order
+    */
+   int size()
+   {
+      return size;
+   }
+
+   /**
+    * Removes all keys, keeping the allocated arrays for reuse.
+    */
+   void clear()
+   {
+      Arrays.fill(table, 0);
+      Arrays.fill(keys, 0, size, null);
+      size = 0;
+   }
+
+   @SuppressWarnings("unchecked")
+   K key(int index)
+   {
+      return (K) keys[index];
+   }
+
+   /**
+    * @return the array holding the keys at indexes 0 .. size-1 (not a copy)
+    */
+   @SuppressWarnings("unchecked")
+   K[] keys()
+   {
+      return (K[]) keys;
+   }
+
+   private void rehash()
+   {
+      int capacity = table.length << 1;
+      int[] table = new int[capacity];
+      int mask = capacity - 1;
+      for (int e = 0; e < size; e++)
+      {
+         int i = hashes[e] & mask;
+         while (table[i] != 0)
+            i = (i + 1) & mask;
+         table[i] = e + 1;
+      }
+      this.table = table;
+      this.mask = mask;
+   }
+
+   private static int hash(Object key)
+   {
+      int h = key == null ? 0 : key.hashCode() * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+}
@@ -0,0 +1,226 @@
+package pushpipes.v2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable array of {@code long} values for the buffering stages of {@link LongProducable}. Small arrays are kept
+ * on heap, but once an array grows beyond {@link #OFF_HEAP_THRESHOLD} values it is moved to a direct (off-heap)
+ * buffer, so that large sorts don't inflate the old generation of the GC heap. The off-heap contents are sorted by
+ * an in-place primitive introsort (quicksort with three-way partitioning, falling back to heapsort).
+ *
+ * @author peter.levart@gmail.com
+ */
+final class OffHeapLongArray
+{
+   /**
+    * Arrays larger than this (in number of values) are kept off-heap.
+    */
+   static final int OFF_HEAP_THRESHOLD = 64 * 1024;
+
+   private static final int INSERTION_SORT_THRESHOLD = 16;
+
+   private long[] array = new long[Producable.DEFAULT_BUFFER_CAPACITY];
+   private LongBuffer buffer;
+   private int size;
+
+   int size()
+   {
+      return size;
+   }
+
+   /**
+    * Removes all values, keeping the allocated storage for reuse.
+    */
+   void clear()
+   {
+      size = 0;
+   }
+
+   void add(long value)
+   {
+      if (array != null && size < array.length)
+      {
+         array[size++] = value;
+         return;
+      }
+
+      ensureCapacity(size + 1);
+      if (array != null)
+         array[size++] = value;
+      else
+         buffer.put(size++, value);
+   }
+
+   void add(long[] values, int offset, int length)
+   {
+      ensureCapacity(size + length);
+
+      if (array != null)
+      {
+         System.arraycopy(values, offset, array, size, length);
+      }
+      else
+      {
+         buffer.position(size);
+         buffer.put(values, offset, length);
+      }
+      size += length;
+   }
+
+   long get(int index)
+   {
+      return array != null ? array[index] : buffer.get(index);
+   }
+
+   /**
+    * Copies {@code length} values starting at {@code index} into {@code dst}.
+    */
+   void get(int index, long[] dst, int offset, int length)
+   {
+      if (array != null)
+      {
+         System.arraycopy(array, index, dst, offset, length);
+      }
+      else
+      {
+         buffer.position(index);
+         buffer.get(dst, offset, length);
+      }
+   }
+
+   void sort()
+   {
+      if (array != null)
+         Arrays.sort(array, 0, size);
+      else
+         sort(buffer, 0, size, 2 * (32 - Integer.numberOfLeadingZeros(size)));
+   }
+
+   private void ensureCapacity(int capacity)
+   {
+      if (capacity < 0)
+         throw new OutOfMemoryError("Array too large");
+
+      if (array != null)
+      {
+         if (capacity <= array.length)
+            return;
+
+         int newCapacity = (int) Math.min(Math.max((long) array.length << 1, capacity), Integer.MAX_VALUE);
+         if (newCapacity <= OFF_HEAP_THRESHOLD)
+         {
+            array = Arrays.copyOf(array, newCapacity);
+         }
+         else
+         {
+            buffer = allocate(newCapacity);
+            buffer.put(array, 0, size);
+            array = null;
+         }
+      }
+      else if (capacity > buffer.capacity())
+      {
+         LongBuffer newBuffer = allocate((int) Math.min(Math.max((long) buffer.capacity() << 1, capacity),
+                                                  Integer.MAX_VALUE));
+         buffer.position(0).limit(size);
+         newBuffer.put(buffer);
+         buffer = newBuffer;
+      }
+   }
+
+   private static LongBuffer allocate(int capacity)
+   {
+      if ((long) capacity * 8 > Integer.MAX_VALUE)
+         throw new OutOfMemoryError("Array too large for a direct buffer: " + capacity);
+
+      return ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+   }
+
+   //
+   // introsort of [from, to)
+
+   private static void sort(LongBuffer a, int from, int to, int depth)
+   {
+      while (to - from > INSERTION_SORT_THRESHOLD)
+      {
+         if (depth-- == 0)
+         {
+            heapSort(a, from, to);
+            return;
+         }
+
+         // median of three as pivot
+         int mid = (from + to) >>> 1;
+         long x = a.get(from), y = a.get(mid), z = a.get(to - 1);
+         long pivot = x < y ? (y < z ? y : x < z ? z : x) : (x < z ? x : y < z ? z : y);
+
+         // three-way partitioning: [from, lt) < pivot, [lt, gt) == pivot, [gt, to) > pivot
+         int lt = from, i = from, gt = to;
+         while (i < gt)
+         {
+            long v = a.get(i);
+            if (v < pivot)
+               swap(a, lt++, i++);
+            else if (v > pivot)
+               swap(a, i, --gt);
+            else
+               i++;
+         }
+
+         // recurse into the smaller part, loop on the larger one
+         if (lt - from < to - gt)
+         {
+            sort(a, from, lt, depth);
+            from = gt;
+         }
+         else
+         {
+            sort(a, gt, to, depth);
+            to = lt;
+         }
+      }
+
+      for (int i = from + 1; i < to; i++)
+      {
+         long v = a.get(i);
+         int j = i - 1;
+         for (; j >= from && a.get(j) > v; j--)
+            a.put(j + 1, a.get(j));
+         a.put(j + 1, v);
+      }
+   }
+
+   private static void heapSort(LongBuffer a, int from, int to)
+   {
+      int n = to - from;
+      for (int i = (n >>> 1) - 1; i >= 0; i--)
+         siftDown(a, from, i, n);
+      for (int end = n - 1; end > 0; end--)
+      {
+         swap(a, from, from + end);
+         siftDown(a, from, 0, end);
+      }
+   }
+
+   private static void siftDown(LongBuffer a, int base, int i, int n)
+   {
+      for (int child; (child = (i << 1) + 1) < n; i = child)
+      {
+         if (child + 1 < n && a.get(base + child + 1) > a.get(base + child))
+            child++;
+         if (a.get(base + child) <= a.get(base + i))
+            break;
+         swap(a, base + i, base + child);
+      }
+   }
+
+   private static void swap(LongBuffer a, int i, int j)
+   {
+      long v = a.get(i);
+      a.put(i, a.get(j));
+      a.put(j, v);
+   }
+}
@@ -0,0 +1,1021 @@
+package pushpipes.v2;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.functions.*;
+
+/**
+ * A {@link Producable} that evaluates it's terminal operations by splitting the source of it's upstream chain and
+ * running the splits in a {@link ForkJoinPool}. Obtained from {@link Producable#parallel()}.<p/>
+ * Each split gets an independent chain of transformers built through the ordinary
+ * {@link Producable#producer(Transformer)} factory, with the chain's head restricted to the split
+ * (see {@link SplittableProducer}). The per-split results are then combined in encounter order.
+ * Only chains over splittable heads (arrays, {@link RandomAccess} lists, ranges) without stateful stages are
+ * split - all other chains are evaluated sequentially on the calling thread.<p/>
+ * Stateless stages ({@link #filter}, {@link #map}, {@link #flatMap}) added to a parallel producable keep it
+ * parallel. The stateful {@link #sorted} and {@link #uniqueElements} stages collect and sort/de-duplicate each
+ * split in parallel and merge the per-split states before pushing the result downstream sequentially.
+ * {@link #groupBy}, {@link #groupByMulti} and {@link #groupByReducing} hash-partition keys across workers instead.
+ * Any other chain building method returns a sequential producable.
+ *
+ * @author peter.levart@gmail.com
+ * @see Producable#parallel()
+ * @see SplittableProducer
+ */
+public class ParallelProducable<T> extends Producable<T>
+{
+   /**
+    * Splits smaller than this are not split further.
+    */
+   public static final int MIN_SPLIT_SIZE = 1024;
+
+   private static final ForkJoinPool DEFAULT_POOL = new ForkJoinPool();
+
+   private final Producable<T> upstream;
+   private final ForkJoinPool pool;
+
+   ParallelProducable(Producable<T> upstream, ForkJoinPool pool)
+   {
+      this.upstream = upstream;
+      this.pool = pool == null ? DEFAULT_POOL : pool;
+   }
+
+   /**
+    * @return the chain of this producable (without the parallel evaluation of terminal operations)
+    */
+   public Producable<T> sequential()
+   {
+      return upstream;
+   }
+
+   @Override
+   public ParallelProducable<T> parallel()
+   {
+      return this;
+   }
+
+   @Override
+   public Producer producer(Transformer<? super T> downstream)
+   {
+      return upstream.producer(downstream);
+   }
+
+   //
+   // stateless chain building (stays parallel)
+
+   @Override
+   public ParallelProducable<T> filter(Predicate<? super T> predicate)
+   {
+      return new ParallelProducable<>(upstream.filter(predicate), pool);
+   }
+
+   @Override
+   public <U> ParallelProducable<U> map(Mapper<? super T, ? extends U> mapper)
+   {
+      return new ParallelProducable<>(upstream.<U>map(mapper), pool);
+   }
+
+   @Override
+   public ParallelProducable<T> compile()
+   {
+      return new ParallelProducable<>(upstream.compile(), pool);
+   }
+
+   @Override
+   public <U> ParallelProducable<U> flatMap(Mapper<? super T, ? extends Iterable<U>> mapper)
+   {
+      return new ParallelProducable<>(upstream.flatMap(mapper), pool);
+   }
+
+   //
+   // stateful chain building (parallel up to and including the stage, sequential after it)
+
+   @Override
+   public Producable<T> sorted(final Comparator<? super T> comparator)
+   {
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return new Deferred()
+            {
+               @Override
+               Producer start()
+               {
+                  SortSplit<T> sorted = evaluate(new SortSplit<T>(comparator));
+                  return from(sorted.array, 0, sorted.size).producer(downstream);
+               }
+            };
+         }
+      };
+   }
+
+   @Override
+   public Producable<T> uniqueElements()
+   {
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return new Deferred()
+            {
+               @Override
+               Producer start()
+               {
+                  ObjHashTable<T> set = evaluate(new UniqueSplit<T>()).set;
+                  return from(set.keys(), 0, set.size()).producer(downstream);
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * Same as {@link #uniqueElements()}; the size hint is ignored since each split builds it's own table.
+    */
+   @Override
+   public Producable<T> uniqueElements(int expectedSize)
+   {
+      return uniqueElements();
+   }
+
+   /**
+    * Groups elements by key. The keys are hash-partitioned across the pool's workers: each split distributes it's
+    * (key, element) pairs into per-partition buckets, then each partition is grouped by a single worker into a
+    * private map, so no map is shared between threads. Partitions are pushed downstream one after another as
+    * they are completed.
+    */
+   @Override
+   public <U> MapProducable<U, Iterable<T>> groupBy(final Mapper<? super T, ? extends U> mapper)
+   {
+      return partitionedGroupBy(mapper, null);
+   }
+
+   /**
+    * Same as {@link #groupBy} but with multiple keys per element.
+    */
+   @Override
+   public <U> MapProducable<U, Iterable<T>> groupByMulti(final Mapper<? super T, ? extends Iterable<U>> mapper)
+   {
+      return partitionedGroupBy(null, mapper);
+   }
+
+   /**
+    * Same as {@link #groupBy(Mapper)}; the size hint is ignored since keys are spread over partitions.
+    */
+   @Override
+   public <U> MapProducable<U, Iterable<T>> groupBy(Mapper<? super T, ? extends U> mapper, int expectedKeys)
+   {
+      return groupBy(mapper);
+   }
+
+   /**
+    * Same as {@link #groupByMulti(Mapper)}; the size hint is ignored since keys are spread over partitions.
+    */
+   @Override
+   public <U> MapProducable<U, Iterable<T>> groupByMulti(Mapper<? super T, ? extends Iterable<U>> mapper,
+                                                         int expectedKeys)
+   {
+      return groupByMulti(mapper);
+   }
+
+   /**
+    * Groups elements by key, reducing each group into a single value instead of materializing it. Each split
+    * keeps one accumulator per (partition, key), the per-split accumulators of each hash-partition are then
+    * combined by a single worker. The {@code reducer} must be associative and {@code base} must be it's
+    * identity value.
+    *
+    * @param keyMapper   the function computing the key of an element
+    * @param valueMapper the function computing the value of an element that is reduced into the key's accumulator
+    * @param base        the initial (identity) value of each key's accumulator
+    * @param reducer     the associative function combining an accumulator with a value or another accumulator
+    * @return a map producable of (key, reduced value) pairs
+    */
+   @Override
+   public <U, V> MapProducable<U, V> groupByReducing(
+      final Mapper<? super T, ? extends U> keyMapper,
+      final Mapper<? super T, ? extends V> valueMapper,
+      final V base,
+      final BinaryOperator<V> reducer
+   )
+   {
+      return new MapProducable<U, V>()
+      {
+         @Override
+         public Producer producer(final MapTransformer<? super U, ? super V> downstream)
+         {
+            return new Deferred()
+            {
+               @Override
+               Producer start()
+               {
+                  final ReducingSplit<T, U, V> split =
+                     evaluate(new ReducingSplit<>(keyMapper, valueMapper, base, reducer, partitions()));
+
+                  return partitions(
+                     split.partitions, downstream, new Mapper<List<Map<U, V>>, Map<U, V>>()
+                     {
+                        @Override
+                        public Map<U, V> map(List<Map<U, V>> maps)
+                        {
+                           return split.combine(maps);
+                        }
+                     }
+                  );
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * Parallel version of {@link Producable#groupByReducingInt(Mapper, IntMapper, int, IntBinaryOperator)}.
+    * Accumulators are kept boxed.
+    */
+   @Override
+   public <U> MapProducable<U, Integer> groupByReducingInt(
+      Mapper<? super T, ? extends U> keyMapper,
+      final IntMapper<? super T> valueMapper,
+      int base,
+      final IntBinaryOperator reducer
+   )
+   {
+      return groupByReducing(
+         keyMapper,
+         new Mapper<T, Integer>()
+         {
+            @Override
+            public Integer map(T t)
+            {
+               return valueMapper.map(t);
+            }
+         },
+         (Integer) base,
+         new BinaryOperator<Integer>()
+         {
+            @Override
+            public Integer eval(Integer left, Integer right)
+            {
+               return reducer.eval(left, right);
+            }
+         }
+      );
+   }
+
+   /**
+    * Parallel version of {@link Producable#groupByReducingLong(Mapper, LongMapper, long, LongBinaryOperator)}.
+    * Accumulators are kept boxed.
+    */
+   @Override
+   public <U> MapProducable<U, Long> groupByReducingLong(
+      Mapper<? super T, ? extends U> keyMapper,
+      final LongMapper<? super T> valueMapper,
+      long base,
+      final LongBinaryOperator reducer
+   )
+   {
+      return groupByReducing(
+         keyMapper,
+         new Mapper<T, Long>()
+         {
+            @Override
+            public Long map(T t)
+            {
+               return valueMapper.map(t);
+            }
+         },
+         (Long) base,
+         new BinaryOperator<Long>()
+         {
+            @Override
+            public Long eval(Long left, Long right)
+            {
+               return reducer.eval(left, right);
+            }
+         }
+      );
+   }
+
+   /**
+    * Parallel version of {@link Producable#groupByReducingDouble(Mapper, DoubleMapper, double, DoubleBinaryOperator)}.
+    * Accumulators are kept boxed.
+    */
+   @Override
+   public <U> MapProducable<U, Double> groupByReducingDouble(
+      Mapper<? super T, ? extends U> keyMapper,
+      final DoubleMapper<? super T> valueMapper,
+      double base,
+      final DoubleBinaryOperator reducer
+   )
+   {
+      return groupByReducing(
+         keyMapper,
+         new Mapper<T, Double>()
+         {
+            @Override
+            public Double map(T t)
+            {
+               return valueMapper.map(t);
+            }
+         },
+         (Double) base,
+         new BinaryOperator<Double>()
+         {
+            @Override
+            public Double eval(Double left, Double right)
+            {
+               return reducer.eval(left, right);
+            }
+         }
+      );
+   }
+
+   private <U> MapProducable<U, Iterable<T>> partitionedGroupBy(
+      final Mapper<? super T, ? extends U> mapper,
+      final Mapper<? super T, ? extends Iterable<U>> multiMapper
+   )
+   {
+      return new MapProducable<U, Iterable<T>>()
+      {
+         @Override
+         public Producer producer(final MapTransformer<? super U, ? super Iterable<T>> downstream)
+         {
+            return new Deferred()
+            {
+               @Override
+               Producer start()
+               {
+                  PartitionSplit<T, U> split = evaluate(new PartitionSplit<T, U>(mapper, multiMapper, partitions()));
+
+                  return partitions(
+                     split.partitions, downstream, new Mapper<PartitionSplit.Bucket, Map<U, Iterable<T>>>()
+                     {
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Map<U, Iterable<T>> map(PartitionSplit.Bucket bucket)
+                        {
+                           Map<U, Collection<T>> multiMap = new HashMap<>();
+                           for (; bucket != null; bucket = bucket.next)
+                           {
+                              for (int i = 0; i < bucket.size; i++)
+                              {
+                                 U key = (U) bucket.keys[i];
+                                 Collection<T> group = multiMap.get(key);
+                                 if (group == null)
+                                    multiMap.put(key, group = new ArrayList<>());
+
+                                 group.add((T) bucket.elements[i]);
+                              }
+                           }
+                           return (Map<U, Iterable<T>>) (Map<U, ?>) multiMap;
+                        }
+                     }
+                  );
+               }
+            };
+         }
+      };
+   }
+
+   private int partitions()
+   {
+      return pool.getParallelism();
+   }
+
+   /**
+    * Submits a task per partition to the pool, building the partition's map from it's per-split state with the
+    * given {@code builder}, and returns a producer that pushes the maps' entries downstream partition by
+    * partition, waiting for each partition's task to complete in turn. Downstream is asked to produce only after
+    * the entries of all partitions have been pushed.
+    */
+   private <P, K, V> Producer partitions(
+      P[] partitions,
+      final MapTransformer<? super K, ? super V> downstream,
+      final Mapper<P, Map<K, V>> builder
+   )
+   {
+      final List<ForkJoinTask<Map<K, V>>> tasks = new ArrayList<>(partitions.length);
+      for (final P partition : partitions)
+      {
+         tasks.add(
+            pool.submit(
+               new RecursiveTask<Map<K, V>>()
+               {
+                  @Override
+                  protected Map<K, V> compute()
+                  {
+                     return builder.map(partition);
+                  }
+               }
+            )
+         );
+      }
+
+      return new Producer()
+      {
+         int p;
+         Iterator<Map.Entry<K, V>> iterator;
+
+         @Override
+         public boolean produce()
+         {
+            // downstream switches to producing only after the last partition's entries have been pushed
+            while ((iterator == null || !iterator.hasNext()) && p < tasks.size())
+            {
+               // release the finished partition's map before waiting for the next one
+               iterator = tasks.get(p).join().entrySet().iterator();
+               tasks.set(p++, null);
+            }
+
+            if (iterator != null && iterator.hasNext() && downstream.canConsume())
+            {
+               Map.Entry<K, V> entry = iterator.next();
+               downstream.consume(entry.getKey(), entry.getValue());
+               return true;
+            }
+
+            return downstream.produce();
+         }
+      };
+   }
+
+   //
+   // execution
+
+   @Override
+   public long count()
+   {
+      return evaluate(new CountSplit<T>()).count;
+   }
+
+   /**
+    * Each split builds it's own sketch, the sketches are merged.
+    */
+   @Override
+   public long approxCountDistinct(int precision)
+   {
+      return evaluate(new HyperLogLogSplit<T>(precision)).sketch.estimate();
+   }
+
+   @Override
+   public T reduce(T base, BinaryOperator<T> reducer)
+   {
+      ReduceSplit<T> reduced = evaluate(new ReduceSplit<>(reducer));
+      return reduced.hasResult ? reducer.eval(base, reduced.result) : base;
+   }
+
+   /**
+    * Applies the block to each element. In contrast to the sequential {@link Producable#forEach}, the block
+    * is applied concurrently from multiple threads and in no particular order.
+    */
+   @Override
+   public void forEach(Block<? super T> block)
+   {
+      evaluate(new ForEachSplit<T>(block));
+   }
+
+   @Override
+   public <A extends Fillable<? super T>> A into(A target)
+   {
+      return Iterables.into(evaluate(new CollectSplit<T>()).list, target);
+   }
+
+   /**
+    * Evaluates the upstream chain into per-split instances of the given {@link Split} and merges them.
+    */
+   <S extends Split<T, S>> S evaluate(S prototype)
+   {
+      S split = prototype.newSplit();
+      Producer head = upstream.producer(split);
+      long size = head instanceof SplittableProducer ? ((SplittableProducer) head).size() : -1L;
+
+      if (size < 2L * MIN_SPLIT_SIZE || pool.getParallelism() < 2)
+      {
+         // not splittable or not worth splitting
+         while (head.produce()) {}
+         split.finish();
+         return split;
+      }
+
+      long threshold = Math.max(size / (pool.getParallelism() << 2), MIN_SPLIT_SIZE);
+      return pool.invoke(new SplitTask<>(prototype, 0L, size, threshold));
+   }
+
+   @SuppressWarnings("serial") // never serialized
+   private final class SplitTask<S extends Split<T, S>> extends RecursiveTask<S>
+   {
+      private final S prototype;
+      private final long from, to, threshold;
+
+      SplitTask(S prototype, long from, long to, long threshold)
+      {
+         this.prototype = prototype;
+         this.from = from;
+         this.to = to;
+         this.threshold = threshold;
+      }
+
+      @Override
+      protected S compute()
+      {
+         if (to - from <= threshold)
+         {
+            S split = prototype.newSplit();
+            SplittableProducer head = (SplittableProducer) upstream.producer(split);
+            head.restrict(from, to);
+            while (head.produce()) {}
+            split.finish();
+            return split;
+         }
+
+         long mid = from + ((to - from) >>> 1);
+         SplitTask<S> left = new SplitTask<>(prototype, from, mid, threshold);
+         left.fork();
+         S right = new SplitTask<>(prototype, mid, to, threshold).compute();
+         return left.join().merge(right);
+      }
+   }
+
+   /**
+    * A {@link Producer} that starts the (parallel) evaluation at the first call to {@link #produce()}. When
+    * {@link Prepared prepared}, it's reset discards the evaluation, so the next execution evaluates the upstream
+    * anew.
+    */
+   private static abstract class Deferred implements Producer, Resettable
+   {
+      private Producer producer;
+
+      Deferred()
+      {
+         Prepared.register(this);
+         Prepared.resettableBarrier();
+      }
+
+      abstract Producer start();
+
+      @Override
+      public void reset()
+      {
+         producer = null;
+      }
+
+      @Override
+      public final boolean produce()
+      {
+         if (producer == null)
+            producer = start();
+
+         return producer.produce();
+      }
+   }
+
+   //
+   // per-split tails
+
+   /**
+    * A tail that accumulates the output of one split and can be merged with the tail of the next split.
+    *
+    * @param <S> the concrete split type
+    */
+   static abstract class Split<T, S extends Split<T, S>> extends Transformer.Tail<T> implements BatchTransformer<T>
+   {
+      /**
+       * @return a new empty split of the same kind
+       */
+      abstract S newSplit();
+
+      /**
+       * Called after the split's chain has been drained - still in the worker thread.
+       */
+      void finish() {}
+
+      /**
+       * @param next the split that follows this split in encounter order
+       * @return the merged split (can be this or next)
+       */
+      abstract S merge(S next);
+
+      @Override
+      public void consume(T[] batch, int offset, int length) throws IllegalStateException
+      {
+         for (int i = offset, end = offset + length; i < end; i++)
+            consume(batch[i]);
+      }
+   }
+
+   static final class CountSplit<T> extends Split<T, CountSplit<T>>
+   {
+      long count;
+
+      @Override
+      CountSplit<T> newSplit()
+      {
+         return new CountSplit<>();
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         count++;
+      }
+
+      @Override
+      public void consume(T[] batch, int offset, int length) throws IllegalStateException
+      {
+         count += length;
+      }
+
+      @Override
+      CountSplit<T> merge(CountSplit<T> next)
+      {
+         count += next.count;
+         return this;
+      }
+   }
+
+   static final class HyperLogLogSplit<T> extends Split<T, HyperLogLogSplit<T>>
+   {
+      private final int precision;
+      final HyperLogLog sketch;
+
+      HyperLogLogSplit(int precision)
+      {
+         this.precision = precision;
+         sketch = new HyperLogLog(precision);
+      }
+
+      @Override
+      HyperLogLogSplit<T> newSplit()
+      {
+         return new HyperLogLogSplit<>(precision);
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         sketch.consume(t);
+      }
+
+      @Override
+      HyperLogLogSplit<T> merge(HyperLogLogSplit<T> next)
+      {
+         sketch.merge(next.sketch);
+         return this;
+      }
+   }
+
+   static final class ReduceSplit<T> extends Split<T, ReduceSplit<T>>
+   {
+      private final BinaryOperator<T> reducer;
+      T result;
+      boolean hasResult;
+
+      ReduceSplit(BinaryOperator<T> reducer)
+      {
+         this.reducer = reducer;
+      }
+
+      @Override
+      ReduceSplit<T> newSplit()
+      {
+         return new ReduceSplit<>(reducer);
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         T result = hasResult ? reducer.eval(this.result, t) : t;
+         this.result = result == t ? Flyweights.retain(t) : result;
+         hasResult = true;
+      }
+
+      @Override
+      ReduceSplit<T> merge(ReduceSplit<T> next)
+      {
+         if (next.hasResult)
+            consume(next.result);
+         return this;
+      }
+   }
+
+   static final class ForEachSplit<T> extends Split<T, ForEachSplit<T>>
+   {
+      private final Block<? super T> block;
+
+      ForEachSplit(Block<? super T> block)
+      {
+         this.block = block;
+      }
+
+      @Override
+      ForEachSplit<T> newSplit()
+      {
+         return new ForEachSplit<>(block);
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         block.apply(t);
+      }
+
+      @Override
+      ForEachSplit<T> merge(ForEachSplit<T> next)
+      {
+         return this;
+      }
+   }
+
+   static final class CollectSplit<T> extends Split<T, CollectSplit<T>>
+   {
+      final List<T> list = new ArrayList<>();
+
+      @Override
+      CollectSplit<T> newSplit()
+      {
+         return new CollectSplit<>();
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         list.add(Flyweights.retain(t));
+      }
+
+      @Override
+      CollectSplit<T> merge(CollectSplit<T> next)
+      {
+         list.addAll(next.list);
+         return this;
+      }
+   }
+
+   static final class SortSplit<T> extends Split<T, SortSplit<T>>
+   {
+      private final Comparator<? super T> comparator;
+      @SuppressWarnings("unchecked")
+      T[] array = (T[]) new Object[DEFAULT_BUFFER_CAPACITY];
+      int size;
+
+      SortSplit(Comparator<? super T> comparator)
+      {
+         this.comparator = comparator;
+      }
+
+      @Override
+      SortSplit<T> newSplit()
+      {
+         return new SortSplit<>(comparator);
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         if (size >= array.length)
+            array = Arrays.copyOf(array, array.length << 1);
+
+         array[size++] = Flyweights.retain(t);
+      }
+
+      @Override
+      void finish()
+      {
+         Arrays.sort(array, 0, size, comparator);
+      }
+
+      @Override
+      SortSplit<T> merge(SortSplit<T> next)
+      {
+         // stable merge of two sorted runs: on ties, elements of this (earlier) split go first
+         @SuppressWarnings("unchecked")
+         T[] merged = (T[]) new Object[size + next.size];
+         int i = 0, j = 0, k = 0;
+         while (i < size && j < next.size)
+            merged[k++] = comparator.compare(next.array[j], array[i]) < 0 ? next.array[j++] : array[i++];
+         while (i < size)
+            merged[k++] = array[i++];
+         while (j < next.size)
+            merged[k++] = next.array[j++];
+
+         array = merged;
+         size = k;
+         return this;
+      }
+   }
+
+   static final class UniqueSplit<T> extends Split<T, UniqueSplit<T>>
+   {
+      final ObjHashTable<T> set = new ObjHashTable<>();
+
+      @Override
+      UniqueSplit<T> newSplit()
+      {
+         return new UniqueSplit<>();
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         int i = set.find(t);
+         if (i < 0)
+            set.insert(i, Flyweights.retain(t));
+      }
+
+      @Override
+      UniqueSplit<T> merge(UniqueSplit<T> next)
+      {
+         UniqueSplit<T> larger = set.size() >= next.set.size() ? this : next;
+         ObjHashTable<T> smaller = larger == this ? next.set : set;
+         for (int i = 0; i < smaller.size(); i++)
+            larger.set.add(smaller.key(i));
+
+         return larger;
+      }
+   }
+
+   static int partition(Object key, int partitions)
+   {
+      int h = key == null ? 0 : key.hashCode() * 0x9E3779B9;
+      return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions;
+   }
+
+   /**
+    * Distributes (key, element) pairs into per-partition chains of buckets. Merging splits just links the chains.
+    */
+   static final class PartitionSplit<T, U> extends Split<T, PartitionSplit<T, U>>
+   {
+      static final class Bucket
+      {
+         final Object[] keys = new Object[DEFAULT_BUFFER_CAPACITY];
+         final Object[] elements = new Object[DEFAULT_BUFFER_CAPACITY];
+         int size;
+         Bucket next;
+      }
+
+      private final Mapper<? super T, ? extends U> mapper;
+      private final Mapper<? super T, ? extends Iterable<U>> multiMapper;
+      final Bucket[] partitions;
+      private final Bucket[] tails;
+
+      PartitionSplit(Mapper<? super T, ? extends U> mapper, Mapper<? super T, ? extends Iterable<U>> multiMapper, int partitions)
+      {
+         this.mapper = mapper;
+         this.multiMapper = multiMapper;
+         this.partitions = new Bucket[partitions];
+         this.tails = new Bucket[partitions];
+      }
+
+      @Override
+      PartitionSplit<T, U> newSplit()
+      {
+         return new PartitionSplit<>(mapper, multiMapper, partitions.length);
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         T retained = Flyweights.retain(t);
+         if (mapper != null)
+            add(Flyweights.retain(mapper.map(t)), retained);
+         else
+            for (U key : multiMapper.map(t))
+               add(Flyweights.retain(key), retained);
+      }
+
+      private void add(U key, T t)
+      {
+         int p = partition(key, partitions.length);
+         Bucket tail = tails[p];
+         if (tail == null || tail.size == tail.keys.length)
+         {
+            Bucket bucket = new Bucket();
+            if (tail == null)
+               partitions[p] = bucket;
+            else
+               tail.next = bucket;
+            tails[p] = tail = bucket;
+         }
+
+         tail.keys[tail.size] = key;
+         tail.elements[tail.size++] = t;
+      }
+
+      @Override
+      PartitionSplit<T, U> merge(PartitionSplit<T, U> next)
+      {
+         for (int p = 0; p < partitions.length; p++)
+         {
+            if (next.partitions[p] == null)
+               continue;
+
+            if (tails[p] == null)
+               partitions[p] = next.partitions[p];
+            else
+               tails[p].next = next.partitions[p];
+
+            tails[p] = next.tails[p];
+         }
+
+         return this;
+      }
+   }
+
+   /**
+    * Keeps one accumulator per key in per-partition maps. Merging splits collects the maps of each partition,
+    * which are then combined per partition by {@link #combine}.
+    */
+   static final class ReducingSplit<T, U, V> extends Split<T, ReducingSplit<T, U, V>>
+   {
+      private final Mapper<? super T, ? extends U> keyMapper;
+      private final Mapper<? super T, ? extends V> valueMapper;
+      private final V base;
+      private final BinaryOperator<V> reducer;
+      final List<Map<U, V>>[] partitions;
+
+      @SuppressWarnings("unchecked")
+      ReducingSplit(
+         Mapper<? super T, ? extends U> keyMapper,
+         Mapper<? super T, ? extends V> valueMapper,
+         V base,
+         BinaryOperator<V> reducer,
+         int partitions
+      )
+      {
+         this.keyMapper = keyMapper;
+         this.valueMapper = valueMapper;
+         this.base = base;
+         this.reducer = reducer;
+         this.partitions = (List<Map<U, V>>[]) new List<?>[partitions];
+      }
+
+      @Override
+      ReducingSplit<T, U, V> newSplit()
+      {
+         return new ReducingSplit<>(keyMapper, valueMapper, base, reducer, partitions.length);
+      }
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         U key = keyMapper.map(t);
+         int p = partition(key, partitions.length);
+         if (partitions[p] == null)
+         {
+            partitions[p] = new ArrayList<>(1);
+            partitions[p].add(new HashMap<U, V>());
+         }
+
+         Map<U, V> accumulators = partitions[p].get(0);
+         accumulate(accumulators, key, valueMapper.map(t));
+      }
+
+      private void accumulate(Map<U, V> accumulators, U key, V value)
+      {
+         V accumulator = accumulators.get(key);
+         if (accumulator == null && !accumulators.containsKey(key))
+         {
+            accumulator = base;
+            key = Flyweights.retain(key);
+         }
+
+         accumulators.put(key, reducer.eval(accumulator, value));
+      }
+
+      @Override
+      ReducingSplit<T, U, V> merge(ReducingSplit<T, U, V> next)
+      {
+         for (int p = 0; p < partitions.length; p++)
+         {
+            if (next.partitions[p] == null)
+               continue;
+
+            if (partitions[p] == null)
+               partitions[p] = next.partitions[p];
+            else
+               partitions[p].addAll(next.partitions[p]);
+         }
+
+         return this;
+      }
+
+      /**
+       * Combines the per-split accumulator maps of one partition (in encounter order) into one.
+       */
+      Map<U, V> combine(List<Map<U, V>> maps)
+      {
+         if (maps == null)
+            return Collections.emptyMap();
+
+         Map<U, V> combined = maps.get(0);
+         for (int i = 1; i < maps.size(); i++)
+            for (Map.Entry<U, V> entry : maps.get(i).entrySet())
+               accumulate(combined, entry.getKey(), entry.getValue());
+
+         return combined;
+      }
+   }
+}
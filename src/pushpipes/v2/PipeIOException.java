@@ -0,0 +1,26 @@
+package pushpipes.v2;
+
+import java.io.IOException;
+
+/**
+ * Thrown by stages that spill their state to temporary files when the underlying I/O fails. Producers and
+ * consumers can't throw checked exceptions, so the {@link IOException} is wrapped and available as the
+ * {@link #getCause() cause}.
+ *
+ * @author peter.levart@gmail.com
+ */
+public class PipeIOException extends RuntimeException
+{
+   private static final long serialVersionUID = 1L;
+
+   public PipeIOException(String message, IOException cause)
+   {
+      super(message, cause);
+   }
+
+   @Override
+   public IOException getCause()
+   {
+      return (IOException) super.getCause();
+   }
+}
@@ -0,0 +1,274 @@
+package pushpipes.v2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.functions.Block;
+import java.util.functions.Mapper;
+
+/**
+ * A chain that is built once and executed many times over different sources, created by
+ * {@link Producable#prepare}. Ordinary terminal operations construct the chain's transformers (and allocate their
+ * buffers) on every call, which dominates the cost of running a small query many times. A prepared chain keeps it's
+ * transformers and {@link #reset resets} them between executions instead.<p/>
+ * Only stages that know how to reset their state can be prepared: the stateless stages and the in-memory stateful
+ * stages of {@link Producable} ({@code sorted}, {@code sortedByInt}, {@code topK}, {@code uniqueElements},
+ * {@code distinct}, {@code approxDistinct}, {@code cumulate}, {@code limit}, {@code skip}, {@code takeWhile},
+ * {@code dropWhile}, {@code groupBy}, {@code groupByMulti} and {@code groupByReducing*}) and the stateful stages of
+ * a {@link ParallelProducable} (which evaluate their upstream anew on each execution). Preparing a chain with other
+ * stateful stages (such as the spilling variants or the stateful stages of {@link MapProducable}) throws
+ * {@link UnsupportedOperationException}.<p/>
+ * Since buffers are reused, the groups produced by {@code groupBy} stages are only valid until the next execution
+ * starts. A prepared chain is not thread-safe: it may only be executed by one thread at a time.
+ *
+ * @param <S> the type of source elements
+ * @param <T> the type of elements produced by the chain
+ * @author peter.levart@gmail.com
+ */
+public final class Prepared<S, T>
+{
+   /**
+    * The stages constructed by the thread that is currently preparing a chain.
+    */
+   private static final ThreadLocal<Registry> PREPARING = new ThreadLocal<>();
+
+   private final Input<S> input = new Input<>();
+   private final Output<T> output = new Output<>();
+   private final Producer producer;
+   private final Resettable[] stages;
+
+   Prepared(Mapper<? super Producable<S>, ? extends Producable<T>> chain)
+   {
+      Producable<T> producable = chain.map(input);
+
+      Registry registry = new Registry();
+      PREPARING.set(registry);
+      try
+      {
+         producer = producable.producer(output);
+      }
+      finally
+      {
+         PREPARING.remove();
+      }
+
+      if (registry.unresettable || !registry.unpaired.isEmpty())
+         throw new UnsupportedOperationException("The chain contains stateful stages that can't be reset");
+
+      registry.stages.addAll(registry.inner);
+      stages = registry.stages.toArray(new Resettable[registry.stages.size()]);
+   }
+
+   /**
+    * Executes the chain over the given source, passing the produced elements to the given block.
+    *
+    * @param source the source of elements
+    * @param block  the block to apply to each produced element
+    */
+   public void run(Iterable<? extends S> source, Block<? super T> block)
+   {
+      reset();
+      input.source = source;
+      output.block = block;
+      try
+      {
+         while (producer.produce()) {}
+      }
+      finally
+      {
+         input.source = null;
+         output.block = null;
+      }
+   }
+
+   /**
+    * Executes the chain over the given source and counts the produced elements.
+    *
+    * @param source the source of elements
+    * @return the number of produced elements
+    */
+   public long count(Iterable<? extends S> source)
+   {
+      run(source, null);
+      return output.count;
+   }
+
+   /**
+    * Resets the stages of the chain. Each execution starts by resetting the chain, so this only needs to be
+    * called to release the elements that the stages retained from the last execution earlier.
+    */
+   public void reset()
+   {
+      input.iterator = null;
+      output.count = 0L;
+      for (Resettable stage : stages)
+         stage.reset();
+   }
+
+   //
+   // registration of stages while preparing
+
+   /**
+    * @return true when a chain is being prepared by the current thread, so that stages only allocate their
+    *         {@link Resettable} when it's going to be registered
+    */
+   static boolean preparing()
+   {
+      return PREPARING.get() != null;
+   }
+
+   /**
+    * Registers the reset of a stateful stage that is shielded with a {@link SplittableProducer.Barrier#ofResettable}
+    * barrier, when a chain is being prepared by the current thread. A stage registers while constructing it's
+    * transformer, before it's upstream is built, and it's barrier is created after the upstream is built, so the
+    * barrier is paired with the last registered stage not paired yet.
+    */
+   static void register(Resettable stage)
+   {
+      Registry registry = PREPARING.get();
+      if (registry != null)
+         registry.unpaired.push(stage);
+   }
+
+   /**
+    * Registers a stage that keeps state between elements but is not shielded with a
+    * {@link SplittableProducer.Barrier} (like {@code flatMap}), when a chain is being prepared by the current
+    * thread.
+    */
+   static void registerInner(Resettable stage)
+   {
+      Registry registry = PREPARING.get();
+      if (registry != null)
+         registry.inner.add(stage);
+   }
+
+   /**
+    * Called for each stateful stage shielded with a {@link SplittableProducer.Barrier#of} barrier, which has no
+    * reset.
+    */
+   static void barrier()
+   {
+      Registry registry = PREPARING.get();
+      if (registry != null)
+         registry.unresettable = true;
+   }
+
+   /**
+    * Called for each stateful stage shielded with a {@link SplittableProducer.Barrier#ofResettable} barrier, which
+    * has registered it's reset.
+    */
+   static void resettableBarrier()
+   {
+      Registry registry = PREPARING.get();
+      if (registry != null)
+      {
+         if (registry.unpaired.isEmpty())
+            registry.unresettable = true;
+         else
+            registry.stages.add(registry.unpaired.pop());
+      }
+   }
+
+   private static final class Registry
+   {
+      final List<Resettable> stages = new ArrayList<>();
+      final List<Resettable> inner = new ArrayList<>();
+      final Deque<Resettable> unpaired = new ArrayDeque<>();
+      boolean unresettable;
+   }
+
+   //
+   // head and tail
+
+   private static final class Input<S> extends Producable<S>
+   {
+      Iterable<? extends S> source;
+      Iterator<? extends S> iterator;
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public Producer producer(final Transformer<? super S> downstream)
+      {
+         if (downstream instanceof BatchTransformer<?>)
+         {
+            final BatchTransformer<? super S> batchDownstream = (BatchTransformer<? super S>) downstream;
+
+            return new Producer()
+            {
+               final S[] batch = (S[]) new Object[DEFAULT_BATCH_SIZE];
+
+               @Override
+               public boolean produce()
+               {
+                  Iterator<? extends S> iterator = sourceIterator();
+                  if (iterator.hasNext() && batchDownstream.canConsume())
+                  {
+                     int length = 0;
+                     do
+                     {
+                        batch[length++] = iterator.next();
+                     }
+                     while (length < batch.length && iterator.hasNext());
+
+                     batchDownstream.consume(batch, 0, length);
+                     Arrays.fill(batch, 0, length, null);
+                     return true;
+                  }
+
+                  return batchDownstream.produce();
+               }
+            };
+         }
+
+         return new Producer()
+         {
+            @Override
+            public boolean produce()
+            {
+               Iterator<? extends S> iterator = sourceIterator();
+               if (iterator.hasNext() && downstream.canConsume())
+               {
+                  downstream.consume(iterator.next());
+                  return true;
+               }
+
+               return downstream.produce();
+            }
+         };
+      }
+
+      Iterator<? extends S> sourceIterator()
+      {
+         if (iterator == null)
+            iterator = source.iterator();
+
+         return iterator;
+      }
+   }
+
+   private static final class Output<T> extends Transformer.Tail<T> implements BatchTransformer<T>
+   {
+      Block<? super T> block;
+      long count;
+
+      @Override
+      public void consume(T t) throws IllegalStateException
+      {
+         count++;
+         if (block != null)
+            block.apply(t);
+      }
+
+      @Override
+      public void consume(T[] batch, int offset, int length) throws IllegalStateException
+      {
+         count += length;
+         if (block != null)
+            for (int i = offset, end = offset + length; i < end; i++)
+               block.apply(batch[i]);
+      }
+   }
+}
@@ -1,6 +1,14 @@
 package pushpipes.v2;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.functions.*;
 
 /**
@@ -28,6 +36,12 @@ public abstract class Producable<T> implements Iterable<T>
 {
    public static final int DEFAULT_BUFFER_CAPACITY = 256;
 
+   /**
+    * The maximum number of elements pushed with a single call to
+    * {@link BatchTransformer#consume(Object[], int, int)} by head producers.
+    */
+   public static final int DEFAULT_BATCH_SIZE = 256;
+
    /**
     * Constructs and returns a chain of:
     * <pre>
@@ -63,11 +77,46 @@ public abstract class Producable<T> implements Iterable<T>
 
    public static <T> Producable<T> from(final Iterable<T> iterable)
    {
+      if (iterable instanceof List<?> && iterable instanceof RandomAccess)
+         return fromRandomAccessList((List<T>) iterable);
+
       return new Producable<T>()
       {
          @Override
+         @SuppressWarnings("unchecked")
          public Producer producer(final Transformer<? super T> downstream)
          {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super T> batchDownstream = (BatchTransformer<? super T>) downstream;
+
+               return new Producer()
+               {
+                  final Iterator<T> iterator = iterable.iterator();
+                  final T[] batch = (T[]) new Object[DEFAULT_BATCH_SIZE];
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (iterator.hasNext() && batchDownstream.canConsume())
+                     {
+                        int length = 0;
+                        do
+                        {
+                           batch[length++] = iterator.next();
+                        }
+                        while (length < batch.length && iterator.hasNext());
+
+                        batchDownstream.consume(batch, 0, length);
+                        Arrays.fill(batch, 0, length, null);
+                        return true;
+                     }
+
+                     return batchDownstream.produce();
+                  }
+               };
+            }
+
             return new Producer()
             {
                final Iterator<T> iterator = iterable.iterator();
@@ -88,6 +137,125 @@ public abstract class Producable<T> implements Iterable<T>
       };
    }
 
+   /**
+    * A splittable head over a {@link RandomAccess} list. An unrestricted producer iterates the list with it's
+    * {@link Iterator} (so a sequential execution fails fast on concurrent modification as before), while producers
+    * {@link SplittableProducer#restrict restricted} to a split index the list directly.
+    */
+   private static <T> Producable<T> fromRandomAccessList(final List<T> list)
+   {
+      return new Producable<T>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super T> batchDownstream = (BatchTransformer<? super T>) downstream;
+
+               return new SplittableProducer()
+               {
+                  final T[] batch = (T[]) new Object[DEFAULT_BATCH_SIZE];
+                  Iterator<T> iterator;
+                  int i, end = -1;
+
+                  @Override
+                  public long size()
+                  {
+                     return list.size();
+                  }
+
+                  @Override
+                  public void restrict(long from, long to)
+                  {
+                     i = (int) from;
+                     end = (int) to;
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (end < 0)
+                     {
+                        if (iterator == null)
+                           iterator = list.iterator();
+
+                        if (iterator.hasNext() && batchDownstream.canConsume())
+                        {
+                           int length = 0;
+                           do
+                           {
+                              batch[length++] = iterator.next();
+                           }
+                           while (length < batch.length && iterator.hasNext());
+
+                           batchDownstream.consume(batch, 0, length);
+                           Arrays.fill(batch, 0, length, null);
+                           return true;
+                        }
+                     }
+                     else if (i < end && batchDownstream.canConsume())
+                     {
+                        int length = Math.min(end - i, batch.length);
+                        for (int j = 0; j < length; j++)
+                           batch[j] = list.get(i++);
+
+                        batchDownstream.consume(batch, 0, length);
+                        Arrays.fill(batch, 0, length, null);
+                        return true;
+                     }
+
+                     return batchDownstream.produce();
+                  }
+               };
+            }
+
+            return new SplittableProducer()
+            {
+               Iterator<T> iterator;
+               int i, end = -1;
+
+               @Override
+               public long size()
+               {
+                  return list.size();
+               }
+
+               @Override
+               public void restrict(long from, long to)
+               {
+                  i = (int) from;
+                  end = (int) to;
+               }
+
+               @Override
+               public boolean produce()
+               {
+                  if (end < 0)
+                  {
+                     if (iterator == null)
+                        iterator = list.iterator();
+
+                     if (iterator.hasNext() && downstream.canConsume())
+                     {
+                        downstream.consume(iterator.next());
+                        return true;
+                     }
+                  }
+                  else if (i < end && downstream.canConsume())
+                  {
+                     downstream.consume(list.get(i++));
+                     return true;
+                  }
+
+                  return downstream.produce();
+               }
+            };
+         }
+      };
+   }
+
    @SafeVarargs
    public static <T> Producable<T> from(final T... array)
    {
@@ -99,13 +267,65 @@ public abstract class Producable<T> implements Iterable<T>
       return new Producable<T>()
       {
          @Override
+         @SuppressWarnings("unchecked")
          public Producer producer(final Transformer<? super T> downstream)
          {
-            return new Producer()
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super T> batchDownstream = (BatchTransformer<? super T>) downstream;
+
+               return new SplittableProducer()
+               {
+                  int end = offset + length;
+                  int i = offset;
+
+                  @Override
+                  public long size()
+                  {
+                     return length;
+                  }
+
+                  @Override
+                  public void restrict(long from, long to)
+                  {
+                     i = offset + (int) from;
+                     end = offset + (int) to;
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (i < end && batchDownstream.canConsume())
+                     {
+                        int length = Math.min(end - i, DEFAULT_BATCH_SIZE);
+                        batchDownstream.consume(array, i, length);
+                        i += length;
+                        return true;
+                     }
+
+                     return batchDownstream.produce();
+                  }
+               };
+            }
+
+            return new SplittableProducer()
             {
-               final int end = offset + length;
+               int end = offset + length;
                int i = offset;
 
+               @Override
+               public long size()
+               {
+                  return length;
+               }
+
+               @Override
+               public void restrict(long from, long to)
+               {
+                  i = offset + (int) from;
+                  end = offset + (int) to;
+               }
+
                @Override
                public boolean produce()
                {
@@ -150,114 +370,398 @@ public abstract class Producable<T> implements Iterable<T>
       };
    }
 
-   //
-   // chain building
+   /**
+    * Same as {@link #lines(Path, Charset)} with UTF-8 charset.
+    */
+   public static Producable<CharSequence> lines(final Path path)
+   {
+      return lines(path, Charset.forName("UTF-8"));
+   }
 
-   @Override
-   public Producable<T> filter(final Predicate<? super T> predicate)
+   /**
+    * Creates a producable of lines of a file. The file is memory-mapped (in windows) and each line is decoded into
+    * the same reusable buffer, which is pushed downstream as the same {@link Flyweight} {@link CharSequence}, so the
+    * produced line is only valid until the next line is produced. Stages that keep elements copy it into a
+    * {@link String} automatically; a mapper that wants to keep it must copy it itself (for example with
+    * {@code map(cs -> cs.toString())}). Lines are terminated by {@code '\n'} (a preceding {@code '\r'} is removed
+    * too). The file is opened when the producer is obtained and closed when all lines have been produced or
+    * downstream stops accepting them.
+    *
+    * @param path    the file to read
+    * @param charset the charset of the file, which must encode {@code '\n'} and {@code '\r'} as their single ASCII
+    *                bytes (like UTF-8 and the ISO-8859 charsets, unlike UTF-16)
+    * @return a producable of (reused) lines
+    * @throws IllegalArgumentException if the charset doesn't encode line terminators as single ASCII bytes
+    * @throws PipeIOException          when reading the file fails
+    */
+   public static Producable<CharSequence> lines(final Path path, final Charset charset)
    {
-      return new Producable<T>()
+      // lines are split on the raw bytes of the file
+      if (!Arrays.equals("\n".getBytes(charset), new byte[]{'\n'}) ||
+          !Arrays.equals("\r".getBytes(charset), new byte[]{'\r'}))
+         throw new IllegalArgumentException("Line terminators are not single ASCII bytes in charset: " + charset);
+
+      return new Producable<CharSequence>()
       {
          @Override
-         public Producer producer(final Transformer<? super T> downstream)
+         public Producer producer(final Transformer<? super CharSequence> downstream)
          {
-            return Producable.this.producer(
-               new Transformer<T>()
+            return new MappedProducer<CharSequence>(new MappedRecords(path, -1, (byte) '\n', MappedRecords.WINDOW_SIZE),
+                                                    downstream)
+            {
+               final CharsetDecoder decoder = charset.newDecoder()
+                  .onMalformedInput(CodingErrorAction.REPLACE)
+                  .onUnmappableCharacter(CodingErrorAction.REPLACE);
+               CharBuffer chars = CharBuffer.allocate(DEFAULT_BUFFER_CAPACITY);
+               final Line line = new Line();
+
+               @Override
+               CharSequence element(ByteBuffer record)
                {
-                  @Override
-                  public boolean canConsume()
-                  {
-                     return downstream.canConsume();
-                  }
+                  int end = record.limit();
+                  if (end > record.position() && record.get(end - 1) == '\r')
+                     record.limit(end - 1);
+
+                  int maxChars = (int) Math.ceil(record.remaining() * (double) decoder.maxCharsPerByte());
+                  if (chars.capacity() < maxChars)
+                     chars = CharBuffer.allocate(maxChars);
+
+                  chars.clear();
+                  decoder.reset();
+                  decoder.decode(record, chars, true);
+                  decoder.flush(chars);
+                  chars.flip();
+                  line.chars = chars;
+                  return line;
+               }
+            };
+         }
+      };
+   }
 
-                  @Override
-                  public void consume(T t) throws IllegalStateException
-                  {
-                     if (predicate.test(t))
-                        downstream.consume(t);
-                  }
+   /**
+    * Creates a producable of fixed-length records of a file. The file is memory-mapped (in windows) and each record
+    * is exposed through the same reusable {@link ByteRecord.Bytes} view (see {@link Flyweight}), so the produced
+    * view is only valid until the next record is produced - stages that keep elements copy the record's bytes
+    * automatically. A trailing incomplete record is produced shorter. The file is opened when the producer is
+    * obtained and closed when all records have been produced or downstream stops accepting them.
+    *
+    * @param path         the file to read
+    * @param recordLength the length of each record in bytes
+    * @return a producable of (reused) record views
+    * @throws PipeIOException when reading the file fails
+    */
+   public static Producable<ByteRecord.Bytes> records(final Path path, final int recordLength)
+   {
+      if (recordLength < 1)
+         throw new IllegalArgumentException("recordLength: " + recordLength);
 
-                  @Override
-                  public boolean produce()
-                  {
-                     return downstream.produce();
-                  }
+      return records(path, recordLength, (byte) 0);
+   }
+
+   /**
+    * Creates a producable of {@code delimiter}-terminated records of a file. Same as {@link #records(Path, int)}
+    * but the records are variable-length and don't include the {@code delimiter}.
+    *
+    * @param path      the file to read
+    * @param delimiter the byte terminating each record
+    * @return a producable of (reused) record views
+    * @throws PipeIOException when reading the file fails
+    */
+   public static Producable<ByteRecord.Bytes> records(final Path path, final byte delimiter)
+   {
+      return records(path, -1, delimiter);
+   }
+
+   private static Producable<ByteRecord.Bytes> records(final Path path, final int recordLength, final byte delimiter)
+   {
+      return new Producable<ByteRecord.Bytes>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super ByteRecord.Bytes> downstream)
+         {
+            return new MappedProducer<ByteRecord.Bytes>(
+               new MappedRecords(path, recordLength, delimiter, MappedRecords.WINDOW_SIZE), downstream)
+            {
+               final ByteRecord.Bytes view = new ByteRecord.Bytes();
+
+               @Override
+               ByteRecord.Bytes element(ByteBuffer record)
+               {
+                  view.moveTo(record, record.position(), record.remaining());
+                  return view;
                }
-            );
+            };
          }
       };
    }
 
-   @Override
-   public <U> Producable<U> map(final Mapper<? super T, ? extends U> mapper)
+   /**
+    * Creates a producable of fixed-length binary records in a buffer (from it's position to it's limit). The
+    * given {@code view} is {@link ByteRecord#moveTo moved} to each record in turn and pushed downstream as the same
+    * instance (see {@link Flyweight}), so chains that don't retain elements run without allocating. A trailing
+    * incomplete record is produced shorter.
+    *
+    * @param buffer       the buffer containing the records
+    * @param recordLength the length of each record in bytes
+    * @param view         the view to move along the records
+    * @return a producable of the (reused) {@code view}
+    */
+   public static <R extends ByteRecord<R>> Producable<R> records(final ByteBuffer buffer, final int recordLength,
+                                                                 final R view)
    {
-      return new Producable<U>()
+      if (recordLength < 1)
+         throw new IllegalArgumentException("recordLength: " + recordLength);
+
+      return new Producable<R>()
       {
          @Override
-         public Producer producer(final Transformer<? super U> downstream)
+         public Producer producer(final Transformer<? super R> downstream)
          {
-            return Producable.this.producer(
-               new Transformer<T>()
-               {
-                  @Override
-                  public boolean canConsume()
-                  {
-                     return downstream.canConsume();
-                  }
+            return new Producer()
+            {
+               int offset = buffer.position();
+               final int end = buffer.limit();
 
-                  @Override
-                  public void consume(T t)
+               @Override
+               public boolean produce()
+               {
+                  if (offset < end && downstream.canConsume())
                   {
-                     downstream.consume(mapper.map(t));
+                     int length = Math.min(recordLength, end - offset);
+                     view.moveTo(buffer, offset, length);
+                     offset += length;
+                     downstream.consume(view);
+                     return true;
                   }
 
-                  @Override
-                  public boolean produce()
-                  {
-                     return downstream.produce();
-                  }
+                  return downstream.produce();
                }
-            );
+            };
          }
       };
    }
 
-   @Override
-   public <U> Producable<U> flatMap(final Mapper<? super T, ? extends Iterable<U>> mapper)
+   /**
+    * Same as {@link #records(ByteBuffer, int, ByteRecord)}, but the records are read from a memory-mapped file
+    * (see {@link #records(Path, int)}).
+    *
+    * @param path         the file to read
+    * @param recordLength the length of each record in bytes
+    * @param view         the view to move along the records
+    * @return a producable of the (reused) {@code view}
+    * @throws PipeIOException when reading the file fails
+    */
+   public static <R extends ByteRecord<R>> Producable<R> records(final Path path, final int recordLength,
+                                                                 final R view)
    {
-      return new Producable<U>()
+      if (recordLength < 1)
+         throw new IllegalArgumentException("recordLength: " + recordLength);
+
+      return new Producable<R>()
       {
          @Override
-         public Producer producer(final Transformer<? super U> downstream)
+         public Producer producer(final Transformer<? super R> downstream)
          {
-            return Producable.this.producer(
-               new Transformer<T>()
+            return new MappedProducer<R>(new MappedRecords(path, recordLength, (byte) 0, MappedRecords.WINDOW_SIZE),
+                                         downstream)
+            {
+               @Override
+               R element(ByteBuffer record)
                {
-                  Iterator<U> iterator;
+                  view.moveTo(record, record.position(), record.remaining());
+                  return view;
+               }
+            };
+         }
+      };
+   }
 
-                  @Override
-                  public boolean canConsume()
-                  {
-                     return iterator == null;
-                  }
+   /**
+    * The {@link Flyweight} line pushed by {@link #lines(Path, Charset)}: a view of the line decoded into a reusable
+    * buffer, copied into a {@link String}. It hashes like a {@link String} and equals any {@link CharSequence} with
+    * the same characters, so it can be looked up among retained copies (by {@link #uniqueElements()},
+    * {@link #distinct()}, {@link #groupBy}, ...) before being copied.
+    */
+   private static final class Line implements CharSequence, Flyweight<CharSequence>
+   {
+      CharBuffer chars;
 
-                  @Override
-                  public void consume(T t) throws IllegalStateException
-                  {
-                     if (!canConsume())
-                        throw new IllegalStateException("Can't consume while producing");
+      @Override
+      public int length()
+      {
+         return chars.length();
+      }
 
-                     Iterator<U> iterator = mapper.map(t).iterator();
-                     this.iterator = iterator.hasNext() ? iterator : null;
-                  }
+      @Override
+      public char charAt(int index)
+      {
+         return chars.charAt(index);
+      }
 
-                  @Override
-                  public boolean produce()
-                  {
-                     if (iterator != null && downstream.canConsume())
-                     {
-                        try
-                        {
+      @Override
+      public CharSequence subSequence(int start, int end)
+      {
+         return chars.subSequence(start, end).toString();
+      }
+
+      @Override
+      public int hashCode()
+      {
+         int h = 0;
+         for (int i = 0, n = chars.length(); i < n; i++)
+            h = 31 * h + chars.charAt(i);
+
+         return h;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+            return true;
+         if (!(obj instanceof CharSequence))
+            return false;
+
+         CharSequence other = (CharSequence) obj;
+         int n = chars.length();
+         if (n != other.length())
+            return false;
+
+         for (int i = 0; i < n; i++)
+         {
+            if (chars.charAt(i) != other.charAt(i))
+               return false;
+         }
+
+         return true;
+      }
+
+      @Override
+      public String toString()
+      {
+         return chars.toString();
+      }
+
+      @Override
+      public CharSequence copy()
+      {
+         return chars.toString();
+      }
+   }
+
+   /**
+    * A head producer over {@link MappedRecords} that closes them as soon as they are exhausted or downstream is
+    * done.
+    */
+   private static abstract class MappedProducer<E> implements Producer
+   {
+      private MappedRecords records;
+      private final Transformer<? super E> downstream;
+
+      MappedProducer(MappedRecords records, Transformer<? super E> downstream)
+      {
+         this.records = records;
+         this.downstream = downstream;
+      }
+
+      abstract E element(ByteBuffer record);
+
+      @Override
+      public final boolean produce()
+      {
+         if (records != null && downstream.canConsume())
+         {
+            ByteBuffer record = records.next();
+            if (record != null)
+            {
+               downstream.consume(element(record));
+               return true;
+            }
+
+            dispose();
+         }
+
+         if (downstream.produce())
+            return true;
+
+         if (records != null) // downstream won't accept any more output
+            dispose();
+
+         return false;
+      }
+
+      private void dispose()
+      {
+         records.close();
+         records = null;
+      }
+   }
+
+   //
+   // chain building
+
+   @Override
+   public Producable<T> filter(final Predicate<? super T> predicate)
+   {
+      // adjacent filter/map stages are fused into a single transformer
+      return FusedProducable.filter(this, predicate);
+   }
+
+   @Override
+   public <U> Producable<U> map(final Mapper<? super T, ? extends U> mapper)
+   {
+      return FusedProducable.map(this, mapper);
+   }
+
+   @Override
+   public <U> Producable<U> flatMap(final Mapper<? super T, ? extends Iterable<U>> mapper)
+   {
+      return new Producable<U>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super U> downstream)
+         {
+            return Producable.this.producer(
+               new Transformer<T>()
+               {
+                  Iterator<U> iterator;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.registerInner(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              iterator = null;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return iterator == null && downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     Iterator<U> iterator = mapper.map(t).iterator();
+                     this.iterator = iterator.hasNext() ? iterator : null;
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (iterator != null && downstream.canConsume())
+                     {
+                        try
+                        {
                            downstream.consume(iterator.next());
                            return true;
                         }
@@ -278,75 +782,1721 @@ public abstract class Producable<T> implements Iterable<T>
    @Override
    public Producable<T> sorted(final Comparator<? super T> comparator)
    {
-      return new Producable<T>()
+      return new Producable<T>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new BatchTransformer<T>()
+               {
+                  @SuppressWarnings("unchecked")
+                  T[] array = (T[]) new Object[DEFAULT_BUFFER_CAPACITY];
+                  int size;
+                  boolean sorted;
+                  final BatchTransformer<? super T> batchDownstream =
+                     downstream instanceof BatchTransformer<?> ? (BatchTransformer<? super T>) downstream : null;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              Arrays.fill(array, 0, size, null);
+                              size = 0;
+                              i = 0;
+                              sorted = false;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !sorted;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     if (size >= array.length)
+                        array = Arrays.copyOf(array, array.length << 1);
+
+                     array[size++] = Flyweights.retain(t);
+                  }
+
+                  @Override
+                  public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     if (size + length > array.length)
+                        array = Arrays.copyOf(array, Math.max(array.length << 1, size + length));
+
+                     for (int end = offset + length; offset < end; offset++)
+                        array[size++] = Flyweights.retain(batch[offset]);
+                  }
+
+                  int i;
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!sorted)
+                     {
+                        Arrays.sort(array, 0, size, comparator);
+                        sorted = true;
+                     }
+
+                     if (i < size && downstream.canConsume())
+                     {
+                        if (batchDownstream != null)
+                        {
+                           int length = Math.min(size - i, DEFAULT_BATCH_SIZE);
+                           batchDownstream.consume(array, i, length);
+                           i += length;
+                        }
+                        else
+                        {
+                           downstream.consume(array[i++]);
+                        }
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+
+         @Override
+         public Producable<T> limit(long n)
+         {
+            // only the first n elements of the sorted output are needed
+            return n <= Integer.MAX_VALUE ? Producable.this.topK((int) n, comparator) : super.limit(n);
+         }
+      };
+   }
+
+   /**
+    * Same as {@link #sorted(Comparator)}, but keeps at most {@code maxElementsInMemory} elements on heap. When the
+    * input exceeds that budget, it is sorted in runs that are spilled to temporary files using the given
+    * {@code serializer}, and the output is produced by merging the runs. The temporary files are deleted when
+    * all output has been produced or downstream stops accepting it.
+    *
+    * @param comparator          the comparator defining the order
+    * @param serializer          the serializer used to spill elements to temporary files
+    * @param maxElementsInMemory the maximum number of elements to keep on heap
+    * @return a producable of sorted elements
+    * @throws PipeIOException when spilling to or reading from temporary files fails
+    */
+   public Producable<T> sorted(final Comparator<? super T> comparator, final Serializer<T> serializer,
+                               final int maxElementsInMemory)
+   {
+      if (maxElementsInMemory < 1)
+         throw new IllegalArgumentException("maxElementsInMemory: " + maxElementsInMemory);
+
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.of(Producable.this.producer(
+               new BatchTransformer<T>()
+               {
+                  ExternalSorter<T> sorter = new ExternalSorter<>(comparator, serializer, maxElementsInMemory);
+                  boolean sorted;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !sorted;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     sorter.add(t);
+                  }
+
+                  @Override
+                  public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     for (int end = offset + length; offset < end; offset++)
+                        sorter.add(batch[offset]);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!sorted)
+                     {
+                        sorter.sort();
+                        sorted = true;
+                     }
+
+                     if (sorter != null && sorter.hasNext() && downstream.canConsume())
+                     {
+                        downstream.consume(sorter.next());
+                        return true;
+                     }
+
+                     if (sorter != null && !sorter.hasNext())
+                        dispose();
+
+                     if (downstream.produce())
+                        return true;
+
+                     if (sorter != null) // downstream won't accept any more output
+                        dispose();
+
+                     return false;
+                  }
+
+                  void dispose()
+                  {
+                     sorter.close(); // deletes spill files
+                     sorter = null;
+                  }
+               }
+            ));
+         }
+
+         @Override
+         public Producable<T> limit(long n)
+         {
+            // the first n elements of the sorted output fit into the budget
+            return n <= maxElementsInMemory ? Producable.this.topK((int) n, comparator) : super.limit(n);
+         }
+      };
+   }
+
+   /**
+    * Same as {@link #sorted(Comparator)} with a comparator comparing the {@code int} keys computed by the
+    * {@code keyMapper}, but the keys are computed once per element and sorted with a primitive sort on
+    * (key, index) pairs packed into {@code long}s, which are kept off-heap for large inputs (see
+    * {@link OffHeapLongArray}). Elements with equal keys keep their encounter order.
+    *
+    * @param keyMapper the function computing the sort key of an element
+    * @return a producable of elements sorted by their keys
+    */
+   public Producable<T> sortedByInt(final IntMapper<? super T> keyMapper)
+   {
+      return new Producable<T>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new BatchTransformer<T>()
+               {
+                  T[] array = (T[]) new Object[DEFAULT_BUFFER_CAPACITY];
+                  final OffHeapLongArray keys = new OffHeapLongArray();
+                  T[] chunk;
+                  boolean sorted;
+                  final BatchTransformer<? super T> batchDownstream =
+                     downstream instanceof BatchTransformer<?> ? (BatchTransformer<? super T>) downstream : null;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              Arrays.fill(array, 0, keys.size(), null);
+                              keys.clear();
+                              i = 0;
+                              sorted = false;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !sorted;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     int index = keys.size();
+                     if (index >= array.length)
+                        array = Arrays.copyOf(array, array.length << 1);
+
+                     array[index] = Flyweights.retain(t);
+                     keys.add((long) keyMapper.map(t) << 32 | index);
+                  }
+
+                  @Override
+                  public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                  {
+                     for (int end = offset + length; offset < end; offset++)
+                        consume(batch[offset]);
+                  }
+
+                  int i;
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!sorted)
+                     {
+                        keys.sort();
+                        sorted = true;
+                     }
+
+                     int size = keys.size();
+                     if (i < size && downstream.canConsume())
+                     {
+                        if (batchDownstream != null)
+                        {
+                           if (chunk == null)
+                              chunk = (T[]) new Object[DEFAULT_BATCH_SIZE];
+
+                           int length = Math.min(size - i, chunk.length);
+                           for (int j = 0; j < length; j++)
+                              chunk[j] = array[(int) keys.get(i++)];
+
+                           batchDownstream.consume(chunk, 0, length);
+                           Arrays.fill(chunk, 0, length, null);
+                        }
+                        else
+                        {
+                           downstream.consume(array[(int) keys.get(i++)]);
+                        }
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Returns a producable that produces the {@code n} smallest elements of this producable according to the
+    * given {@code comparator}, in sorted order. This is equivalent to {@code sorted(comparator)} followed by
+    * taking the first {@code n} elements, but retains at most {@code n} elements at any time (a bounded heap)
+    * instead of buffering the whole input. Equal elements keep their encounter order.
+    *
+    * @param n          the maximum number of elements to produce
+    * @param comparator the comparator defining the order
+    * @return a producable of at most {@code n} smallest elements in sorted order
+    */
+   public Producable<T> topK(final int n, final Comparator<? super T> comparator)
+   {
+      if (n < 0)
+         throw new IllegalArgumentException("n: " + n);
+
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new BatchTransformer<T>()
+               {
+                  final TopK<T, Object> heap = new TopK<>(n, comparator, false);
+                  boolean sorted;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              heap.clear();
+                              i = 0;
+                              sorted = false;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !sorted;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     heap.offer(t, null);
+                  }
+
+                  @Override
+                  public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+
+                     for (int end = offset + length; offset < end; offset++)
+                        heap.offer(batch[offset], null);
+                  }
+
+                  int i;
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!sorted)
+                     {
+                        heap.sort();
+                        sorted = true;
+                     }
+
+                     if (i < heap.size() && downstream.canConsume())
+                     {
+                        downstream.consume(heap.key(i++));
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   @Override
+   public Producable<T> uniqueElements()
+   {
+      return uniqueElements(0);
+   }
+
+   /**
+    * Same as {@link #uniqueElements()}, but pre-sizes the hash table for the given number of distinct elements,
+    * avoiding rehashing when that number is known in advance.
+    *
+    * @param expectedSize the expected number of distinct elements
+    * @return a producable of unique elements
+    */
+   public Producable<T> uniqueElements(final int expectedSize)
+   {
+      if (expectedSize < 0)
+         throw new IllegalArgumentException("expectedSize: " + expectedSize);
+
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  final ObjHashTable<T> set = new ObjHashTable<>(expectedSize);
+                  boolean producing;
+                  int index;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              set.clear();
+                              index = 0;
+                              producing = false;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !producing;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     int i = set.find(t);
+                     if (i < 0)
+                        set.insert(i, Flyweights.retain(t));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     producing = true;
+
+                     if (index < set.size() && downstream.canConsume())
+                     {
+                        downstream.consume(set.key(index++));
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Same as {@link #uniqueElements()}, but keeps at most {@code maxElementsInMemory} distinct elements on heap.
+    * When that budget is exceeded, elements are hash-partitioned into temporary files using the given
+    * {@code serializer} and then de-duplicated and produced one partition at a time. The temporary files are
+    * deleted when all output has been produced or downstream stops accepting it.
+    *
+    * @param serializer          the serializer used to spill elements to temporary files
+    * @param maxElementsInMemory the maximum number of distinct elements to keep on heap
+    * @return a producable of unique elements
+    * @throws PipeIOException when spilling to or reading from temporary files fails
+    */
+   public Producable<T> uniqueElements(final Serializer<T> serializer, final int maxElementsInMemory)
+   {
+      if (maxElementsInMemory < 1)
+         throw new IllegalArgumentException("maxElementsInMemory: " + maxElementsInMemory);
+
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.of(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  SpillingSet<T> set = new SpillingSet<>(serializer, maxElementsInMemory);
+                  boolean producing;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !producing;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     set.add(t);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     producing = true;
+
+                     if (set != null && set.hasNext() && downstream.canConsume())
+                     {
+                        downstream.consume(set.next());
+                        return true;
+                     }
+
+                     if (set != null && !set.hasNext())
+                        dispose();
+
+                     if (downstream.produce())
+                        return true;
+
+                     if (set != null) // downstream won't accept any more output
+                        dispose();
+
+                     return false;
+                  }
+
+                  void dispose()
+                  {
+                     set.close(); // deletes spill files
+                     set = null;
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Unlike {@link #uniqueElements()}, which produces nothing until this producable is exhausted, this stage
+    * passes each distinct element downstream as soon as it is first encountered, so the elements keep their
+    * encounter order and short-circuiting consumers (such as {@link #getFirst}) stop reading early.
+    *
+    * @return a producable that passes each distinct element downstream the first time it is encountered
+    */
+   public Producable<T> distinct()
+   {
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  final ObjHashTable<T> seen = new ObjHashTable<>();
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              seen.clear();
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     int i = seen.find(t);
+                     if (i < 0)
+                     {
+                        seen.insert(i, Flyweights.retain(t));
+                        downstream.consume(t);
+                     }
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Same as {@link #distinct()}, but remembers the elements seen so far in a Bloom filter of fixed size instead
+    * of a hash table, so it never produces an element twice, but may drop a distinct element as already seen with
+    * about the given probability once {@code expectedElements} distinct elements have passed (and with growing
+    * probability beyond that). Elements are told apart by their {@link Object#hashCode} only.
+    *
+    * @param expectedElements  the expected number of distinct elements
+    * @param falsePositiveRate the probability of dropping a distinct element, in range (0, 1)
+    * @return a producable that passes the (probably) distinct elements downstream the first time they are seen
+    */
+   public Producable<T> approxDistinct(final long expectedElements, final double falsePositiveRate)
+   {
+      final int words = BloomFilter.words(expectedElements, falsePositiveRate);
+
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  final BloomFilter seen = new BloomFilter(expectedElements, words);
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              seen.clear();
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (seen.add(t))
+                        downstream.consume(t);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   @Override
+   public Producable<T> cumulate(final BinaryOperator<T> op)
+   {
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  T last;
+                  boolean first = true;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              last = null;
+                              first = true;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (first)
+                     {
+                        last = Flyweights.retain(t);
+                        first = false;
+                     }
+                     else
+                     {
+                        last = op.eval(last, t);
+                        if (last == t)
+                           last = Flyweights.retain(t);
+                     }
+
+                     downstream.consume(last);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Returns a producable that produces at most the first {@code n} elements of this producable. As soon as
+    * {@code n} elements have passed, this stage stops accepting input, which makes the head of the chain stop
+    * pulling from it's source (and any {@link #flatMap} stage in between stop expanding it's input). Heads that
+    * feed a batch-capable chain in chunks of {@link #DEFAULT_BATCH_SIZE} may still read up to one chunk beyond
+    * the limit.
+    *
+    * @param n the maximum number of elements to produce
+    * @return a producable of at most {@code n} first elements
+    */
+   public Producable<T> limit(final long n)
+   {
+      if (n < 0)
+         throw new IllegalArgumentException("n: " + n);
+
+      return new Producable<T>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super T> batchDownstream = (BatchTransformer<? super T>) downstream;
+
+               return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+                  new BatchTransformer<T>()
+                  {
+                     long count;
+
+                     {
+                        if (Prepared.preparing())
+                           Prepared.register(new Resettable()
+                           {
+                              @Override
+                              public void reset()
+                              {
+                                 count = 0L;
+                              }
+                           });
+                     }
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return count < n && batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(T t) throws IllegalStateException
+                     {
+                        if (count < n)
+                        {
+                           count++;
+                           batchDownstream.consume(t);
+                        }
+                     }
+
+                     @Override
+                     public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        int passed = (int) Math.min(length, n - count);
+                        if (passed > 0)
+                        {
+                           count += passed;
+                           batchDownstream.consume(batch, offset, passed);
+                        }
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               ));
+            }
+
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  long count;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              count = 0L;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return count < n && downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (count < n)
+                     {
+                        count++;
+                        downstream.consume(t);
+                     }
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Returns a producable that produces the elements of this producable except the first {@code n} ones.
+    *
+    * @param n the number of elements to skip
+    * @return a producable of the elements after the first {@code n} ones
+    */
+   public Producable<T> skip(final long n)
+   {
+      if (n < 0)
+         throw new IllegalArgumentException("n: " + n);
+
+      return new Producable<T>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super T> batchDownstream = (BatchTransformer<? super T>) downstream;
+
+               return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+                  new BatchTransformer<T>()
+                  {
+                     long skipped;
+
+                     {
+                        if (Prepared.preparing())
+                           Prepared.register(new Resettable()
+                           {
+                              @Override
+                              public void reset()
+                              {
+                                 skipped = 0L;
+                              }
+                           });
+                     }
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(T t) throws IllegalStateException
+                     {
+                        if (skipped < n)
+                           skipped++;
+                        else
+                           batchDownstream.consume(t);
+                     }
+
+                     @Override
+                     public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        int skip = (int) Math.min(length, n - skipped);
+                        skipped += skip;
+                        if (skip < length)
+                           batchDownstream.consume(batch, offset + skip, length - skip);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               ));
+            }
+
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  long skipped;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              skipped = 0L;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (skipped < n)
+                        skipped++;
+                     else
+                        downstream.consume(t);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Returns a producable that produces the elements of this producable as long as they match the given
+    * {@code predicate}. The first element that doesn't match ends the output and, like {@link #limit}, makes the
+    * head of the chain stop pulling from it's source.
+    *
+    * @param predicate the predicate that elements must match to be produced
+    * @return a producable of the longest prefix of elements matching the {@code predicate}
+    */
+   public Producable<T> takeWhile(final Predicate<? super T> predicate)
+   {
+      return new Producable<T>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super T> batchDownstream = (BatchTransformer<? super T>) downstream;
+
+               return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+                  new BatchTransformer<T>()
+                  {
+                     boolean done;
+
+                     {
+                        if (Prepared.preparing())
+                           Prepared.register(new Resettable()
+                           {
+                              @Override
+                              public void reset()
+                              {
+                                 done = false;
+                              }
+                           });
+                     }
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return !done && batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(T t) throws IllegalStateException
+                     {
+                        if (!done && !(done = !predicate.test(t)))
+                           batchDownstream.consume(t);
+                     }
+
+                     @Override
+                     public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        int passed = 0;
+                        while (!done && passed < length)
+                        {
+                           if (predicate.test(batch[offset + passed]))
+                              passed++;
+                           else
+                              done = true;
+                        }
+
+                        if (passed > 0)
+                           batchDownstream.consume(batch, offset, passed);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               ));
+            }
+
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  boolean done;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              done = false;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !done && downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!done && !(done = !predicate.test(t)))
+                        downstream.consume(t);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Returns a producable that skips the elements of this producable as long as they match the given
+    * {@code predicate} and then produces the first element that doesn't match and all the elements after it.
+    *
+    * @param predicate the predicate that elements must match to be skipped
+    * @return a producable of the elements after the longest prefix of elements matching the {@code predicate}
+    */
+   public Producable<T> dropWhile(final Predicate<? super T> predicate)
+   {
+      return new Producable<T>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final Transformer<? super T> downstream)
+         {
+            if (downstream instanceof BatchTransformer<?>)
+            {
+               final BatchTransformer<? super T> batchDownstream = (BatchTransformer<? super T>) downstream;
+
+               return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+                  new BatchTransformer<T>()
+                  {
+                     boolean dropping = true;
+
+                     {
+                        if (Prepared.preparing())
+                           Prepared.register(new Resettable()
+                           {
+                              @Override
+                              public void reset()
+                              {
+                                 dropping = true;
+                              }
+                           });
+                     }
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(T t) throws IllegalStateException
+                     {
+                        if (!dropping || !(dropping = predicate.test(t)))
+                           batchDownstream.consume(t);
+                     }
+
+                     @Override
+                     public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        int dropped = 0;
+                        while (dropping && dropped < length)
+                        {
+                           if (predicate.test(batch[offset + dropped]))
+                              dropped++;
+                           else
+                              dropping = false;
+                        }
+
+                        if (dropped < length)
+                           batchDownstream.consume(batch, offset + dropped, length - dropped);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               ));
+            }
+
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  boolean dropping = true;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              dropping = true;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!dropping || !(dropping = predicate.test(t)))
+                        downstream.consume(t);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   @Override
+   public <U> MapProducable<T, U> mapped(final Mapper<? super T, ? extends U> mapper)
+   {
+      return new MapProducable<T, U>()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Producer producer(final MapTransformer<? super T, ? super U> downstream)
+         {
+            if (downstream instanceof BatchMapTransformer<?, ?>)
+            {
+               final BatchMapTransformer<? super T, ? super U> batchDownstream =
+                  (BatchMapTransformer<? super T, ? super U>) downstream;
+
+               return Producable.this.producer(
+                  new BatchTransformer<T>()
+                  {
+                     T[] keys;
+                     U[] values;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(T t) throws IllegalStateException
+                     {
+                        batchDownstream.consume(t, mapper.map(t));
+                     }
+
+                     @Override
+                     public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (keys == null || keys.length < length)
+                        {
+                           keys = (T[]) new Object[length];
+                           values = (U[]) new Object[length];
+                        }
+
+                        for (int i = 0; i < length; i++)
+                        {
+                           T t = batch[offset + i];
+                           keys[i] = t;
+                           values[i] = mapper.map(t);
+                        }
+
+                        batchDownstream.consume(keys, values, 0, length);
+                        Arrays.fill(keys, 0, length, null);
+                        Arrays.fill(values, 0, length, null);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
+            return Producable.this.producer(
+               new Transformer<T>()
+               {
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return downstream.canConsume();
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     downstream.consume(t, mapper.map(t));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     return downstream.produce();
+                  }
+               }
+            );
+         }
+      };
+   }
+
+   @Override
+   public <U> MapProducable<U, Iterable<T>> groupBy(final Mapper<? super T, ? extends U> mapper)
+   {
+      return groupBy(mapper, 0);
+   }
+
+   /**
+    * Same as {@link #groupBy(Mapper)}, but pre-sizes the hash table for the given number of distinct keys,
+    * avoiding rehashing when that number is known in advance.
+    *
+    * @param mapper       the function computing the key of an element
+    * @param expectedKeys the expected number of distinct keys
+    * @return a map producable of (key, group) pairs
+    */
+   public <U> MapProducable<U, Iterable<T>> groupBy(final Mapper<? super T, ? extends U> mapper, int expectedKeys)
+   {
+      return tableGroupBy(mapper, null, expectedKeys);
+   }
+
+   @Override
+   public <U> MapProducable<U, Iterable<T>> groupByMulti(final Mapper<? super T, ? extends Iterable<U>> mapper)
+   {
+      return groupByMulti(mapper, 0);
+   }
+
+   /**
+    * Same as {@link #groupByMulti(Mapper)}, but pre-sizes the hash table for the given number of distinct keys,
+    * avoiding rehashing when that number is known in advance.
+    *
+    * @param mapper       the function computing the keys of an element
+    * @param expectedKeys the expected number of distinct keys
+    * @return a map producable of (key, group) pairs
+    */
+   public <U> MapProducable<U, Iterable<T>> groupByMulti(final Mapper<? super T, ? extends Iterable<U>> mapper,
+                                                         int expectedKeys)
+   {
+      return tableGroupBy(null, mapper, expectedKeys);
+   }
+
+   private <U> MapProducable<U, Iterable<T>> tableGroupBy(
+      final Mapper<? super T, ? extends U> mapper,
+      final Mapper<? super T, ? extends Iterable<U>> multiMapper,
+      final int expectedKeys
+   )
+   {
+      if (expectedKeys < 0)
+         throw new IllegalArgumentException("expectedKeys: " + expectedKeys);
+
+      return new MapProducable<U, Iterable<T>>()
+      {
+         @Override
+         public Producer producer(final MapTransformer<? super U, ? super Iterable<T>> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  final GroupTable<U, T> groups = new GroupTable<>(expectedKeys);
+                  boolean producing;
+                  int index;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              groups.clear();
+                              index = 0;
+                              producing = false;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !producing;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     T retained = Flyweights.retain(t);
+                     if (mapper != null)
+                        groups.add(mapper.map(t), retained);
+                     else
+                        for (U key : multiMapper.map(t))
+                           groups.add(key, retained);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (!producing)
+                     {
+                        producing = true;
+                        groups.seal();
+                     }
+
+                     if (index < groups.size() && downstream.canConsume())
+                     {
+                        downstream.consume(groups.key(index), groups.group(index));
+                        index++;
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Same as {@link #groupBy(Mapper)}, but keeps at most {@code maxElementsInMemory} elements on heap. When that
+    * budget is exceeded, elements are hash-partitioned by key into temporary files using the given
+    * {@code serializer} and then grouped and produced one partition at a time. Keys are recomputed from the
+    * elements read back, so the {@code mapper} must be deterministic. The temporary files are deleted when all
+    * output has been produced or downstream stops accepting it.
+    *
+    * @param mapper              the function computing the key of an element
+    * @param serializer          the serializer used to spill elements to temporary files
+    * @param maxElementsInMemory the maximum number of elements to keep on heap
+    * @return a map producable of (key, group of elements) pairs
+    * @throws PipeIOException when spilling to or reading from temporary files fails
+    */
+   public <U> MapProducable<U, Iterable<T>> groupBy(final Mapper<? super T, ? extends U> mapper,
+                                                    final Serializer<T> serializer, final int maxElementsInMemory)
+   {
+      return spillingGroupBy(mapper, false, serializer, maxElementsInMemory);
+   }
+
+   /**
+    * Same as {@link #groupByMulti(Mapper)}, but keeps at most {@code maxElementsInMemory} group memberships on heap
+    * (an element counts once for each of it's keys). When that budget is exceeded, elements are hash-partitioned by
+    * key into temporary files using the given {@code serializer} and then grouped and produced one partition at a
+    * time. Keys are recomputed from the elements read back, so the {@code mapper} must be deterministic.
+    *
+    * @param mapper              the function computing the keys of an element
+    * @param serializer          the serializer used to spill elements to temporary files
+    * @param maxElementsInMemory the maximum number of group memberships to keep on heap
+    * @return a map producable of (key, group of elements) pairs
+    * @throws PipeIOException when spilling to or reading from temporary files fails
+    */
+   public <U> MapProducable<U, Iterable<T>> groupByMulti(final Mapper<? super T, ? extends Iterable<U>> mapper,
+                                                         final Serializer<T> serializer, final int maxElementsInMemory)
+   {
+      return spillingGroupBy(mapper, true, serializer, maxElementsInMemory);
+   }
+
+   private <U> MapProducable<U, Iterable<T>> spillingGroupBy(final Mapper<? super T, ?> mapper, final boolean multi,
+                                                             final Serializer<T> serializer,
+                                                             final int maxElementsInMemory)
+   {
+      if (maxElementsInMemory < 1)
+         throw new IllegalArgumentException("maxElementsInMemory: " + maxElementsInMemory);
+
+      return new MapProducable<U, Iterable<T>>()
+      {
+         @Override
+         public Producer producer(final MapTransformer<? super U, ? super Iterable<T>> downstream)
+         {
+            return SplittableProducer.Barrier.of(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  SpillingMultiMap<T, U> multiMap = new SpillingMultiMap<>(mapper, multi, serializer,
+                                                                           maxElementsInMemory);
+                  boolean producing;
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return !producing;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     multiMap.add(t);
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     producing = true;
+
+                     if (multiMap != null && multiMap.hasNext() && downstream.canConsume())
+                     {
+                        Map.Entry<U, Collection<T>> entry = multiMap.next();
+                        downstream.consume(entry.getKey(), entry.getValue());
+                        return true;
+                     }
+
+                     if (multiMap != null && !multiMap.hasNext())
+                        dispose();
+
+                     if (downstream.produce())
+                        return true;
+
+                     if (multiMap != null) // downstream won't accept any more output
+                        dispose();
+
+                     return false;
+                  }
+
+                  void dispose()
+                  {
+                     multiMap.close(); // deletes spill files
+                     multiMap = null;
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Groups elements by key and reduces the values of each group into a single accumulator, so that memory
+    * scales with the number of distinct keys instead of the number of elements.
+    *
+    * @param keyMapper   the function computing the key of an element
+    * @param valueMapper the function computing the value of an element that is reduced into the key's accumulator
+    * @param base        the initial value of each key's accumulator
+    * @param reducer     the function combining an accumulator with a value
+    * @return a map producable of (key, reduced value) pairs
+    */
+   public <U, V> MapProducable<U, V> groupByReducing(
+      final Mapper<? super T, ? extends U> keyMapper,
+      final Mapper<? super T, ? extends V> valueMapper,
+      final V base,
+      final BinaryOperator<V> reducer
+   )
+   {
+      return new MapProducable<U, V>()
+      {
+         @Override
+         public Producer producer(final MapTransformer<? super U, ? super V> downstream)
+         {
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
+               new Transformer<T>()
+               {
+                  Map<U, V> accumulators = new HashMap<>();
+                  Iterator<Map.Entry<U, V>> iterator;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              accumulators.clear();
+                              iterator = null;
+                           }
+                        });
+                  }
+
+                  @Override
+                  public boolean canConsume()
+                  {
+                     return iterator == null;
+                  }
+
+                  @Override
+                  public void consume(T t) throws IllegalStateException
+                  {
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
+
+                     U key = keyMapper.map(t);
+
+                     V accumulator = accumulators.get(key);
+                     if (accumulator == null && !accumulators.containsKey(key))
+                     {
+                        accumulator = base;
+                        key = Flyweights.retain(key);
+                     }
+
+                     accumulators.put(key, reducer.eval(accumulator, valueMapper.map(t)));
+                  }
+
+                  @Override
+                  public boolean produce()
+                  {
+                     if (iterator == null)
+                        iterator = accumulators.entrySet().iterator();
+
+                     if (iterator.hasNext() && downstream.canConsume())
+                     {
+                        Map.Entry<U, V> entry = iterator.next();
+                        downstream.consume(entry.getKey(), entry.getValue());
+                        return true;
+                     }
+
+                     return downstream.produce();
+                  }
+               }
+            ));
+         }
+      };
+   }
+
+   /**
+    * Same as {@link #groupByReducing(Mapper, Mapper, Object, BinaryOperator)} but with an unboxed {@code int}
+    * accumulator per key. Each reduced value is boxed only once, when it is pushed downstream.
+    */
+   public <U> MapProducable<U, Integer> groupByReducingInt(
+      final Mapper<? super T, ? extends U> keyMapper,
+      final IntMapper<? super T> valueMapper,
+      final int base,
+      final IntBinaryOperator reducer
+   )
+   {
+      return new MapProducable<U, Integer>()
       {
          @Override
-         public Producer producer(final Transformer<? super T> downstream)
+         public Producer producer(final MapTransformer<? super U, ? super Integer> downstream)
          {
-            return Producable.this.producer(
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
                new Transformer<T>()
                {
-                  @SuppressWarnings("unchecked")
-                  T[] array = (T[]) new Object[DEFAULT_BUFFER_CAPACITY];
-                  int size;
-                  boolean sorted;
+                  Map<U, int[]> accumulators = new HashMap<>();
+                  Iterator<Map.Entry<U, int[]>> iterator;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              accumulators.clear();
+                              iterator = null;
+                           }
+                        });
+                  }
 
                   @Override
                   public boolean canConsume()
                   {
-                     return !sorted;
+                     return iterator == null;
                   }
 
                   @Override
                   public void consume(T t) throws IllegalStateException
                   {
                      if (!canConsume())
-                        throw new IllegalStateException("Can not consume after already sorting and producing output");
+                        throw new IllegalStateException("Can't consume while producing");
 
-                     if (size >= array.length)
-                        array = Arrays.copyOf(array, array.length << 1);
+                     U key = keyMapper.map(t);
 
-                     array[size++] = t;
-                  }
+                     int[] accumulator = accumulators.get(key);
+                     if (accumulator == null)
+                        accumulators.put(Flyweights.retain(key), accumulator = new int[]{base});
 
-                  int i;
+                     accumulator[0] = reducer.eval(accumulator[0], valueMapper.map(t));
+                  }
 
                   @Override
                   public boolean produce()
                   {
-                     if (!sorted)
-                     {
-                        Arrays.sort(array, 0, size, comparator);
-                        sorted = true;
-                     }
+                     if (iterator == null)
+                        iterator = accumulators.entrySet().iterator();
 
-                     if (i < size && downstream.canConsume())
+                     if (iterator.hasNext() && downstream.canConsume())
                      {
-                        downstream.consume(array[i++]);
+                        Map.Entry<U, int[]> entry = iterator.next();
+                        downstream.consume(entry.getKey(), entry.getValue()[0]);
                         return true;
                      }
 
                      return downstream.produce();
                   }
                }
-            );
+            ));
          }
       };
    }
 
-   @Override
-   public Producable<T> uniqueElements()
+   /**
+    * Same as {@link #groupByReducing(Mapper, Mapper, Object, BinaryOperator)} but with an unboxed {@code long}
+    * accumulator per key. Each reduced value is boxed only once, when it is pushed downstream.
+    */
+   public <U> MapProducable<U, Long> groupByReducingLong(
+      final Mapper<? super T, ? extends U> keyMapper,
+      final LongMapper<? super T> valueMapper,
+      final long base,
+      final LongBinaryOperator reducer
+   )
    {
-      return new Producable<T>()
+      return new MapProducable<U, Long>()
       {
          @Override
-         public Producer producer(final Transformer<? super T> downstream)
+         public Producer producer(final MapTransformer<? super U, ? super Long> downstream)
          {
-            return Producable.this.producer(
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
                new Transformer<T>()
                {
-                  Set<T> set = new HashSet<>();
-                  Iterator<T> iterator;
+                  Map<U, long[]> accumulators = new HashMap<>();
+                  Iterator<Map.Entry<U, long[]>> iterator;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              accumulators.clear();
+                              iterator = null;
+                           }
+                        });
+                  }
 
                   @Override
                   public boolean canConsume()
@@ -360,83 +2510,123 @@ public abstract class Producable<T> implements Iterable<T>
                      if (!canConsume())
                         throw new IllegalStateException("Can't consume while producing");
 
-                     set.add(t);
+                     U key = keyMapper.map(t);
+
+                     long[] accumulator = accumulators.get(key);
+                     if (accumulator == null)
+                        accumulators.put(Flyweights.retain(key), accumulator = new long[]{base});
+
+                     accumulator[0] = reducer.eval(accumulator[0], valueMapper.map(t));
                   }
 
                   @Override
                   public boolean produce()
                   {
                      if (iterator == null)
-                        iterator = set.iterator();
+                        iterator = accumulators.entrySet().iterator();
 
                      if (iterator.hasNext() && downstream.canConsume())
                      {
-                        downstream.consume(iterator.next());
+                        Map.Entry<U, long[]> entry = iterator.next();
+                        downstream.consume(entry.getKey(), entry.getValue()[0]);
                         return true;
                      }
 
                      return downstream.produce();
                   }
                }
-            );
+            ));
          }
       };
    }
 
-   @Override
-   public Producable<T> cumulate(final BinaryOperator<T> op)
+   /**
+    * Same as {@link #groupByReducing(Mapper, Mapper, Object, BinaryOperator)} but with an unboxed {@code double}
+    * accumulator per key. Each reduced value is boxed only once, when it is pushed downstream.
+    */
+   public <U> MapProducable<U, Double> groupByReducingDouble(
+      final Mapper<? super T, ? extends U> keyMapper,
+      final DoubleMapper<? super T> valueMapper,
+      final double base,
+      final DoubleBinaryOperator reducer
+   )
    {
-      return new Producable<T>()
+      return new MapProducable<U, Double>()
       {
          @Override
-         public Producer producer(final Transformer<? super T> downstream)
+         public Producer producer(final MapTransformer<? super U, ? super Double> downstream)
          {
-            return Producable.this.producer(
+            return SplittableProducer.Barrier.ofResettable(Producable.this.producer(
                new Transformer<T>()
                {
-                  T last;
-                  boolean first = true;
+                  Map<U, double[]> accumulators = new HashMap<>();
+                  Iterator<Map.Entry<U, double[]>> iterator;
+
+                  {
+                     if (Prepared.preparing())
+                        Prepared.register(new Resettable()
+                        {
+                           @Override
+                           public void reset()
+                           {
+                              accumulators.clear();
+                              iterator = null;
+                           }
+                        });
+                  }
 
                   @Override
                   public boolean canConsume()
                   {
-                     return downstream.canConsume();
+                     return iterator == null;
                   }
 
                   @Override
                   public void consume(T t) throws IllegalStateException
                   {
-                     if (first)
-                     {
-                        last = t;
-                        first = false;
-                     }
-                     else
-                     {
-                        last = op.eval(last, t);
-                     }
+                     if (!canConsume())
+                        throw new IllegalStateException("Can't consume while producing");
 
-                     downstream.consume(last);
+                     U key = keyMapper.map(t);
+
+                     double[] accumulator = accumulators.get(key);
+                     if (accumulator == null)
+                        accumulators.put(Flyweights.retain(key), accumulator = new double[]{base});
+
+                     accumulator[0] = reducer.eval(accumulator[0], valueMapper.map(t));
                   }
 
                   @Override
                   public boolean produce()
                   {
+                     if (iterator == null)
+                        iterator = accumulators.entrySet().iterator();
+
+                     if (iterator.hasNext() && downstream.canConsume())
+                     {
+                        Map.Entry<U, double[]> entry = iterator.next();
+                        downstream.consume(entry.getKey(), entry.getValue()[0]);
+                        return true;
+                     }
+
                      return downstream.produce();
                   }
                }
-            );
+            ));
          }
       };
    }
 
-   @Override
-   public <U> MapProducable<T, U> mapped(final Mapper<? super T, ? extends U> mapper)
+   /**
+    * @param keyMapper the function computing the {@code int} key of an element
+    * @return a producable of (key, element) pairs with unboxed keys
+    */
+   public IntKeyMapProducable<T> keyedByInt(final IntMapper<? super T> keyMapper)
    {
-      return new MapProducable<T, U>()
+      return new IntKeyMapProducable<T>()
       {
          @Override
-         public Producer producer(final MapTransformer<? super T, ? super U> downstream)
+         public Producer producer(final IntMapTransformer<? super T> downstream)
          {
             return Producable.this.producer(
                new Transformer<T>()
@@ -450,7 +2640,7 @@ public abstract class Producable<T> implements Iterable<T>
                   @Override
                   public void consume(T t) throws IllegalStateException
                   {
-                     downstream.consume(t, mapper.map(t));
+                     downstream.consume(keyMapper.map(t), t);
                   }
 
                   @Override
@@ -464,54 +2654,46 @@ public abstract class Producable<T> implements Iterable<T>
       };
    }
 
-   @Override
-   public <U> MapProducable<U, Iterable<T>> groupBy(final Mapper<? super T, ? extends U> mapper)
+   /**
+    * Same as {@link #groupBy(Mapper)}, but for {@code int} keys, which are never boxed.
+    *
+    * @param keyMapper the function computing the {@code int} key of an element
+    * @return a producable of (key, group of elements) pairs with unboxed keys
+    */
+   public IntKeyMapProducable<Iterable<T>> groupByInt(IntMapper<? super T> keyMapper)
    {
-      return new MapProducable<U, Iterable<T>>()
+      return keyedByInt(keyMapper).groupBy();
+   }
+
+   /**
+    * @param keyMapper the function computing the {@code long} key of an element
+    * @return a producable of (key, element) pairs with unboxed keys
+    */
+   public LongKeyMapProducable<T> keyedByLong(final LongMapper<? super T> keyMapper)
+   {
+      return new LongKeyMapProducable<T>()
       {
          @Override
-         public Producer producer(final MapTransformer<? super U, ? super Iterable<T>> downstream)
+         public Producer producer(final LongMapTransformer<? super T> downstream)
          {
             return Producable.this.producer(
                new Transformer<T>()
                {
-                  Map<U, Collection<T>> multiMap = new HashMap<>();
-                  Iterator<Map.Entry<U, Collection<T>>> iterator;
-
                   @Override
                   public boolean canConsume()
                   {
-                     return iterator == null;
+                     return downstream.canConsume();
                   }
 
                   @Override
                   public void consume(T t) throws IllegalStateException
                   {
-                     if (!canConsume())
-                        throw new IllegalStateException("Can't consume while producing");
-
-                     U key = mapper.map(t);
-
-                     Collection<T> group = multiMap.get(key);
-                     if (group == null)
-                        multiMap.put(key, group = new ArrayList<>());
-
-                     group.add(t);
+                     downstream.consume(keyMapper.map(t), t);
                   }
 
                   @Override
                   public boolean produce()
                   {
-                     if (iterator == null)
-                        iterator = multiMap.entrySet().iterator();
-
-                     if (iterator.hasNext() && downstream.canConsume())
-                     {
-                        Map.Entry<U, Collection<T>> entry = iterator.next();
-                        downstream.consume(entry.getKey(), entry.getValue());
-                        return true;
-                     }
-
                      return downstream.produce();
                   }
                }
@@ -520,61 +2702,97 @@ public abstract class Producable<T> implements Iterable<T>
       };
    }
 
-   @Override
-   public <U> MapProducable<U, Iterable<T>> groupByMulti(final Mapper<? super T, ? extends Iterable<U>> mapper)
+   /**
+    * Same as {@link #groupBy(Mapper)}, but for {@code long} keys, which are never boxed.
+    *
+    * @param keyMapper the function computing the {@code long} key of an element
+    * @return a producable of (key, group of elements) pairs with unboxed keys
+    */
+   public LongKeyMapProducable<Iterable<T>> groupByLong(LongMapper<? super T> keyMapper)
    {
-      return new MapProducable<U, Iterable<T>>()
-      {
-         @Override
-         public Producer producer(final MapTransformer<? super U, ? super Iterable<T>> downstream)
-         {
-            return Producable.this.producer(
-               new Transformer<T>()
-               {
-                  Map<U, Collection<T>> multiMap = new HashMap<>();
-                  Iterator<Map.Entry<U, Collection<T>>> iterator;
+      return keyedByLong(keyMapper).groupBy();
+   }
 
-                  @Override
-                  public boolean canConsume()
-                  {
-                     return iterator == null;
-                  }
+   /**
+    * Same as {@link #async(int, Executor)}, but pumps the upstream segment in a new daemon thread per execution.
+    */
+   public Producable<T> async(int bufferSize)
+   {
+      return async(bufferSize, AsyncProducer.DAEMON_THREADS);
+   }
 
-                  @Override
-                  public void consume(T t) throws IllegalStateException
-                  {
-                     if (!canConsume())
-                        throw new IllegalStateException("Can't consume while producing");
+   /**
+    * Returns a producable that decouples this (upstream) segment of the chain from the downstream segment with a
+    * bounded buffer. When the chain is executed, the upstream segment is pumped by a task submitted to the given
+    * {@code executor}, while the downstream segment runs in the thread executing the chain, so a slow (I/O bound)
+    * head and slow (CPU bound) downstream stages overlap. The upstream task blocks while the buffer is full and
+    * stops when downstream stops accepting output; exceptions thrown upstream are rethrown in the executing
+    * thread.<p/>
+    * Elements are copied with {@link Flyweight#copy()} when they cross the buffer.
+    *
+    * @param bufferSize the maximum number of elements buffered between the segments
+    * @param executor   the executor running the upstream segment (it must not run tasks in the calling thread)
+    * @return a producable of the same elements, produced asynchronously
+    */
+   public Producable<T> async(final int bufferSize, final Executor executor)
+   {
+      if (bufferSize < 1)
+         throw new IllegalArgumentException("bufferSize: " + bufferSize);
 
-                     for (U key : mapper.map(t))
-                     {
-                        Collection<T> group = multiMap.get(key);
-                        if (group == null)
-                           multiMap.put(key, group = new ArrayList<>());
+      return new Producable<T>()
+      {
+         @Override
+         public Producer producer(Transformer<? super T> downstream)
+         {
+            return SplittableProducer.Barrier.of(new AsyncProducer<>(Producable.this, downstream, bufferSize, executor));
+         }
+      };
+   }
 
-                        group.add(t);
-                     }
-                  }
+   /**
+    * Prepares a chain for repeated execution over different sources. The chain is built once by applying the given
+    * function to a placeholder head, and it's transformers are reused (and {@link Prepared#reset reset}) between
+    * executions instead of being constructed by each terminal operation.
+    *
+    * @param chain the function building the chain on top of the given head
+    * @return a prepared chain
+    * @throws UnsupportedOperationException if the chain contains stateful stages that can't be reset
+    */
+   public static <S, T> Prepared<S, T> prepare(Mapper<? super Producable<S>, ? extends Producable<T>> chain)
+   {
+      return new Prepared<>(chain);
+   }
 
-                  @Override
-                  public boolean produce()
-                  {
-                     if (iterator == null)
-                        iterator = multiMap.entrySet().iterator();
+   /**
+    * Returns an equivalent producable that executes the trailing run of {@link #filter}/{@link #map} stages of this
+    * chain as compiled code specialized for the run's shape (see {@link FusedProducable#compile}), which pays off
+    * for queries that are executed repeatedly in a VM running many different chains. Other stages are not affected
+    * and chains not ending with such a run are returned as is.
+    *
+    * @return a compiled producable or this
+    */
+   public Producable<T> compile()
+   {
+      return this;
+   }
 
-                     if (iterator.hasNext() && downstream.canConsume())
-                     {
-                        Map.Entry<U, Collection<T>> entry = iterator.next();
-                        downstream.consume(entry.getKey(), entry.getValue());
-                        return true;
-                     }
+   /**
+    * @return a {@link ParallelProducable} over this chain that evaluates terminal operations in the default
+    *         {@link ForkJoinPool} when the chain's head is splittable
+    */
+   public ParallelProducable<T> parallel()
+   {
+      return new ParallelProducable<>(this, null);
+   }
 
-                     return downstream.produce();
-                  }
-               }
-            );
-         }
-      };
+   /**
+    * @param pool the pool to evaluate terminal operations in
+    * @return a {@link ParallelProducable} over this chain that evaluates terminal operations in the given
+    *         pool when the chain's head is splittable
+    */
+   public ParallelProducable<T> parallel(ForkJoinPool pool)
+   {
+      return new ParallelProducable<>(this, pool);
    }
 
    //
@@ -627,6 +2845,21 @@ public abstract class Producable<T> implements Iterable<T>
       return counter.getResultCount(producer(counter));
    }
 
+   /**
+    * Estimates the number of distinct elements using a HyperLogLog sketch of {@code 2^precision} bytes. The
+    * relative standard error of the estimate is about {@code 1.04 / sqrt(2^precision)}, e.g. 1.6% for precision
+    * 12. Elements are told apart by their {@link Object#hashCode} only.
+    *
+    * @param precision the number of index bits of the sketch, in range 4 .. 18
+    * @return the estimated number of distinct elements
+    */
+   public long approxCountDistinct(int precision)
+   {
+      HyperLogLog sketch = new HyperLogLog(precision);
+      produceAll(new Transformer.ConsumerTail<>(sketch));
+      return sketch.estimate();
+   }
+
    @Override
    public boolean anyMatch(Predicate<? super T> filter)
    {
@@ -711,6 +2944,48 @@ public abstract class Producable<T> implements Iterable<T>
          @Override
          public Producer producer(final IntTransformer downstream)
          {
+            if (downstream instanceof IntBatchTransformer)
+            {
+               final IntBatchTransformer batchDownstream = (IntBatchTransformer) downstream;
+
+               return Producable.this.producer(
+                  new BatchTransformer<T>()
+                  {
+                     int[] mapped;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(T t) throws IllegalStateException
+                     {
+                        batchDownstream.consume(mapper.map(t));
+                     }
+
+                     @Override
+                     public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (mapped == null || mapped.length < length)
+                           mapped = new int[length];
+
+                        for (int i = 0; i < length; i++)
+                           mapped[i] = mapper.map(batch[offset + i]);
+
+                        batchDownstream.consume(mapped, 0, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
             return Producable.this.producer(
                new Transformer<T>()
                {
@@ -744,6 +3019,48 @@ public abstract class Producable<T> implements Iterable<T>
          @Override
          public Producer producer(final LongTransformer downstream)
          {
+            if (downstream instanceof LongBatchTransformer)
+            {
+               final LongBatchTransformer batchDownstream = (LongBatchTransformer) downstream;
+
+               return Producable.this.producer(
+                  new BatchTransformer<T>()
+                  {
+                     long[] mapped;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(T t) throws IllegalStateException
+                     {
+                        batchDownstream.consume(mapper.map(t));
+                     }
+
+                     @Override
+                     public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (mapped == null || mapped.length < length)
+                           mapped = new long[length];
+
+                        for (int i = 0; i < length; i++)
+                           mapped[i] = mapper.map(batch[offset + i]);
+
+                        batchDownstream.consume(mapped, 0, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
             return Producable.this.producer(
                new Transformer<T>()
                {
@@ -777,6 +3094,48 @@ public abstract class Producable<T> implements Iterable<T>
          @Override
          public Producer producer(final DoubleTransformer downstream)
          {
+            if (downstream instanceof DoubleBatchTransformer)
+            {
+               final DoubleBatchTransformer batchDownstream = (DoubleBatchTransformer) downstream;
+
+               return Producable.this.producer(
+                  new BatchTransformer<T>()
+                  {
+                     double[] mapped;
+
+                     @Override
+                     public boolean canConsume()
+                     {
+                        return batchDownstream.canConsume();
+                     }
+
+                     @Override
+                     public void consume(T t) throws IllegalStateException
+                     {
+                        batchDownstream.consume(mapper.map(t));
+                     }
+
+                     @Override
+                     public void consume(T[] batch, int offset, int length) throws IllegalStateException
+                     {
+                        if (mapped == null || mapped.length < length)
+                           mapped = new double[length];
+
+                        for (int i = 0; i < length; i++)
+                           mapped[i] = mapper.map(batch[offset + i]);
+
+                        batchDownstream.consume(mapped, 0, length);
+                     }
+
+                     @Override
+                     public boolean produce()
+                     {
+                        return batchDownstream.produce();
+                     }
+                  }
+               );
+            }
+
             return Producable.this.producer(
                new Transformer<T>()
                {
@@ -0,0 +1,15 @@
+package pushpipes.v2;
+
+/**
+ * A stage of a {@link Prepared} chain whose per-execution state can be reset so that the stage (and it's buffers)
+ * can be reused for the next execution.
+ *
+ * @author peter.levart@gmail.com
+ */
+interface Resettable
+{
+   /**
+    * Resets the stage to the state it had right after it was constructed, keeping (but clearing) it's buffers.
+    */
+   void reset();
+}
@@ -0,0 +1,34 @@
+package pushpipes.v2;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes objects to and reads them back from a binary stream. Used by the stages that can spill their state to
+ * temporary files when it doesn't fit into the given memory budget (for example
+ * {@link Producable#sorted(java.util.Comparator, Serializer, int)}).<p/>
+ * {@link #read} must return an object equivalent to the one that was passed to {@link #write}.
+ *
+ * @author peter.levart@gmail.com
+ */
+public interface Serializer<T>
+{
+   /**
+    * Writes an object to a binary stream.
+    *
+    * @param t   the object to write
+    * @param out the stream to write to
+    * @throws IOException if writing to the stream fails
+    */
+   void write(T t, DataOutput out) throws IOException;
+
+   /**
+    * Reads an object, written by {@link #write}, from a binary stream.
+    *
+    * @param in the stream to read from
+    * @return the object read
+    * @throws IOException if reading from the stream fails
+    */
+   T read(DataInput in) throws IOException;
+}
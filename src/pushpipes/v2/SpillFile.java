@@ -0,0 +1,145 @@
+package pushpipes.v2;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A temporary file that is written once through a {@link FileChannel} and then read back once. The file is deleted
+ * when it is closed - either explicitly or by closing the stream obtained from {@link #in()}.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class SpillFile implements Closeable
+{
+   private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+   private final Path path;
+   private DataOutputStream out;
+   private DataInputStream in;
+   private long count;
+
+   SpillFile(String prefix)
+   {
+      try
+      {
+         path = Files.createTempFile(prefix, ".spill");
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't create spill file", e);
+      }
+   }
+
+   /**
+    * @return the stream to write to (the same stream on every call until {@link #in()} is called)
+    */
+   DataOutputStream out()
+   {
+      if (in != null)
+         throw new IllegalStateException("Already reading");
+
+      if (out == null)
+      {
+         try
+         {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), STREAM_BUFFER_SIZE));
+         }
+         catch (IOException e)
+         {
+            throw new PipeIOException("Can't open spill file for writing: " + path, e);
+         }
+      }
+
+      return out;
+   }
+
+   /**
+    * Finishes writing, releasing the output stream (and it's file handle) until the file is read back.
+    */
+   void finishWriting()
+   {
+      if (out != null)
+      {
+         try
+         {
+            out.close();
+         }
+         catch (IOException e)
+         {
+            throw new PipeIOException("Can't finish writing spill file: " + path, e);
+         }
+         finally
+         {
+            out = null;
+         }
+      }
+   }
+
+   /**
+    * Marks one more object written to the stream returned by {@link #out()}.
+    */
+   void written()
+   {
+      count++;
+   }
+
+   /**
+    * @return the number of objects written
+    */
+   long count()
+   {
+      return count;
+   }
+
+   /**
+    * Finishes writing and opens the file for reading. The file is deleted when the returned stream is closed.
+    *
+    * @return the stream to read from (the same stream on every call)
+    */
+   DataInputStream in()
+   {
+      if (in == null)
+      {
+         try
+         {
+            finishWriting();
+
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), STREAM_BUFFER_SIZE));
+         }
+         catch (IOException e)
+         {
+            throw new PipeIOException("Can't open spill file for reading: " + path, e);
+         }
+      }
+
+      return in;
+   }
+
+   @Override
+   public void close()
+   {
+      try
+      {
+         if (out != null)
+            out.close();
+         if (in != null)
+            in.close();
+         Files.deleteIfExists(path);
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't close spill file: " + path, e);
+      }
+      finally
+      {
+         out = null;
+         in = null;
+      }
+   }
+}
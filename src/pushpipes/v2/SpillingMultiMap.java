@@ -0,0 +1,237 @@
+package pushpipes.v2;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.functions.Mapper;
+
+/**
+ * Groups elements by key (or by several keys per element) keeping at most {@code maxElementsInMemory} group
+ * memberships on heap. When the budget is exceeded, the groups collected so far and all further elements are
+ * hash-partitioned by key into {@link #PARTITIONS} {@link SpillFile}s. Keys are not serialized - they are recomputed
+ * from the elements when a partition is read back, so only the position of the key among the element's keys is
+ * written along with each element. The groups are then produced one partition at a time, so only a single
+ * partition needs to fit on heap. Elements in each group keep their encounter order.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class SpillingMultiMap<T, U> implements Closeable
+{
+   static final int PARTITIONS = 64;
+
+   private final Mapper<? super T, ?> mapper;
+   private final boolean multi;
+   private final Serializer<T> serializer;
+   private final int maxElementsInMemory;
+
+   private Map<U, Collection<T>> multiMap = new HashMap<>();
+   private long size;
+   private SpillFile[] spills;
+
+   // output state
+   private boolean draining;
+   private int partition;
+   private Iterator<Map.Entry<U, Collection<T>>> iterator;
+
+   /**
+    * @param mapper              the function computing the key (or, if {@code multi}, an {@link Iterable} of keys)
+    *                            of an element
+    * @param multi               whether the {@code mapper} computes an {@link Iterable} of keys
+    * @param serializer          the serializer used to spill elements
+    * @param maxElementsInMemory the maximum number of group memberships to keep on heap
+    */
+   SpillingMultiMap(Mapper<? super T, ?> mapper, boolean multi, Serializer<T> serializer, int maxElementsInMemory)
+   {
+      if (maxElementsInMemory < 1)
+         throw new IllegalArgumentException("maxElementsInMemory: " + maxElementsInMemory);
+
+      this.mapper = mapper;
+      this.multi = multi;
+      this.serializer = serializer;
+      this.maxElementsInMemory = maxElementsInMemory;
+   }
+
+   void add(T t)
+   {
+      if (draining)
+         throw new IllegalStateException("Can not add after already producing");
+
+      if (multi)
+      {
+         int index = 0;
+         for (U key : keys(t))
+            add(key, index++, t);
+      }
+      else
+      {
+         add(key(t), 0, t);
+      }
+   }
+
+   boolean hasNext()
+   {
+      if (!draining)
+      {
+         draining = true;
+         if (spills == null)
+            iterator = multiMap.entrySet().iterator();
+         multiMap = null;
+      }
+
+      while (iterator == null || !iterator.hasNext())
+      {
+         if (spills == null || partition >= spills.length)
+         {
+            iterator = null;
+            return false;
+         }
+
+         iterator = load(partition++).entrySet().iterator();
+      }
+
+      return true;
+   }
+
+   Map.Entry<U, Collection<T>> next()
+   {
+      if (!hasNext())
+         throw new NoSuchElementException();
+
+      return iterator.next();
+   }
+
+   @Override
+   public void close()
+   {
+      multiMap = null;
+      iterator = null;
+      if (spills != null)
+      {
+         for (; partition < spills.length; partition++)
+            spills[partition].close();
+      }
+   }
+
+   private void add(U key, int index, T t)
+   {
+      if (spills != null)
+      {
+         write(key, index, t);
+         return;
+      }
+
+      Collection<T> group = multiMap.get(key);
+      if (group == null)
+         multiMap.put(Flyweights.retain(key), group = new ArrayList<>());
+
+      group.add(Flyweights.retain(t));
+
+      if (++size > maxElementsInMemory)
+         spill();
+   }
+
+   private void spill()
+   {
+      spills = new SpillFile[PARTITIONS];
+      for (int p = 0; p < PARTITIONS; p++)
+         spills[p] = new SpillFile("pushpipes-group");
+
+      for (Map.Entry<U, Collection<T>> entry : multiMap.entrySet())
+      {
+         U key = entry.getKey();
+         for (T t : entry.getValue())
+            write(key, multi ? indexOf(key, t) : 0, t);
+      }
+
+      multiMap = null;
+      size = 0;
+   }
+
+   private void write(U key, int index, T t)
+   {
+      SpillFile spill = spills[ParallelProducable.partition(key, PARTITIONS)];
+      try
+      {
+         DataOutputStream out = spill.out();
+         if (multi)
+            out.writeInt(index);
+         serializer.write(t, out);
+         spill.written();
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't write group partition", e);
+      }
+   }
+
+   private Map<U, Collection<T>> load(int p)
+   {
+      Map<U, Collection<T>> partitionMap = new HashMap<>();
+      SpillFile spill = spills[p];
+      try
+      {
+         DataInputStream in = spill.in();
+         for (long n = spill.count(); n > 0; n--)
+         {
+            int index = multi ? in.readInt() : 0;
+            T t = serializer.read(in);
+            U key = multi ? keyAt(index, t) : key(t);
+
+            Collection<T> group = partitionMap.get(key);
+            if (group == null)
+               partitionMap.put(key, group = new ArrayList<>());
+
+            group.add(t);
+         }
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't read group partition", e);
+      }
+      finally
+      {
+         spill.close();
+      }
+
+      return partitionMap;
+   }
+
+   @SuppressWarnings("unchecked")
+   private U key(T t)
+   {
+      return (U) mapper.map(t);
+   }
+
+   @SuppressWarnings("unchecked")
+   private Iterable<U> keys(T t)
+   {
+      return (Iterable<U>) mapper.map(t);
+   }
+
+   private int indexOf(U key, T t)
+   {
+      int index = 0;
+      for (U k : keys(t))
+      {
+         if (Objects.equals(k, key))
+            return index;
+         index++;
+      }
+
+      throw new IllegalStateException("Key " + key + " is no longer computed for element " + t);
+   }
+
+   private U keyAt(int index, T t)
+   {
+      int i = 0;
+      for (U k : keys(t))
+      {
+         if (i++ == index)
+            return k;
+      }
+
+      throw new IllegalStateException("Key #" + index + " is no longer computed for element " + t);
+   }
+}
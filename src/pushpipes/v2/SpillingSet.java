@@ -0,0 +1,139 @@
+package pushpipes.v2;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * De-duplicates elements keeping at most {@code maxElementsInMemory} distinct elements on heap. When the budget is
+ * exceeded, the elements collected so far and all further elements are hash-partitioned into
+ * {@link SpillingMultiMap#PARTITIONS} {@link SpillFile}s, which are then de-duplicated and produced one partition
+ * at a time, so only the distinct elements of a single partition need to fit on heap.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class SpillingSet<T> implements Closeable
+{
+   private final Serializer<T> serializer;
+   private final int maxElementsInMemory;
+
+   private Set<T> set = new HashSet<>();
+   private SpillFile[] spills;
+
+   // output state
+   private boolean draining;
+   private int partition;
+   private Iterator<T> iterator;
+
+   SpillingSet(Serializer<T> serializer, int maxElementsInMemory)
+   {
+      if (maxElementsInMemory < 1)
+         throw new IllegalArgumentException("maxElementsInMemory: " + maxElementsInMemory);
+
+      this.serializer = serializer;
+      this.maxElementsInMemory = maxElementsInMemory;
+   }
+
+   void add(T t)
+   {
+      if (draining)
+         throw new IllegalStateException("Can not add after already producing");
+
+      if (spills != null)
+      {
+         write(t);
+      }
+      else if (set.add(Flyweights.retain(t)) && set.size() > maxElementsInMemory)
+      {
+         spills = new SpillFile[SpillingMultiMap.PARTITIONS];
+         for (int p = 0; p < spills.length; p++)
+            spills[p] = new SpillFile("pushpipes-unique");
+
+         for (T e : set)
+            write(e);
+
+         set = null;
+      }
+   }
+
+   boolean hasNext()
+   {
+      if (!draining)
+      {
+         draining = true;
+         if (spills == null)
+            iterator = set.iterator();
+         set = null;
+      }
+
+      while (iterator == null || !iterator.hasNext())
+      {
+         if (spills == null || partition >= spills.length)
+         {
+            iterator = null;
+            return false;
+         }
+
+         iterator = load(partition++).iterator();
+      }
+
+      return true;
+   }
+
+   T next()
+   {
+      if (!hasNext())
+         throw new NoSuchElementException();
+
+      return iterator.next();
+   }
+
+   @Override
+   public void close()
+   {
+      set = null;
+      iterator = null;
+      if (spills != null)
+      {
+         for (; partition < spills.length; partition++)
+            spills[partition].close();
+      }
+   }
+
+   private void write(T t)
+   {
+      SpillFile spill = spills[ParallelProducable.partition(t, spills.length)];
+      try
+      {
+         serializer.write(t, spill.out());
+         spill.written();
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't write unique elements partition", e);
+      }
+   }
+
+   private Set<T> load(int p)
+   {
+      Set<T> partitionSet = new HashSet<>();
+      SpillFile spill = spills[p];
+      try
+      {
+         DataInputStream in = spill.in();
+         for (long n = spill.count(); n > 0; n--)
+            partitionSet.add(serializer.read(in));
+      }
+      catch (IOException e)
+      {
+         throw new PipeIOException("Can't read unique elements partition", e);
+      }
+      finally
+      {
+         spill.close();
+      }
+
+      return partitionSet;
+   }
+}
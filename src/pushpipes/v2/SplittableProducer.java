@@ -0,0 +1,72 @@
+package pushpipes.v2;
+
+/**
+ * A head {@link Producer} over a source with known size and random access (an array, a
+ * {@link java.util.RandomAccess} list or a range) that can be restricted to a sub-range of it's source before
+ * production starts. {@link ParallelProducable} builds one chain per split through the ordinary
+ * {@link Producable#producer(Transformer)} factory and restricts each chain's head to it's split.<p/>
+ * Stages whose output depends on seeing the whole input (sorting, de-duplication, grouping, cumulation, ...)
+ * hide the splittability of their upstream head by returning a {@link Barrier}, so such chains fall back to
+ * sequential execution.
+ *
+ * @author peter.levart@gmail.com
+ * @see ParallelProducable
+ */
+interface SplittableProducer extends Producer
+{
+   /**
+    * @return the number of elements this producer would produce if not restricted or -1 if unknown
+    */
+   long size();
+
+   /**
+    * Restricts this producer to produce only the elements with indexes in the range [from, to).
+    * Must be called before the first call to {@link #produce()}.
+    *
+    * @param from the index of the first element to produce (inclusive)
+    * @param to   the index of the last element to produce (exclusive)
+    */
+   void restrict(long from, long to);
+
+   /**
+    * A {@link Producer} that delegates to another producer but doesn't expose it as a {@link SplittableProducer}.
+    */
+   final class Barrier implements Producer
+   {
+      private final Producer producer;
+
+      private Barrier(Producer producer)
+      {
+         this.producer = producer;
+      }
+
+      /**
+       * Shields a stateful stage that can't be reset, so a chain containing it can't be {@link Prepared prepared}.
+       */
+      static Producer of(Producer producer)
+      {
+         Prepared.barrier();
+         return shield(producer);
+      }
+
+      /**
+       * Shields a stateful stage that has {@link Prepared#register registered} it's reset.
+       */
+      static Producer ofResettable(Producer producer)
+      {
+         Prepared.resettableBarrier();
+         return shield(producer);
+      }
+
+      private static Producer shield(Producer producer)
+      {
+         return producer instanceof SplittableProducer ? new Barrier(producer) : producer;
+      }
+
+      @Override
+      public boolean produce()
+      {
+         return producer.produce();
+      }
+   }
+}
@@ -0,0 +1,42 @@
+package pushpipes.v2;
+
+import java.util.functions.Mapper;
+import java.util.functions.Predicate;
+
+/**
+ * One stage of a {@link ChainCompiler compiled} run of filter/map stages. This class is the template that the
+ * compiler loads anew for each position of each chain shape, so that the {@code test}/{@code map} call and the
+ * call to the next stage of each copy only ever see a single receiver class and stay monomorphic (and inlinable)
+ * no matter how many other chains run in the same VM.<p/>
+ * Since copies live in their own class loaders (and run-time packages), this class may only refer to public types.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class StageKernel implements Consumer<Object>
+{
+   private final boolean filter;
+   private final Object stage;
+   private final Consumer<Object> next;
+
+   StageKernel(boolean filter, Object stage, Consumer<Object> next)
+   {
+      this.filter = filter;
+      this.stage = stage;
+      this.next = next;
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public void consume(Object t)
+   {
+      if (filter)
+      {
+         if (((Predicate<Object>) stage).test(t))
+            next.consume(t);
+      }
+      else
+      {
+         next.consume(((Mapper<Object, Object>) stage).map(t));
+      }
+   }
+}
@@ -0,0 +1,170 @@
+package pushpipes.v2;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A bounded max-heap that retains the {@code limit} smallest keys (with optional associated values) offered to it,
+ * using O(limit) memory. Ties are broken by encounter order, so the retained elements and their final order are
+ * the same as those of a stable sort followed by taking the first {@code limit} elements.<p/>
+ * Used by the {@code topK} stages of {@link Producable} and {@link MapProducable}.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class TopK<K, V>
+{
+   private final int limit;
+   private final Comparator<? super K> comparator;
+   private Object[] keys;
+   private Object[] values;
+   private long[] seqs;
+   private int size;
+   private long seq;
+
+   TopK(int limit, Comparator<? super K> comparator, boolean withValues)
+   {
+      if (limit < 0)
+         throw new IllegalArgumentException("limit: " + limit);
+
+      this.limit = limit;
+      this.comparator = comparator;
+      int capacity = Math.min(limit, Producable.DEFAULT_BUFFER_CAPACITY);
+      keys = new Object[capacity];
+      values = withValues ? new Object[capacity] : null;
+      seqs = new long[capacity];
+   }
+
+   void offer(K k, V v)
+   {
+      long s = seq++;
+
+      if (size < limit)
+      {
+         if (size == keys.length)
+            grow();
+
+         set(size, Flyweights.retain(k), Flyweights.retain(v), s);
+         siftUp(size++);
+      }
+      else if (limit > 0 && compare(k, s, 0) < 0)
+      {
+         // replace the current largest element
+         set(0, Flyweights.retain(k), Flyweights.retain(v), s);
+         siftDown(0, size);
+      }
+   }
+
+   /**
+    * Sorts the retained elements in ascending order (destroys the heap).
+    */
+   void sort()
+   {
+      for (int end = size - 1; end > 0; end--)
+      {
+         swap(0, end);
+         siftDown(0, end);
+      }
+   }
+
+   int size()
+   {
+      return size;
+   }
+
+   /**
+    * Removes all retained elements, keeping the allocated arrays for reuse.
+    */
+   void clear()
+   {
+      Arrays.fill(keys, 0, size, null);
+      if (values != null)
+         Arrays.fill(values, 0, size, null);
+      size = 0;
+      seq = 0L;
+   }
+
+   @SuppressWarnings("unchecked")
+   K key(int i)
+   {
+      return (K) keys[i];
+   }
+
+   @SuppressWarnings("unchecked")
+   V value(int i)
+   {
+      return (V) values[i];
+   }
+
+   //
+   // heap implementation
+
+   @SuppressWarnings("unchecked")
+   private int compare(K k, long s, int i)
+   {
+      int c = comparator.compare(k, (K) keys[i]);
+      return c != 0 ? c : Long.compare(s, seqs[i]);
+   }
+
+   @SuppressWarnings("unchecked")
+   private int compare(int i, int j)
+   {
+      return compare((K) keys[i], seqs[i], j);
+   }
+
+   private void set(int i, K k, V v, long s)
+   {
+      keys[i] = k;
+      if (values != null)
+         values[i] = v;
+      seqs[i] = s;
+   }
+
+   private void swap(int i, int j)
+   {
+      Object k = keys[i];
+      keys[i] = keys[j];
+      keys[j] = k;
+      if (values != null)
+      {
+         Object v = values[i];
+         values[i] = values[j];
+         values[j] = v;
+      }
+      long s = seqs[i];
+      seqs[i] = seqs[j];
+      seqs[j] = s;
+   }
+
+   private void siftUp(int i)
+   {
+      while (i > 0)
+      {
+         int parent = (i - 1) >>> 1;
+         if (compare(i, parent) <= 0)
+            break;
+         swap(i, parent);
+         i = parent;
+      }
+   }
+
+   private void siftDown(int i, int end)
+   {
+      for (int child; (child = (i << 1) + 1) < end; i = child)
+      {
+         if (child + 1 < end && compare(child + 1, child) > 0)
+            child++;
+         if (compare(child, i) <= 0)
+            break;
+         swap(i, child);
+      }
+   }
+
+   private void grow()
+   {
+      int capacity = (int) Math.min((long) limit, Math.max(keys.length * 2L, 1L));
+      keys = Arrays.copyOf(keys, capacity);
+      if (values != null)
+         values = Arrays.copyOf(values, capacity);
+      seqs = Arrays.copyOf(seqs, capacity);
+   }
+}
@@ -22,6 +22,7 @@ import java.util.functions.Predicate;
  *
  *    while (transformer.produce()) {} // drain output
  * </pre>
+ * Transformers that can also accept whole chunks of input at once implement {@link BatchTransformer}.<p/>
  *
  * @author peter.levart@gmail.com
  */
@@ -58,7 +59,7 @@ public interface Transformer<T> extends Consumer<T>, Producer
       }
    }
 
-   final class ConsumerTail<T> extends Tail<T>
+   final class ConsumerTail<T> extends Tail<T> implements BatchTransformer<T>
    {
       private final Consumer<? super T> consumer;
 
@@ -72,9 +73,16 @@ public interface Transformer<T> extends Consumer<T>, Producer
       {
          consumer.consume(t);
       }
+
+      @Override
+      public void consume(T[] batch, int offset, int length) throws IllegalStateException
+      {
+         for (int i = offset, end = offset + length; i < end; i++)
+            consumer.consume(batch[i]);
+      }
    }
 
-   final class BlockTail<T> extends Tail<T>
+   final class BlockTail<T> extends Tail<T> implements BatchTransformer<T>
    {
       private final Block<? super T> block;
 
@@ -88,9 +96,16 @@ public interface Transformer<T> extends Consumer<T>, Producer
       {
          block.apply(t);
       }
+
+      @Override
+      public void consume(T[] batch, int offset, int length) throws IllegalStateException
+      {
+         for (int i = offset, end = offset + length; i < end; i++)
+            block.apply(batch[i]);
+      }
    }
 
-   final class ResultCounterTail extends Tail<Object>
+   final class ResultCounterTail extends Tail<Object> implements BatchTransformer<Object>
    {
       private long count;
 
@@ -100,6 +115,12 @@ public interface Transformer<T> extends Consumer<T>, Producer
          count++;
       }
 
+      @Override
+      public void consume(Object[] batch, int offset, int length)
+      {
+         count += length;
+      }
+
       public long getResultCount(Producer producer)
       {
          while (producer.produce()) {}
@@ -127,7 +148,7 @@ public interface Transformer<T> extends Consumer<T>, Producer
       @Override
       public void consume(T t)
       {
-         next = t;
+         next = Flyweights.retain(t);
          hasNext = true;
       }
 
@@ -188,7 +209,7 @@ public interface Transformer<T> extends Consumer<T>, Producer
          if (hasResult)
             throw new IllegalStateException("Multiple results");
 
-         result = t;
+         result = Flyweights.retain(t);
          hasResult = true;
       }
 
@@ -252,7 +273,7 @@ public interface Transformer<T> extends Consumer<T>, Producer
       }
    }
 
-   final class ReducerTail<T> extends Tail<T>
+   final class ReducerTail<T> extends Tail<T> implements BatchTransformer<T>
    {
       private final BinaryOperator<T> reducer;
 
@@ -274,7 +295,27 @@ public interface Transformer<T> extends Consumer<T>, Producer
       @Override
       public void consume(T t) throws IllegalStateException
       {
-         result = hasResult ? reducer.eval(result, t) : t;
+         T result = hasResult ? reducer.eval(this.result, t) : t;
+         this.result = result == t ? Flyweights.retain(t) : result;
+         hasResult = true;
+      }
+
+      @Override
+      public void consume(T[] batch, int offset, int length) throws IllegalStateException
+      {
+         if (length == 0)
+            return;
+
+         int i = offset, end = offset + length;
+         T result = hasResult ? this.result : Flyweights.retain(batch[i++]);
+         for (; i < end; i++)
+         {
+            T t = batch[i];
+            result = reducer.eval(result, t);
+            if (result == t)
+               result = Flyweights.retain(t);
+         }
+         this.result = result;
          hasResult = true;
       }
 
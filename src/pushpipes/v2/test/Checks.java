@@ -0,0 +1,35 @@
+package pushpipes.v2.test;
+
+import java.util.List;
+
+/**
+ * Helpers of the test classes that verify their results.
+ *
+ * @author peter.levart@gmail.com
+ */
+final class Checks
+{
+   private Checks() {}
+
+   /**
+    * Prints the result of a check and throws {@link AssertionError} when it's not the expected one.
+    */
+   static void check(String what, Object actual, Object expected)
+   {
+      System.out.println(what + ": " + actual);
+
+      if (!expected.equals(actual))
+         throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+   }
+
+   static boolean isAscending(List<Integer> list)
+   {
+      for (int i = 1; i < list.size(); i++)
+      {
+         if (list.get(i - 1) > list.get(i))
+            return false;
+      }
+
+      return true;
+   }
+}
@@ -0,0 +1,162 @@
+package pushpipes.v2.test;
+
+import pushpipes.v2.*;
+
+import java.nio.file.Paths;
+import java.util.*;
+
+import static pushpipes.v2.test.Checks.*;
+
+/**
+ * Checks stages and adapters that pass elements between threads: {@code async}, {@link Flows} and
+ * {@link Handoff}.
+ *
+ * @author peter.levart@gmail.com
+ */
+public class ConcurrentTest
+{
+   public static void main(String[] args) throws InterruptedException
+   {
+      List<Integer> numbers = new ArrayList<>();
+      for (int i = 0; i < 100000; i++)
+         numbers.add(i);
+
+      check("async: in order", inOrder(Producable.from(numbers).async(64), numbers.size()), true);
+      check("async: even", Producable.from(numbers).async(64).filter(i -> (i & 1) == 0).count(), 50000L);
+      check("async then limit", Producable.from(numbers).async(16).limit(5).count(), 5L);
+
+      check("Flows round trip: in order",
+            inOrder(Flows.fromPublisher(Flows.toPublisher(Producable.from(numbers)), 64), numbers.size()), true);
+      check("Flows round trip then limit",
+            Flows.fromPublisher(Flows.toPublisher(Producable.from(numbers)), 64).limit(100).count(), 100L);
+
+      final List<Integer> received = new ArrayList<>();
+      final List<String> signals = new ArrayList<>();
+      Flows.toPublisher(Producable.from(numbers)).subscribe(
+         new Flows.Subscriber<Integer>()
+         {
+            Flows.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flows.Subscription subscription)
+            {
+               this.subscription = subscription;
+               subscription.request(3);
+            }
+
+            @Override
+            public void onNext(Integer i)
+            {
+               received.add(i);
+               if (received.size() == 3)
+               {
+                  subscription.request(2);
+               }
+               else if (received.size() == 5)
+               {
+                  subscription.cancel();
+               }
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+               signals.add("error");
+            }
+
+            @Override
+            public void onComplete()
+            {
+               signals.add("complete");
+            }
+         }
+      );
+
+      check("Flows demand and cancel: received", received, Arrays.asList(0, 1, 2, 3, 4));
+      check("Flows demand and cancel: signals", signals, Collections.<String>emptyList());
+
+      signals.clear();
+      Flows.toPublisher(Producable.lines(Paths.get("no-such-file.txt"))).subscribe(
+         new Flows.Subscriber<CharSequence>()
+         {
+            @Override
+            public void onSubscribe(Flows.Subscription subscription)
+            {
+               signals.add("subscribe");
+            }
+
+            @Override
+            public void onNext(CharSequence line)
+            {
+               signals.add("next");
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+               signals.add(throwable.getClass().getSimpleName());
+            }
+
+            @Override
+            public void onComplete()
+            {
+               signals.add("complete");
+            }
+         }
+      );
+
+      check("Flows missing file: signals", signals, Arrays.asList("subscribe", "PipeIOException"));
+
+      Handoff<Integer> handoff = new Handoff<>(256);
+      Thread upstream = new Thread(handoff.pump(Producable.from(numbers)));
+      upstream.start();
+      check("Handoff: in order", inOrder(handoff.outlet(), numbers.size()), true);
+      upstream.join();
+
+      handoff = new Handoff<>(8);
+      upstream = new Thread(handoff.pump(Producable.from(numbers)));
+      upstream.start();
+      check("Handoff then limit", handoff.outlet().limit(10).count(), 10L);
+      upstream.join();
+
+      handoff = new Handoff<>(8);
+      upstream = new Thread(
+         handoff.pump(
+            Producable.from(numbers).map(
+               i ->
+               {
+                  if (i == 1000)
+                     throw new IllegalStateException("upstream failed");
+                  return i;
+               }
+            )
+         )
+      );
+      upstream.start();
+      String failure = null;
+      try
+      {
+         handoff.outlet().count();
+      }
+      catch (IllegalStateException e)
+      {
+         failure = e.getMessage();
+      }
+      upstream.join();
+      check("Handoff: upstream failure", failure, "upstream failed");
+
+      System.out.println();
+   }
+
+   static boolean inOrder(Producable<Integer> producable, int size)
+   {
+      int expected = 0;
+      for (Integer i : producable)
+      {
+         if (i != expected++)
+            return false;
+      }
+
+      return expected == size;
+   }
+}
@@ -0,0 +1,68 @@
+package pushpipes.v2.test;
+
+import pushpipes.v2.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static pushpipes.v2.test.Checks.*;
+
+/**
+ * Checks de-duplicating stages and terminals, exact and approximate.
+ *
+ * @author peter.levart@gmail.com
+ */
+public class DistinctTest
+{
+   public static void main(String[] args)
+   {
+      // 0..9999, each ten times
+      List<Integer> numbers = new ArrayList<>();
+      for (int i = 0; i < 100000; i++)
+         numbers.add((int) (i * 7919L % 100000) % 10000);
+
+      check("uniqueElements: count", Producable.from(numbers).uniqueElements().count(), 10000L);
+      check("uniqueElements with a size hint: count", Producable.from(numbers).uniqueElements(16).count(), 10000L);
+      check("uniqueElements: nulls", Producable.from(Arrays.asList(1, null, 1, null)).uniqueElements().count(), 2L);
+
+      final List<Integer> firsts = new ArrayList<>();
+      Producable.from(Arrays.asList(3, 1, 3, 2, 1, 4, 2)).distinct().forEach(i -> { firsts.add(i); });
+      check("distinct: first occurrences in order", firsts, Arrays.asList(3, 1, 2, 4));
+
+      check("distinct: count", Producable.from(numbers).distinct().count(), 10000L);
+
+      final int[] pulled = new int[1];
+      Integer first = Producable.from(numbers).map(i -> { pulled[0]++; return i; }).distinct().getFirst();
+      check("distinct: getFirst", first, numbers.get(0));
+      check("distinct: getFirst pulls one element", pulled[0], 1);
+
+      long approxCount = Producable.from(numbers).approxDistinct(10000L, 0.01).count();
+      check("approxDistinct: count within 2%", approxCount > 9800L && approxCount <= 10000L, true);
+      check("approxDistinct: no duplicates",
+            Producable.from(numbers).approxDistinct(10000L, 0.01).uniqueElements().count(), approxCount);
+
+      // sized lazily: the filter is only allocated when the chain is executed
+      Producable.from(numbers).approxDistinct(1000000000L, 0.01);
+
+      String rejected = null;
+      try
+      {
+         Producable.from(numbers).approxDistinct(10000L, 1d);
+      }
+      catch (IllegalArgumentException e)
+      {
+         rejected = "rejected";
+      }
+      check("approxDistinct: invalid rate", rejected, "rejected");
+
+      long estimate = Producable.from(numbers).approxCountDistinct(12);
+      check("approxCountDistinct: within 5%", Math.abs(estimate - 10000L) < 500L, true);
+
+      ForkJoinPool pool = new ForkJoinPool(4);
+      estimate = Producable.from(numbers).parallel(pool).approxCountDistinct(12);
+      check("parallel approxCountDistinct: within 5%", Math.abs(estimate - 10000L) < 500L, true);
+      pool.shutdown();
+
+      System.out.println();
+   }
+}
@@ -0,0 +1,98 @@
+package pushpipes.v2.test;
+
+import pushpipes.v2.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static pushpipes.v2.test.Checks.*;
+
+/**
+ * Checks heads that push one reused {@link Flyweight} view for every element (mapped lines and records of a file)
+ * through stages that do and don't keep elements.
+ *
+ * @author peter.levart@gmail.com
+ */
+public class FlyweightTest
+{
+   public static void main(String[] args) throws IOException
+   {
+      Path file = Files.createTempFile("pushpipes", ".txt");
+      try
+      {
+         StringBuilder text = new StringBuilder();
+         for (int i = 0; i < 1000; i++)
+            text.append("line ").append(i % 100).append(i % 2 == 0 ? "\n" : "\r\n");
+         Files.write(file, text.toString().getBytes("UTF-8"));
+
+         check("lines: count", Producable.lines(file).count(), 1000L);
+         check("lines: terminators removed", Producable.lines(file).filter(cs -> cs.length() > 7).count(), 0L);
+         check("lines: unique", Producable.lines(file).uniqueElements().count(), 100L);
+
+         final List<String> first = new ArrayList<>();
+         Producable.lines(file)
+            .sorted((cs1, cs2) -> cs1.toString().compareTo(cs2.toString()))
+            .limit(3)
+            .forEach(cs -> { first.add(cs.toString()); });
+
+         check("lines then sorted", first, Arrays.asList("line 0", "line 0", "line 0"));
+
+         String rejected = null;
+         try
+         {
+            Producable.lines(file, Charset.forName("UTF-16"));
+         }
+         catch (IllegalArgumentException e)
+         {
+            rejected = "rejected";
+         }
+         check("lines in UTF-16", rejected, "rejected");
+
+         // a permutation of 0..999, as ints
+         ByteBuffer ints = ByteBuffer.allocate(4 * 1000);
+         for (int i = 0; i < 1000; i++)
+            ints.putInt(i * 7919 % 1000);
+         Files.write(file, ints.array());
+
+         check("records: count", Producable.records(file, 4).count(), 1000L);
+
+         final List<Integer> smallest = new ArrayList<>();
+         Producable.records(file, 4)
+            .sorted((r1, r2) -> Integer.compare(r1.getInt(0), r2.getInt(0)))
+            .limit(3)
+            .forEach(r -> { smallest.add(r.getInt(0)); });
+
+         check("records then sorted", smallest, Arrays.asList(0, 1, 2));
+
+         ByteRecord.Bytes max = Producable.records(file, 4).reduce(
+            new ByteRecord.Bytes(),
+            (r1, r2) -> r1.length() == 0 || r2.getInt(0) > r1.getInt(0) ? r2 : r1
+         );
+         check("records then reduce", max.getInt(0), 999);
+
+         final List<Integer> sortedKeys = new ArrayList<>();
+         Producable.records(file, 4)
+            .mapped(r -> r.getInt(0) % 10)
+            .sorted((r1, r2) -> Integer.compare(r1.getInt(0), r2.getInt(0)))
+            .forEach((r, digit) -> { if (sortedKeys.size() < 3) sortedKeys.add(r.getInt(0)); });
+
+         check("records mapped then sorted", sortedKeys, Arrays.asList(0, 1, 2));
+
+         Files.write(file, "a,bb,,ccc".getBytes("UTF-8"));
+         final List<Integer> lengths = new ArrayList<>();
+         Producable.records(file, (byte) ',').forEach(r -> { lengths.add(r.length()); });
+
+         check("delimited records: lengths", lengths, Arrays.asList(1, 2, 0, 3));
+      }
+      finally
+      {
+         Files.delete(file);
+      }
+
+      System.out.println();
+   }
+}
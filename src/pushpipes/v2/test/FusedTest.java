@@ -0,0 +1,74 @@
+package pushpipes.v2.test;
+
+import pushpipes.v2.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static pushpipes.v2.test.Checks.*;
+
+/**
+ * Checks runs of fused filter/map stages, interpreted and {@link Producable#compile() compiled}.
+ *
+ * @author peter.levart@gmail.com
+ */
+public class FusedTest
+{
+   public static void main(String[] args)
+   {
+      List<Integer> numbers = new ArrayList<>();
+      for (int i = 0; i < 10000; i++)
+         numbers.add(i);
+
+      check("fused filter/map: sum",
+            Producable.from(numbers).filter(i -> i % 3 == 0).map(i -> i * 2L).reduce(0L, (l1, l2) -> l1 + l2),
+            33336666L);
+
+      // a batch-capable stage after the run
+      final List<Integer> descending = new ArrayList<>();
+      Producable.from(numbers)
+         .map(i -> i * 7)
+         .filter(i -> i % 2 == 0)
+         .map(i -> i / 7)
+         .filter(i -> i >= 9990)
+         .sorted((i1, i2) -> Integer.compare(i2, i1))
+         .forEach(i -> { descending.add(i); });
+
+      check("fused run then sorted", descending, Arrays.asList(9998, 9996, 9994, 9992, 9990));
+
+      final int[] pairs = new int[1];
+      final boolean[] matching = {true};
+      Producable.from(numbers)
+         .filter(i -> i < 100)
+         .map(i -> i + 1)
+         .mapped(i -> i * i)
+         .forEach((i, square) ->
+          {
+             pairs[0]++;
+             matching[0] &= square == i * i;
+          });
+
+      check("fused run then mapped: pairs", pairs[0], 100);
+      check("fused run then mapped: values", matching[0], true);
+
+      check("compiled filter/map: sum",
+            Producable.from(numbers).filter(i -> i % 3 == 0).map(i -> i * 2L).compile().reduce(0L, (l1, l2) -> l1 + l2),
+            33336666L);
+      check("compiled filter/map then limit",
+            Producable.from(numbers).map(i -> i + 1).filter(i -> (i & 1) == 0).compile().limit(10).count(), 10L);
+
+      // a flyweight head: compiled stages must pass each element on before the view moves to the next one
+      ByteBuffer buffer = ByteBuffer.allocate(16);
+      buffer.putInt(4).putInt(3).putInt(1).putInt(2).flip();
+      final List<Integer> sorted = new ArrayList<>();
+      Producable.records(buffer, 4, new ByteRecord.Bytes())
+         .filter(r -> true)
+         .compile()
+         .sorted((r1, r2) -> Integer.compare(r1.getInt(0), r2.getInt(0)))
+         .forEach(r -> { sorted.add(r.getInt(0)); });
+
+      check("compiled flyweight records then sorted", sorted, Arrays.asList(1, 2, 3, 4));
+
+      System.out.println();
+   }
+}
@@ -0,0 +1,93 @@
+package pushpipes.v2.test;
+
+import pushpipes.v2.*;
+
+import java.util.*;
+
+import static pushpipes.v2.test.Checks.*;
+
+/**
+ * Checks grouping stages, keyed by objects and by primitive keys.
+ *
+ * @author peter.levart@gmail.com
+ */
+public class GroupingTest
+{
+   public static void main(String[] args)
+   {
+      // a permutation of 0..99999
+      List<Integer> numbers = new ArrayList<>();
+      for (int i = 0; i < 100000; i++)
+         numbers.add((int) (i * 7919L % 100000));
+
+      final Map<Integer, Integer> sizes = new HashMap<>();
+      final boolean[] matching = {true};
+      Producable.from(numbers)
+         .groupBy(i -> i % 1000, 10)
+         .forEach((k, group) ->
+          {
+             int size = 0;
+             for (Integer i : group)
+             {
+                size++;
+                matching[0] &= i % 1000 == k;
+             }
+             sizes.put(k, size);
+          });
+
+      check("groupBy: groups", sizes.size(), 1000);
+      check("groupBy: group sizes", new HashSet<>(sizes.values()), Collections.singleton(100));
+      check("groupBy: members match their key", matching[0], true);
+
+      final int[] pairs = new int[1];
+      final Set<String> multiKeys = new HashSet<>();
+      Producable.from(Arrays.asList("ab", "bc", "ca"))
+         .groupByMulti(s -> Arrays.asList(s.substring(0, 1), s.substring(1)))
+         .forEach((k, group) ->
+          {
+             multiKeys.add(k);
+             for (String s : group)
+                pairs[0]++;
+          });
+
+      check("groupByMulti: keys", multiKeys, new HashSet<>(Arrays.asList("a", "b", "c")));
+      check("groupByMulti: members", pairs[0], 6);
+
+      final List<Integer> keys = new ArrayList<>();
+      final int[] members = new int[1];
+      final boolean[] keyed = {true};
+      Producable.from(numbers)
+         .groupByInt(i -> i % 100)
+         .sorted()
+         .forEach((int k, Iterable<Integer> group) ->
+          {
+             keys.add(k);
+             for (Integer i : group)
+             {
+                members[0]++;
+                keyed[0] &= i % 100 == k;
+             }
+          });
+
+      check("groupByInt then sorted: keys", keys.size(), 100);
+      check("groupByInt then sorted: ascending", isAscending(keys), true);
+      check("groupByInt: members", members[0], numbers.size());
+      check("groupByInt: members match their key", keyed[0], true);
+
+      final long[] keySum = new long[1];
+      final int[] groups = new int[1];
+      Producable.from(numbers)
+         .keyedByLong(i -> i * 1000000L % 7)
+         .groupBy()
+         .forEach((long k, Iterable<Integer> group) ->
+          {
+             groups[0]++;
+             keySum[0] += k;
+          });
+
+      check("keyedByLong then groupBy: groups", groups[0], 7);
+      check("keyedByLong then groupBy: sum of keys", keySum[0], 21L);
+
+      System.out.println();
+   }
+}
@@ -0,0 +1,63 @@
+package pushpipes.v2.test;
+
+import pushpipes.v2.*;
+
+/**
+ * @author peter.levart@gmail.com
+ */
+public class PrimitiveTest
+{
+   public static void main(String[] args)
+   {
+      int sumOfOddSquares = IntProducable.range(0, 100)
+         .filter(i -> (i & 1) == 1)
+         .map(i -> i * i)
+         .reduce(0, (i1, i2) -> i1 + i2);
+
+      System.out.println("sum of squares of odd numbers below 100: " + sumOfOddSquares);
+
+      long factorial = LongProducable.rangeClosed(1L, 20L).reduce(1L, (l1, l2) -> l1 * l2);
+
+      System.out.println("20! = " + factorial);
+
+      System.out.print("distinct sorted digits of pi:");
+      for (
+         String s
+         :
+         IntProducable.from(3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5, 8, 9, 7, 9, 3)
+            .distinct()
+            .sorted()
+            .mapToObj(d -> " " + d)
+         )
+         System.out.print(s);
+
+      System.out.println();
+
+      System.out.print("triangle:");
+      for (
+         String s
+         :
+         IntProducable.rangeClosed(1, 4)
+            .flatMap(i -> IntProducable.range(0, i))
+            .asLongs()
+            .cumulate((l1, l2) -> l1 + l2)
+            .mapToObj(l -> " " + l)
+         )
+         System.out.print(s);
+
+      System.out.println();
+
+      double mean = DoubleProducable.from(1.5, 2.5, 3.5, 4.5).reduce(0d, (d1, d2) -> d1 + d2) / 4;
+
+      System.out.println("mean: " + mean);
+
+      System.out.println("words by length:");
+
+      Producable.from("one", "two", "three", "four", "five", "six", "seven")
+         .groupByInt(w -> w.length())
+         .sorted()
+         .forEach((len, ws) -> System.out.println("  " + len + " : " + ws));
+
+      System.out.println();
+   }
+}
@@ -6,9 +6,16 @@ package pushpipes.v2.test;
  */
 public class RunTests
 {
-   public static void main(String[] args)
+   public static void main(String[] args) throws Exception
    {
       SimpleTest.main(args);
       PoemTest.main(args);
+      PrimitiveTest.main(args);
+      StatefulTest.main(args);
+      DistinctTest.main(args);
+      GroupingTest.main(args);
+      FusedTest.main(args);
+      FlyweightTest.main(args);
+      ConcurrentTest.main(args);
    }
 }
@@ -0,0 +1,129 @@
+package pushpipes.v2.test;
+
+import pushpipes.v2.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static pushpipes.v2.test.Checks.*;
+
+/**
+ * Checks stateful stages: parallel grouping followed by further stateful stages, spilling with a tiny memory budget
+ * and reuse of prepared chains.
+ *
+ * @author peter.levart@gmail.com
+ */
+public class StatefulTest
+{
+   public static void main(String[] args)
+   {
+      // a permutation of 0..99999
+      List<Integer> numbers = new ArrayList<>();
+      for (int i = 0; i < 100000; i++)
+         numbers.add((int) (i * 7919L % 100000));
+
+      ForkJoinPool pool = new ForkJoinPool(4);
+
+      final List<Integer> keys = new ArrayList<>();
+      Producable.from(numbers).parallel(pool)
+         .groupBy(i -> i % 1000)
+         .sorted((k1, k2) -> Integer.compare(k1, k2))
+         .forEach((k, group) -> { keys.add(k); });
+
+      check("parallel groupBy then sorted: keys", keys.size(), 1000);
+      check("parallel groupBy then sorted: ascending", isAscending(keys), true);
+
+      keys.clear();
+      Producable.from(numbers).parallel(pool)
+         .groupBy(i -> i % 1000)
+         .topK(3, (k1, k2) -> Integer.compare(k2, k1))
+         .forEach((k, group) -> { keys.add(k); });
+
+      check("parallel groupBy then topK: keys", keys, Arrays.asList(999, 998, 997));
+
+      Serializer<Integer> ints = new Serializer<Integer>()
+      {
+         @Override
+         public void write(Integer i, DataOutput out) throws IOException
+         {
+            out.writeInt(i);
+         }
+
+         @Override
+         public Integer read(DataInput in) throws IOException
+         {
+            return in.readInt();
+         }
+      };
+
+      List<Integer> sorted = new ArrayList<>();
+      for (Integer i : Producable.from(numbers).sorted((i1, i2) -> Integer.compare(i1, i2), ints, 10))
+         sorted.add(i);
+
+      check("spilling sorted: elements", sorted.size(), numbers.size());
+      check("spilling sorted: ascending", isAscending(sorted), true);
+
+      check("spilling uniqueElements: count", Producable.from(numbers).map(i -> i % 5000).uniqueElements(ints, 10).count(), 5000L);
+
+      final int[] groups = new int[1], members = new int[1];
+      final boolean[] keyed = {true};
+      Producable.from(numbers)
+         .groupBy(i -> i % 100, ints, 50)
+         .forEach((k, group) ->
+          {
+             groups[0]++;
+             for (Integer i : group)
+             {
+                members[0]++;
+                keyed[0] &= i % 100 == k;
+             }
+          });
+
+      check("spilling groupBy: groups", groups[0], 100);
+      check("spilling groupBy: members", members[0], numbers.size());
+      check("spilling groupBy: members match their key", keyed[0], true);
+
+      Prepared<Integer, Integer> smallestEven = Producable.prepare(
+         (Producable<Integer> p) -> p.filter(i -> (i & 1) == 0).sorted((i1, i2) -> Integer.compare(i1, i2)).limit(3)
+      );
+
+      final List<Integer> result = new ArrayList<>();
+      smallestEven.run(Arrays.asList(9, 8, 7, 6, 5, 4), i -> { result.add(i); });
+      check("prepared: first run", result, Arrays.asList(4, 6, 8));
+
+      result.clear();
+      smallestEven.run(Arrays.asList(3, 2, 1, 0), i -> { result.add(i); });
+      check("prepared: second run", result, Arrays.asList(0, 2));
+
+      check("prepared: count", smallestEven.count(numbers), 3L);
+
+      Prepared<Integer, Integer> parallelSorted = Producable.prepare(
+         (Producable<Integer> p) -> p.parallel(pool).sorted((i1, i2) -> Integer.compare(i1, i2))
+      );
+
+      result.clear();
+      parallelSorted.run(Arrays.asList(3, 1, 2), i -> { result.add(i); });
+      check("prepared parallel sorted: first run", result, Arrays.asList(1, 2, 3));
+
+      result.clear();
+      parallelSorted.run(Arrays.asList(5, 4), i -> { result.add(i); });
+      check("prepared parallel sorted: second run", result, Arrays.asList(4, 5));
+
+      String unsupported = null;
+      try
+      {
+         Producable.prepare((Producable<Integer> p) -> p.sorted((i1, i2) -> Integer.compare(i1, i2), ints, 10));
+      }
+      catch (UnsupportedOperationException e)
+      {
+         unsupported = "rejected";
+      }
+      check("prepared spilling sorted", unsupported, "rejected");
+
+      pool.shutdown();
+      System.out.println();
+   }
+}